@@ -0,0 +1,103 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.ionseries.tools.SyntheticMzIdWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of IonSeriesGenerator.generateIonSeries on synthetic mzid files.
+ *
+ * The file is written once per trial by the SyntheticMzIdWriter. Each invocation reads and processes the complete
+ * file, so the benchmark reports the time per file.
+ *
+ * @author vnijenhuis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1)
+public class IonSeriesFileBenchmark {
+
+    /**
+     * Amount of peptide spectrum matches in the file.
+     */
+    @Param({"1000", "100000", "1000000"})
+    private int psmCount;
+
+    /**
+     * True to stream the SpectrumIdentificationResult elements.
+     */
+    @Param({"false", "true"})
+    private boolean streaming;
+
+    /**
+     * Amount of threads used to determine the ion series.
+     */
+    @Param({"4"})
+    private int threads;
+
+    /**
+     * Synthetic mzid file.
+     */
+    private File mzIdFile;
+
+    /**
+     * Writes the synthetic mzid file.
+     *
+     * @throws IOException could not write the file.
+     * @throws XMLStreamException could not create the xml.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, XMLStreamException {
+        mzIdFile = File.createTempFile("synthetic-" + psmCount + "-", ".mzid");
+        new SyntheticMzIdWriter(psmCount, 1).write(mzIdFile);
+    }
+
+    /**
+     * Removes the synthetic mzid file.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!mzIdFile.delete()) {
+            System.out.println("WARNING: could not remove " + mzIdFile);
+        }
+    }
+
+    /**
+     * Benchmarks generateIonSeries.
+     *
+     * @return collection of MatchedIonSeries objects.
+     * @throws InterruptedException process was interrupted.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException could not read the file.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    @Benchmark
+    public MatchedIonSeriesCollection generateIonSeries() throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        IonSeriesGenerator generator = new IonSeriesGenerator(null, null, 0.05);
+        return generator.generateIonSeries(mzIdFile.getPath(), 0.05, threads, streaming);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nl.eriba.mzidentml.collections.MzIdPeptideCollection;
+import nl.eriba.mzidentml.collections.SingleDatabaseReferenceCollection;
+import nl.eriba.mzidentml.collections.SymbolTable;
+import nl.eriba.mzidentml.collections.UniquePeptideCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.ebi.jmzidml.model.mzidml.PeptideEvidence;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationItem;
+
+/**
+ * Benchmarks of the stages of the ion series pipeline on synthetic datasets.
+ *
+ * Each benchmark processes the complete dataset. Run with -prof gc to report the allocation rate of each stage.
+ *
+ * @author vnijenhuis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IonSeriesPipelineBenchmark {
+
+    /**
+     * Amount of peptide spectrum matches in the dataset.
+     */
+    @Param({"1000", "10000", "100000"})
+    private int psmCount;
+
+    /**
+     * Synthetic dataset.
+     */
+    private SyntheticDataset dataset;
+
+    /**
+     * Generator used to call the pipeline stages.
+     */
+    private IonSeriesGenerator generator;
+
+    /**
+     * Symbol table of the peptide sequences of the dataset.
+     */
+    private SymbolTable sequenceSymbols;
+
+    /**
+     * Result of the peptide collection stage.
+     */
+    private MzIdPeptideCollection peptideCollection;
+
+    /**
+     * Result of the peptide evidence join stage.
+     */
+    private SingleDatabaseReferenceCollection databaseReferenceCollection;
+
+    /**
+     * Result of the unique peptide stage.
+     */
+    private UniquePeptideCollection uniquePeptideCollection;
+
+    /**
+     * Generates the dataset and the input of each stage.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataset = new SyntheticDataset(psmCount);
+        generator = new IonSeriesGenerator(null, null, 0.05);
+        sequenceSymbols = new SymbolTable();
+        peptideCollection = generator.createPeptideCollection(dataset.getPeptides(), sequenceSymbols);
+        databaseReferenceCollection = generator.createSequenceDatabaseReferenceCollection(copyEvidences(), peptideCollection, sequenceSymbols, new SymbolTable());
+        uniquePeptideCollection = generator.createUniquePeptideCountList(databaseReferenceCollection, sequenceSymbols);
+    }
+
+    /**
+     * Copies the peptide evidences, because the join sorts its input.
+     *
+     * @return copy of the PeptideEvidence list.
+     */
+    private List<PeptideEvidence> copyEvidences() {
+        return new ArrayList<>(dataset.getPeptideEvidences());
+    }
+
+    /**
+     * Benchmarks createPeptideCollection, including the symbol table of the file.
+     *
+     * @return collection of MzIdPeptide objects.
+     */
+    @Benchmark
+    public MzIdPeptideCollection createPeptideCollection() {
+        return generator.createPeptideCollection(dataset.getPeptides(), new SymbolTable());
+    }
+
+    /**
+     * Benchmarks createSequenceDatabaseReferenceCollection, including the symbol tables of the file.
+     *
+     * @return collection of SingleDatabaseReference objects.
+     */
+    @Benchmark
+    public SingleDatabaseReferenceCollection createSequenceDatabaseReferenceCollection() {
+        return generator.createSequenceDatabaseReferenceCollection(copyEvidences(), peptideCollection, new SymbolTable(), new SymbolTable());
+    }
+
+    /**
+     * Benchmarks createUniquePeptideCountList.
+     *
+     * @return collection of unique peptides.
+     */
+    @Benchmark
+    public UniquePeptideCollection createUniquePeptideCountList() {
+        return generator.createUniquePeptideCountList(databaseReferenceCollection, sequenceSymbols);
+    }
+
+    /**
+     * Benchmarks createMzIdIonFragmentList for all peptide spectrum matches.
+     *
+     * @param blackhole consumes the results.
+     */
+    @Benchmark
+    public void createMzIdIonFragmentList(final Blackhole blackhole) {
+        for (SpectrumIdentificationItem spectrumItem : dataset.getSpectrumItems()) {
+            blackhole.consume(generator.createMzIdIonFragmentList(spectrumItem.getFragmentation().getIonType()));
+        }
+    }
+
+    /**
+     * Benchmarks call for all peptide spectrum matches.
+     *
+     * @param blackhole consumes the results.
+     */
+    @Benchmark
+    public void call(final Blackhole blackhole) {
+        for (SpectrumIdentificationItem spectrumItem : dataset.getSpectrumItems()) {
+            blackhole.consume(new IonSeriesGenerator(spectrumItem, uniquePeptideCollection, 0.05).call());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.DBSequence;
+import uk.ac.ebi.jmzidml.model.mzidml.FragmentArray;
+import uk.ac.ebi.jmzidml.model.mzidml.Fragmentation;
+import uk.ac.ebi.jmzidml.model.mzidml.IonType;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.Peptide;
+import uk.ac.ebi.jmzidml.model.mzidml.PeptideEvidence;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationItem;
+import uk.ac.ebi.jmzidml.model.mzidml.SubstitutionModification;
+
+/**
+ * Synthetic in-memory mzid data for the benchmarks.
+ *
+ * The dataset is generated from a fixed seed, so every benchmark run uses the same data. The amount of peptides and
+ * peptide evidences scales with the amount of peptide spectrum matches.
+ *
+ * @author vnijenhuis
+ */
+public class SyntheticDataset {
+
+    /**
+     * Amino acids used for the peptide sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * List of Peptide objects.
+     */
+    private final List<Peptide> peptides;
+
+    /**
+     * List of PeptideEvidence objects.
+     */
+    private final List<PeptideEvidence> peptideEvidences;
+
+    /**
+     * List of SpectrumIdentificationItem objects that pass the threshold.
+     */
+    private final List<SpectrumIdentificationItem> spectrumItems;
+
+    /**
+     * Random number generator with a fixed seed.
+     */
+    private final Random random;
+
+    /**
+     * Generates a dataset with the given amount of peptide spectrum matches.
+     *
+     * @param psmCount amount of SpectrumIdentificationItem objects.
+     */
+    public SyntheticDataset(final int psmCount) {
+        random = new Random(psmCount);
+        int peptideCount = psmCount / 4 + 1;
+        peptides = new ArrayList<>(peptideCount);
+        peptideEvidences = new ArrayList<>(peptideCount * 2);
+        spectrumItems = new ArrayList<>(psmCount);
+        for (int i = 0; i < peptideCount; i++) {
+            Peptide peptide = createPeptide(i);
+            peptides.add(peptide);
+            int evidenceCount = 1 + random.nextInt(3);
+            for (int j = 0; j < evidenceCount; j++) {
+                peptideEvidences.add(createPeptideEvidence(peptide, peptideEvidences.size() + 1));
+            }
+        }
+        for (int i = 0; i < psmCount; i++) {
+            spectrumItems.add(createSpectrumItem(peptides.get(random.nextInt(peptideCount))));
+        }
+    }
+
+    /**
+     * Returns the Peptide objects.
+     *
+     * @return list of Peptide objects.
+     */
+    public final List<Peptide> getPeptides() {
+        return peptides;
+    }
+
+    /**
+     * Returns the PeptideEvidence objects.
+     *
+     * @return list of PeptideEvidence objects.
+     */
+    public final List<PeptideEvidence> getPeptideEvidences() {
+        return peptideEvidences;
+    }
+
+    /**
+     * Returns the SpectrumIdentificationItem objects.
+     *
+     * @return list of SpectrumIdentificationItem objects.
+     */
+    public final List<SpectrumIdentificationItem> getSpectrumItems() {
+        return spectrumItems;
+    }
+
+    /**
+     * Creates a peptide with a random sequence. One in three peptides is modified and one in twenty has a
+     * substitution.
+     *
+     * @param number number of the peptide.
+     * @return Peptide object.
+     */
+    private Peptide createPeptide(final int number) {
+        int length = 7 + random.nextInt(19);
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        Peptide peptide = new Peptide();
+        peptide.setPeptideSequence(sequence.toString());
+        peptide.setId(sequence.toString());
+        if (random.nextInt(3) == 0) {
+            Modification modification = new Modification();
+            modification.setLocation(random.nextInt(length));
+            modification.setMonoisotopicMassDelta(15.994915);
+            modification.getResidues().add("M");
+            CvParam name = new CvParam();
+            name.setName("Oxidation");
+            modification.getCvParam().add(name);
+            peptide.getModification().add(modification);
+            peptide.setId(sequence + "_" + number);
+        }
+        if (random.nextInt(20) == 0) {
+            SubstitutionModification substitution = new SubstitutionModification();
+            substitution.setLocation(random.nextInt(length));
+            substitution.setMonoisotopicMassDelta(14.01565);
+            substitution.setOriginalResidue("G");
+            substitution.setReplacementResidue("A");
+            peptide.getSubstitutionModification().add(substitution);
+        }
+        return peptide;
+    }
+
+    /**
+     * Creates a peptide evidence for the given peptide. One in ten evidences is a decoy.
+     *
+     * @param peptide Peptide object.
+     * @param number number of the evidence.
+     * @return PeptideEvidence object.
+     */
+    private PeptideEvidence createPeptideEvidence(final Peptide peptide, final int number) {
+        PeptideEvidence evidence = new PeptideEvidence();
+        evidence.setId("PE_" + number);
+        evidence.setPeptide(peptide);
+        DBSequence protein = new DBSequence();
+        protein.setId("PROT_" + random.nextInt(Math.max(1, peptides.size())));
+        evidence.setDBSequence(protein);
+        evidence.setStart(1 + random.nextInt(500));
+        evidence.setEnd(evidence.getStart() + peptide.getPeptideSequence().length() - 1);
+        evidence.setPre("K");
+        evidence.setPost("A");
+        evidence.setIsDecoy(random.nextInt(10) == 0);
+        return evidence;
+    }
+
+    /**
+     * Creates a peptide spectrum match for the given peptide with b, y, neutral loss and immonium ions.
+     *
+     * @param peptide Peptide object.
+     * @return SpectrumIdentificationItem object.
+     */
+    private SpectrumIdentificationItem createSpectrumItem(final Peptide peptide) {
+        int length = peptide.getPeptideSequence().length();
+        SpectrumIdentificationItem spectrumItem = new SpectrumIdentificationItem();
+        spectrumItem.setPeptide(peptide);
+        spectrumItem.setPassThreshold(true);
+        CvParam score = new CvParam();
+        score.setName("PeptideShaker PSM score");
+        score.setValue(Double.toString(random.nextDouble() * 100));
+        spectrumItem.getCvParam().add(score);
+        Fragmentation fragmentation = new Fragmentation();
+        fragmentation.getIonType().add(createIonType("frag: y ion", length, 0.8));
+        fragmentation.getIonType().add(createIonType("frag: b ion", length, 0.6));
+        fragmentation.getIonType().add(createIonType("frag: y ion - H2O", length, 0.3));
+        fragmentation.getIonType().add(createIonType("frag: b ion - NH3", length, 0.2));
+        fragmentation.getIonType().add(createIonType("frag: immonium ion", length, 0.1));
+        spectrumItem.setFragmentation(fragmentation);
+        return spectrumItem;
+    }
+
+    /**
+     * Creates an ion type where each index of the peptide is present with the given probability.
+     *
+     * @param name cvParam name of the ion type.
+     * @param length peptide length.
+     * @param coverage probability that an index is present.
+     * @return IonType object.
+     */
+    private IonType createIonType(final String name, final int length, final double coverage) {
+        IonType ionType = new IonType();
+        CvParam parameter = new CvParam();
+        parameter.setName(name);
+        ionType.setCvParam(parameter);
+        ionType.setCharge(1);
+        //The fragment arrays are selected by position, so no measure is set.
+        FragmentArray massToCharge = new FragmentArray();
+        FragmentArray intensity = new FragmentArray();
+        for (int index = 1; index < length; index++) {
+            if (random.nextDouble() < coverage) {
+                ionType.getIndex().add(index);
+                massToCharge.getValues().add(100 + random.nextFloat() * 1500);
+                //Exponential distribution: most peaks are small, a few are large.
+                intensity.getValues().add((float) (-Math.log(1 - random.nextDouble()) * 1000));
+            }
+        }
+        ionType.getFragmentArray().add(massToCharge);
+        ionType.getFragmentArray().add(intensity);
+        return ionType;
+    }
+}
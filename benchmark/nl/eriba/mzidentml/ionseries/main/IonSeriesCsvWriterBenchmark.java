@@ -0,0 +1,112 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.collections.UniquePeptideCollection;
+import nl.eriba.mzidentml.ionseries.identifiication.IonSeriesGenerator;
+import nl.eriba.mzidentml.ionseries.identifiication.SyntheticDataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationItem;
+
+/**
+ * Benchmark of IonSeriesCsvWriter.writeCsv on synthetic datasets.
+ *
+ * @author vnijenhuis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IonSeriesCsvWriterBenchmark {
+
+    /**
+     * Amount of peptide spectrum matches in the dataset.
+     */
+    @Param({"1000", "10000", "100000"})
+    private int psmCount;
+
+    /**
+     * Store of the ion series: heap, offheap or mapped.
+     */
+    @Param({"heap", "offheap", "mapped"})
+    private String store;
+
+    /**
+     * Ion series of the synthetic dataset.
+     */
+    private MatchedIonSeriesCollection matchedIonSeries;
+
+    /**
+     * Temporary output directory.
+     */
+    private Path outputDirectory;
+
+    /**
+     * Determines the ion series of a synthetic dataset.
+     *
+     * @throws IOException could not create the output directory.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticDataset dataset = new SyntheticDataset(psmCount);
+        UniquePeptideCollection uniquePeptides = new UniquePeptideCollection();
+        uniquePeptides.buildAccessionIndex();
+        matchedIonSeries = new MatchedIonSeriesCollection(store);
+        for (SpectrumIdentificationItem spectrumItem : dataset.getSpectrumItems()) {
+            matchedIonSeries.addMatchedIonSeries(new IonSeriesGenerator(spectrumItem, uniquePeptides, 0.05).call());
+        }
+        outputDirectory = Files.createTempDirectory("ion-series-benchmark");
+    }
+
+    /**
+     * Removes the csv file, because the writer appends to an existing file.
+     *
+     * @throws IOException could not remove the file.
+     */
+    @TearDown(Level.Invocation)
+    public void removeOutput() throws IOException {
+        Files.deleteIfExists(outputDirectory.resolve("ion-series.csv"));
+    }
+
+    /**
+     * Removes the output directory.
+     *
+     * @throws IOException could not remove the directory.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(outputDirectory.resolve("ion-series.csv"));
+        Files.deleteIfExists(outputDirectory);
+    }
+
+    /**
+     * Benchmarks writeCsv.
+     *
+     * @throws IOException could not write the csv file.
+     */
+    @Benchmark
+    public void writeCsv() throws IOException {
+        new IonSeriesCsvWriter().writeCsv(outputDirectory.toString() + outputDirectory.getFileSystem().getSeparator(), matchedIonSeries);
+    }
+}
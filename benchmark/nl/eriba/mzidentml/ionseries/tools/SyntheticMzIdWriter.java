@@ -0,0 +1,777 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes synthetic mzIdentML files for load and scaling tests.
+ *
+ * The file contains a SequenceCollection with modified and substituted peptides and their peptide evidences, and a
+ * SpectrumIdentificationList with one SpectrumIdentificationItem per spectrum. Each item has b, y, neutral loss and
+ * immonium ion types with m/z values calculated from the residue masses and log-normal intensities.
+ *
+ * Every peptide is generated from its own seed, so the peptides can be regenerated while writing the spectra. Memory
+ * usage therefore does not depend on the amount of peptide spectrum matches and the same seed always produces the same
+ * file.
+ *
+ * @author vnijenhuis
+ */
+public class SyntheticMzIdWriter {
+
+    /**
+     * Amino acids used for the peptide sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Monoisotopic residue masses in the order of AMINO_ACIDS.
+     */
+    private static final double[] RESIDUE_MASSES = {71.03711, 103.00919, 115.02694, 129.04259, 147.06841, 57.02146,
+        137.05891, 113.08406, 128.09496, 113.08406, 131.04049, 114.04293, 97.05276, 128.05858, 156.10111, 87.03203,
+        101.04768, 99.06841, 186.07931, 163.06333};
+
+    /**
+     * Mass of a proton.
+     */
+    private static final double PROTON_MASS = 1.007276;
+
+    /**
+     * Mass of water.
+     */
+    private static final double WATER_MASS = 18.010565;
+
+    /**
+     * Mass of ammonia.
+     */
+    private static final double AMMONIA_MASS = 17.026549;
+
+    /**
+     * Mass of carbon monoxide, the difference between a b ion and its immonium ion.
+     */
+    private static final double CARBON_MONOXIDE_MASS = 27.994915;
+
+    /**
+     * Mass delta of an oxidation.
+     */
+    private static final double OXIDATION_MASS = 15.994915;
+
+    /**
+     * Maximum amount of peptide evidences per peptide. Evidence ids are derived from the peptide number with this
+     * value, so they do not have to be stored.
+     */
+    private static final int MAX_EVIDENCES = 3;
+
+    /**
+     * Average amount of peptide spectrum matches per peptide.
+     */
+    private static final int PSMS_PER_PEPTIDE = 4;
+
+    /**
+     * Average amount of peptides per protein.
+     */
+    private static final int PEPTIDES_PER_PROTEIN = 10;
+
+    /**
+     * The mzIdentML namespace.
+     */
+    private static final String NAMESPACE = "http://psidev.info/psi/pi/mzIdentML/1.1";
+
+    /**
+     * Amount of peptide spectrum matches.
+     */
+    private final int psmCount;
+
+    /**
+     * Amount of peptides.
+     */
+    private final int peptideCount;
+
+    /**
+     * Amount of proteins.
+     */
+    private final int proteinCount;
+
+    /**
+     * Seed of the generated data.
+     */
+    private final long seed;
+
+    /**
+     * Creates a writer for the given amount of peptide spectrum matches.
+     *
+     * @param psmCount amount of SpectrumIdentificationItem elements.
+     * @param seed seed of the generated data.
+     */
+    public SyntheticMzIdWriter(final int psmCount, final long seed) {
+        this.psmCount = psmCount;
+        this.peptideCount = psmCount / PSMS_PER_PEPTIDE + 1;
+        this.proteinCount = peptideCount / PEPTIDES_PER_PROTEIN + 1;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a synthetic mzid file.
+     *
+     * @param args amount of peptide spectrum matches, output file and optionally the seed.
+     * @throws IOException could not write the output file.
+     * @throws XMLStreamException could not create the xml.
+     */
+    public static void main(final String[] args) throws IOException, XMLStreamException {
+        if (args.length < 2) {
+            System.out.println("Usage: SyntheticMzIdWriter <psm count> <output.mzid> [seed]");
+            System.exit(1);
+        }
+        int psmCount = Integer.parseInt(args[0]);
+        long seed = 1;
+        if (args.length > 2) {
+            seed = Long.parseLong(args[2]);
+        }
+        File outputFile = new File(args[1]);
+        System.out.println("Writing " + psmCount + " synthetic peptide spectrum matches to " + outputFile);
+        new SyntheticMzIdWriter(psmCount, seed).write(outputFile);
+        System.out.println("Finished writing to " + outputFile);
+    }
+
+    /**
+     * Writes the mzid file.
+     *
+     * @param outputFile output file.
+     * @throws IOException could not write the output file.
+     * @throws XMLStreamException could not create the xml.
+     */
+    public final void write(final File outputFile) throws IOException, XMLStreamException {
+        //The xml writer writes one byte at a time to an output stream, so it writes to a buffered character stream.
+        try (Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8), 1 << 16)) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("MzIdentML");
+            writer.writeDefaultNamespace(NAMESPACE);
+            writer.writeAttribute("id", "synthetic");
+            writer.writeAttribute("version", "1.1.0");
+            writer.writeCharacters("\n");
+            writeCvList(writer);
+            writeAnalysisSoftwareList(writer);
+            writeSequenceCollection(writer);
+            writeAnalysisCollection(writer);
+            writeAnalysisProtocolCollection(writer);
+            writer.writeStartElement("DataCollection");
+            writeInputs(writer);
+            writer.writeStartElement("AnalysisData");
+            writeSpectrumIdentificationList(writer);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the cvList element.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeCvList(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("cvList");
+        writeCv(writer, "PSI-MS", "Proteomics Standards Initiative Mass Spectrometry Vocabularies",
+                "https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo");
+        writeCv(writer, "UNIMOD", "UNIMOD", "http://www.unimod.org/obo/unimod.obo");
+        writeCv(writer, "UO", "UNIT-ONTOLOGY", "http://purl.obolibrary.org/obo/uo.obo");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes a cv element.
+     *
+     * @param writer xml writer.
+     * @param id id of the controlled vocabulary.
+     * @param fullName full name of the controlled vocabulary.
+     * @param uri location of the controlled vocabulary.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeCv(final XMLStreamWriter writer, final String id, final String fullName, final String uri) throws XMLStreamException {
+        writer.writeEmptyElement("cv");
+        writer.writeAttribute("id", id);
+        writer.writeAttribute("fullName", fullName);
+        writer.writeAttribute("uri", uri);
+    }
+
+    /**
+     * Writes the AnalysisSoftwareList element.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeAnalysisSoftwareList(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("AnalysisSoftwareList");
+        writer.writeStartElement("AnalysisSoftware");
+        writer.writeAttribute("id", "SyntheticMzIdWriter");
+        writer.writeAttribute("name", "SyntheticMzIdWriter");
+        writer.writeStartElement("SoftwareName");
+        writeUserParam(writer, "SyntheticMzIdWriter");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the SequenceCollection element with the DBSequence, Peptide and PeptideEvidence elements.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeSequenceCollection(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("SequenceCollection");
+        writer.writeCharacters("\n");
+        for (int protein = 0; protein < proteinCount; protein++) {
+            writer.writeEmptyElement("DBSequence");
+            writer.writeAttribute("id", "PROT_" + protein);
+            writer.writeAttribute("accession", String.format(Locale.US, "SYN%06d", protein));
+            writer.writeAttribute("searchDatabase_ref", "SDB_1");
+            writer.writeCharacters("\n");
+        }
+        for (int number = 0; number < peptideCount; number++) {
+            writePeptide(writer, new SyntheticPeptide(number));
+        }
+        for (int number = 0; number < peptideCount; number++) {
+            SyntheticPeptide peptide = new SyntheticPeptide(number);
+            for (int evidence = 0; evidence < peptide.evidenceCount; evidence++) {
+                writePeptideEvidence(writer, peptide, evidence);
+            }
+        }
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes a Peptide element.
+     *
+     * @param writer xml writer.
+     * @param peptide synthetic peptide.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writePeptide(final XMLStreamWriter writer, final SyntheticPeptide peptide) throws XMLStreamException {
+        writer.writeStartElement("Peptide");
+        writer.writeAttribute("id", peptide.id);
+        writer.writeStartElement("PeptideSequence");
+        writer.writeCharacters(peptide.sequence);
+        writer.writeEndElement();
+        if (peptide.oxidationLocation >= 0) {
+            writer.writeStartElement("Modification");
+            writer.writeAttribute("location", Integer.toString(peptide.oxidationLocation + 1));
+            writer.writeAttribute("residues", "M");
+            writer.writeAttribute("monoisotopicMassDelta", Double.toString(OXIDATION_MASS));
+            writeCvParam(writer, "UNIMOD", "UNIMOD:35", "Oxidation", null);
+            writer.writeEndElement();
+        }
+        if (peptide.substitutionLocation >= 0) {
+            char original = peptide.sequence.charAt(peptide.substitutionLocation);
+            char replacement = peptide.substitutionResidue;
+            writer.writeEmptyElement("SubstitutionModification");
+            writer.writeAttribute("location", Integer.toString(peptide.substitutionLocation + 1));
+            writer.writeAttribute("originalResidue", Character.toString(original));
+            writer.writeAttribute("replacementResidue", Character.toString(replacement));
+            writer.writeAttribute("monoisotopicMassDelta", formatMass(residueMass(replacement) - residueMass(original)));
+        }
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes a PeptideEvidence element. One in ten evidences is a decoy.
+     *
+     * @param writer xml writer.
+     * @param peptide synthetic peptide.
+     * @param evidence number of the evidence of this peptide.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writePeptideEvidence(final XMLStreamWriter writer, final SyntheticPeptide peptide, final int evidence) throws XMLStreamException {
+        Random random = peptide.evidenceRandom(evidence);
+        int start = 1 + random.nextInt(800);
+        writer.writeEmptyElement("PeptideEvidence");
+        writer.writeAttribute("id", "PE_" + peptide.evidenceId(evidence));
+        writer.writeAttribute("peptide_ref", peptide.id);
+        writer.writeAttribute("dBSequence_ref", "PROT_" + random.nextInt(proteinCount));
+        writer.writeAttribute("start", Integer.toString(start));
+        writer.writeAttribute("end", Integer.toString(start + peptide.sequence.length() - 1));
+        writer.writeAttribute("pre", "K");
+        writer.writeAttribute("post", Character.toString(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()))));
+        writer.writeAttribute("isDecoy", Boolean.toString(random.nextInt(10) == 0));
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the AnalysisCollection element.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeAnalysisCollection(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("AnalysisCollection");
+        writer.writeStartElement("SpectrumIdentification");
+        writer.writeAttribute("id", "SI_1");
+        writer.writeAttribute("spectrumIdentificationProtocol_ref", "SIP_1");
+        writer.writeAttribute("spectrumIdentificationList_ref", "SIL_1");
+        writer.writeEmptyElement("InputSpectra");
+        writer.writeAttribute("spectraData_ref", "SD_1");
+        writer.writeEmptyElement("SearchDatabaseRef");
+        writer.writeAttribute("searchDatabase_ref", "SDB_1");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the AnalysisProtocolCollection element.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeAnalysisProtocolCollection(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("AnalysisProtocolCollection");
+        writer.writeStartElement("SpectrumIdentificationProtocol");
+        writer.writeAttribute("id", "SIP_1");
+        writer.writeAttribute("analysisSoftware_ref", "SyntheticMzIdWriter");
+        writer.writeStartElement("SearchType");
+        writeCvParam(writer, "PSI-MS", "MS:1001083", "ms-ms search", null);
+        writer.writeEndElement();
+        writer.writeStartElement("Threshold");
+        writeCvParam(writer, "PSI-MS", "MS:1001494", "no threshold", null);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the Inputs element.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeInputs(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("Inputs");
+        writer.writeStartElement("SearchDatabase");
+        writer.writeAttribute("id", "SDB_1");
+        writer.writeAttribute("location", "synthetic.fasta");
+        writer.writeStartElement("FileFormat");
+        writeCvParam(writer, "PSI-MS", "MS:1001348", "FASTA format", null);
+        writer.writeEndElement();
+        writer.writeStartElement("DatabaseName");
+        writeUserParam(writer, "synthetic.fasta");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeStartElement("SpectraData");
+        writer.writeAttribute("id", "SD_1");
+        writer.writeAttribute("location", "synthetic.mgf");
+        writer.writeStartElement("FileFormat");
+        writeCvParam(writer, "PSI-MS", "MS:1001062", "Mascot MGF format", null);
+        writer.writeEndElement();
+        writer.writeStartElement("SpectrumIDFormat");
+        writeCvParam(writer, "PSI-MS", "MS:1000774", "multiple peak list nativeID format", null);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the SpectrumIdentificationList element with one SpectrumIdentificationResult per peptide spectrum match.
+     *
+     * @param writer xml writer.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeSpectrumIdentificationList(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("SpectrumIdentificationList");
+        writer.writeAttribute("id", "SIL_1");
+        writer.writeStartElement("FragmentationTable");
+        writeMeasure(writer, "m_mz", "MS:1001225", "product ion m/z");
+        writeMeasure(writer, "m_intensity", "MS:1001226", "product ion intensity");
+        writeMeasure(writer, "m_error", "MS:1001227", "product ion m/z error");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+        Random random = new Random(seed);
+        for (int spectrum = 0; spectrum < psmCount; spectrum++) {
+            SyntheticPeptide peptide = new SyntheticPeptide(random.nextInt(peptideCount));
+            writeSpectrumIdentificationResult(writer, spectrum, peptide, random);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes a Measure element.
+     *
+     * @param writer xml writer.
+     * @param id id of the measure.
+     * @param accession accession of the measure.
+     * @param name name of the measure.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeMeasure(final XMLStreamWriter writer, final String id, final String accession, final String name) throws XMLStreamException {
+        writer.writeStartElement("Measure");
+        writer.writeAttribute("id", id);
+        writeCvParam(writer, "PSI-MS", accession, name, null);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes a SpectrumIdentificationResult with one SpectrumIdentificationItem for the given peptide. One in twenty
+     * items does not pass the threshold.
+     *
+     * @param writer xml writer.
+     * @param spectrum number of the spectrum.
+     * @param peptide synthetic peptide.
+     * @param random random number generator of the spectra.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeSpectrumIdentificationResult(final XMLStreamWriter writer, final int spectrum, final SyntheticPeptide peptide,
+            final Random random) throws XMLStreamException {
+        int charge = 2 + random.nextInt(3) / 2;
+        double precursorMass = peptide.mass() + WATER_MASS;
+        writer.writeStartElement("SpectrumIdentificationResult");
+        writer.writeAttribute("id", "SIR_" + spectrum);
+        writer.writeAttribute("spectrumID", "index=" + spectrum);
+        writer.writeAttribute("spectraData_ref", "SD_1");
+        writer.writeStartElement("SpectrumIdentificationItem");
+        writer.writeAttribute("id", "SII_" + spectrum + "_1");
+        writer.writeAttribute("chargeState", Integer.toString(charge));
+        writer.writeAttribute("experimentalMassToCharge", formatMass((precursorMass + charge * PROTON_MASS) / charge));
+        writer.writeAttribute("calculatedMassToCharge", formatMass((precursorMass + charge * PROTON_MASS) / charge));
+        writer.writeAttribute("peptide_ref", peptide.id);
+        writer.writeAttribute("rank", "1");
+        writer.writeAttribute("passThreshold", Boolean.toString(random.nextInt(20) != 0));
+        for (int evidence = 0; evidence < peptide.evidenceCount; evidence++) {
+            writer.writeEmptyElement("PeptideEvidenceRef");
+            writer.writeAttribute("peptideEvidence_ref", "PE_" + peptide.evidenceId(evidence));
+        }
+        writer.writeStartElement("Fragmentation");
+        writeIonTypes(writer, peptide, random);
+        writer.writeEndElement();
+        writeCvParam(writer, "PSI-MS", "MS:1002466", "PeptideShaker PSM score", formatMass(random.nextDouble() * 100));
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the b, y, neutral loss and immonium ion types of a spectrum. Y ions are observed more often and with
+     * higher intensities than b ions, neutral losses are sparse and only a few immonium ions are observed.
+     *
+     * @param writer xml writer.
+     * @param peptide synthetic peptide.
+     * @param random random number generator of the spectra.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeIonTypes(final XMLStreamWriter writer, final SyntheticPeptide peptide, final Random random) throws XMLStreamException {
+        double[] prefixMasses = peptide.prefixMasses();
+        int length = peptide.sequence.length();
+        double peptideMass = prefixMasses[length];
+        int fragmentCount = length - 1;
+        double[] yMasses = new double[fragmentCount];
+        double[] bMasses = new double[fragmentCount];
+        for (int index = 1; index <= fragmentCount; index++) {
+            yMasses[index - 1] = peptideMass - prefixMasses[length - index] + WATER_MASS;
+            bMasses[index - 1] = prefixMasses[index];
+        }
+        writeIonType(writer, random, "MS:1001220", "frag: y ion", yMasses, 0.0, 0.75, 7.5);
+        writeIonType(writer, random, "MS:1001224", "frag: b ion", bMasses, 0.0, 0.55, 6.8);
+        writeIonType(writer, random, "MS:1001223", "frag: y ion - H2O", yMasses, WATER_MASS, 0.2, 6.0);
+        writeIonType(writer, random, "MS:1001232", "frag: b ion - NH3", bMasses, AMMONIA_MASS, 0.15, 5.8);
+        double[] immoniumMasses = new double[length];
+        for (int index = 0; index < length; index++) {
+            immoniumMasses[index] = residueMass(peptide.sequence.charAt(index)) - CARBON_MONOXIDE_MASS;
+        }
+        writeIonType(writer, random, "MS:1001239", "frag: immonium ion", immoniumMasses, 0.0, 1.5 / length, 6.2);
+    }
+
+    /**
+     * Writes an IonType element. Each fragment is observed with the given probability and has a log-normal intensity.
+     *
+     * @param writer xml writer.
+     * @param random random number generator of the spectra.
+     * @param accession accession of the ion type.
+     * @param name name of the ion type.
+     * @param neutralMasses neutral fragment masses, the index of a fragment is its position plus one.
+     * @param loss mass that is subtracted from each fragment.
+     * @param coverage probability that a fragment is observed.
+     * @param logIntensity mean of the logarithm of the intensities.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeIonType(final XMLStreamWriter writer, final Random random, final String accession, final String name,
+            final double[] neutralMasses, final double loss, final double coverage, final double logIntensity) throws XMLStreamException {
+        StringBuilder indices = new StringBuilder();
+        StringBuilder massToCharge = new StringBuilder();
+        StringBuilder intensities = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        for (int i = 0; i < neutralMasses.length; i++) {
+            if (random.nextDouble() >= coverage) {
+                continue;
+            }
+            if (indices.length() > 0) {
+                indices.append(' ');
+                massToCharge.append(' ');
+                intensities.append(' ');
+                errors.append(' ');
+            }
+            double error = random.nextGaussian() * 0.005;
+            indices.append(i + 1);
+            appendMass(massToCharge, neutralMasses[i] - loss + PROTON_MASS + error);
+            intensities.append(Math.round(Math.exp(logIntensity + random.nextGaussian())));
+            appendMass(errors, error);
+        }
+        if (indices.length() == 0) {
+            return;
+        }
+        writer.writeStartElement("IonType");
+        writer.writeAttribute("index", indices.toString());
+        writer.writeAttribute("charge", "1");
+        writeFragmentArray(writer, "m_mz", massToCharge);
+        writeFragmentArray(writer, "m_intensity", intensities);
+        writeFragmentArray(writer, "m_error", errors);
+        writeCvParam(writer, "PSI-MS", accession, name, null);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes a FragmentArray element.
+     *
+     * @param writer xml writer.
+     * @param measure id of the measure.
+     * @param values space separated values.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeFragmentArray(final XMLStreamWriter writer, final String measure, final StringBuilder values) throws XMLStreamException {
+        writer.writeEmptyElement("FragmentArray");
+        writer.writeAttribute("values", values.toString());
+        writer.writeAttribute("measure_ref", measure);
+    }
+
+    /**
+     * Writes a cvParam element.
+     *
+     * @param writer xml writer.
+     * @param cvRef reference to the controlled vocabulary.
+     * @param accession accession of the term.
+     * @param name name of the term.
+     * @param value value of the term or null.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeCvParam(final XMLStreamWriter writer, final String cvRef, final String accession, final String name, final String value)
+            throws XMLStreamException {
+        writer.writeEmptyElement("cvParam");
+        writer.writeAttribute("cvRef", cvRef);
+        writer.writeAttribute("accession", accession);
+        writer.writeAttribute("name", name);
+        if (value != null) {
+            writer.writeAttribute("value", value);
+        }
+    }
+
+    /**
+     * Writes a userParam element.
+     *
+     * @param writer xml writer.
+     * @param name name of the parameter.
+     * @throws XMLStreamException could not create the xml.
+     */
+    private void writeUserParam(final XMLStreamWriter writer, final String name) throws XMLStreamException {
+        writer.writeEmptyElement("userParam");
+        writer.writeAttribute("name", name);
+    }
+
+    /**
+     * Formats a mass with five decimals.
+     *
+     * @param mass mass value.
+     * @return formatted mass.
+     */
+    private static String formatMass(final double mass) {
+        return appendMass(new StringBuilder(12), mass).toString();
+    }
+
+    /**
+     * Appends a mass with five decimals. This avoids String.format, which dominates the run time for large files.
+     *
+     * @param builder StringBuilder to append to.
+     * @param mass mass value.
+     * @return the given StringBuilder.
+     */
+    private static StringBuilder appendMass(final StringBuilder builder, final double mass) {
+        long scaled = Math.round(mass * 100000);
+        if (scaled < 0) {
+            builder.append('-');
+            scaled = -scaled;
+        }
+        builder.append(scaled / 100000).append('.');
+        long decimals = scaled % 100000;
+        for (long digit = 10000; digit > decimals && digit > 1; digit /= 10) {
+            builder.append('0');
+        }
+        return builder.append(decimals);
+    }
+
+    /**
+     * Returns the monoisotopic mass of a residue.
+     *
+     * @param residue amino acid.
+     * @return residue mass.
+     */
+    private static double residueMass(final char residue) {
+        return RESIDUE_MASSES[AMINO_ACIDS.indexOf(residue)];
+    }
+
+    /**
+     * Peptide that is generated from its number and the seed of the writer.
+     */
+    private final class SyntheticPeptide {
+
+        /**
+         * Number of the peptide.
+         */
+        private final int number;
+
+        /**
+         * Id of the peptide.
+         */
+        private final String id;
+
+        /**
+         * Peptide sequence.
+         */
+        private final String sequence;
+
+        /**
+         * Zero based location of the oxidation or -1 if the peptide is not modified.
+         */
+        private final int oxidationLocation;
+
+        /**
+         * Zero based location of the substitution or -1 if the peptide has no substitution.
+         */
+        private final int substitutionLocation;
+
+        /**
+         * Replacement residue of the substitution.
+         */
+        private final char substitutionResidue;
+
+        /**
+         * Amount of peptide evidences.
+         */
+        private final int evidenceCount;
+
+        /**
+         * Generates the peptide with the given number. Peptides end on K or R like tryptic peptides, about a third
+         * has an oxidized methionine and one in twenty has a substitution.
+         *
+         * @param number number of the peptide.
+         */
+        private SyntheticPeptide(final int number) {
+            this.number = number;
+            Random random = new Random(seed * 1000003L + number);
+            int length = 7 + random.nextInt(12) + random.nextInt(8);
+            char[] residues = new char[length];
+            for (int i = 0; i < length - 1; i++) {
+                residues[i] = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+            }
+            residues[length - 1] = random.nextBoolean() ? 'K' : 'R';
+            int oxidation = -1;
+            if (random.nextInt(3) == 0) {
+                oxidation = random.nextInt(length - 1);
+                residues[oxidation] = 'M';
+            }
+            int substitution = -1;
+            char replacement = 'A';
+            if (random.nextInt(20) == 0) {
+                substitution = random.nextInt(length - 1);
+                if (substitution == oxidation) {
+                    substitution = -1;
+                } else {
+                    replacement = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+                    if (replacement == residues[substitution]) {
+                        replacement = residues[substitution] == 'A' ? 'G' : 'A';
+                    }
+                }
+            }
+            this.sequence = new String(residues);
+            this.oxidationLocation = oxidation;
+            this.substitutionLocation = substitution;
+            this.substitutionResidue = replacement;
+            this.evidenceCount = 1 + random.nextInt(MAX_EVIDENCES);
+            if (oxidation >= 0 || substitution >= 0) {
+                this.id = sequence + "_" + number;
+            } else {
+                this.id = sequence;
+            }
+        }
+
+        /**
+         * Returns the id of a peptide evidence of this peptide.
+         *
+         * @param evidence number of the evidence of this peptide.
+         * @return evidence id.
+         */
+        private long evidenceId(final int evidence) {
+            return (long) number * MAX_EVIDENCES + evidence + 1;
+        }
+
+        /**
+         * Returns the random number generator of a peptide evidence of this peptide.
+         *
+         * @param evidence number of the evidence of this peptide.
+         * @return random number generator.
+         */
+        private Random evidenceRandom(final int evidence) {
+            return new Random(seed * 7919L + evidenceId(evidence));
+        }
+
+        /**
+         * Returns the summed residue masses of the first n residues for each n, including the modifications.
+         *
+         * @return array of prefix masses with length of the sequence plus one.
+         */
+        private double[] prefixMasses() {
+            double[] masses = new double[sequence.length() + 1];
+            for (int i = 0; i < sequence.length(); i++) {
+                char residue = sequence.charAt(i);
+                if (i == substitutionLocation) {
+                    residue = substitutionResidue;
+                }
+                double mass = residueMass(residue);
+                if (i == oxidationLocation) {
+                    mass += OXIDATION_MASS;
+                }
+                masses[i + 1] = masses[i] + mass;
+            }
+            return masses;
+        }
+
+        /**
+         * Returns the summed residue masses of the peptide.
+         *
+         * @return peptide mass without water.
+         */
+        private double mass() {
+            return prefixMasses()[sequence.length()];
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Growable column of primitive values that is stored outside of the Java heap.
+ *
+ * The values are appended to chunks that are either direct buffers or memory-mapped temporary files. The first chunk
+ * is small and each next chunk doubles in size up to a maximum, so small columns stay small. A column holds values of
+ * one type only, and all chunk sizes are a multiple of 8 bytes, so a value never spans two chunks. Mapped files are
+ * deleted as soon as they are mapped; their disk space is released when the chunk is garbage collected.
+ *
+ * @author vnijenhuis
+ */
+class ColumnBuffer {
+
+    /**
+     * Size of the first chunk in bytes.
+     */
+    private static final int INITIAL_CHUNK_SIZE = 1 << 12;
+
+    /**
+     * Maximum size of a chunk in bytes.
+     */
+    private static final int MAXIMUM_CHUNK_SIZE = 1 << 24;
+
+    /**
+     * Amount of chunks that double in size before the maximum size is reached.
+     */
+    private static final int GROWING_CHUNKS = Integer.numberOfTrailingZeros(MAXIMUM_CHUNK_SIZE / INITIAL_CHUNK_SIZE);
+
+    /**
+     * Total size of the chunks that double in size.
+     */
+    private static final long GROWING_SIZE = (long) MAXIMUM_CHUNK_SIZE - INITIAL_CHUNK_SIZE;
+
+    /**
+     * Chunks of the column in order.
+     */
+    private final ArrayList<ByteBuffer> chunks;
+
+    /**
+     * Directory for the memory-mapped chunks or null to use direct buffers.
+     */
+    private final Path mappedDirectory;
+
+    /**
+     * Amount of bytes that are written.
+     */
+    private long size;
+
+    /**
+     * Creates an empty column.
+     *
+     * @param mappedDirectory directory for memory-mapped chunks or null to use direct buffers.
+     */
+    ColumnBuffer(final Path mappedDirectory) {
+        this.chunks = new ArrayList<>();
+        this.mappedDirectory = mappedDirectory;
+        this.size = 0;
+    }
+
+    /**
+     * Returns the amount of bytes that are written.
+     *
+     * @return size in bytes.
+     */
+    final long size() {
+        return this.size;
+    }
+
+    /**
+     * Appends a byte.
+     *
+     * @param value value to append.
+     */
+    final void putByte(final byte value) {
+        ByteBuffer chunk = reserve();
+        chunk.put(getChunkOffset(size), value);
+        size += 1;
+    }
+
+    /**
+     * Appends an int.
+     *
+     * @param value value to append.
+     */
+    final void putInt(final int value) {
+        ByteBuffer chunk = reserve();
+        chunk.putInt(getChunkOffset(size), value);
+        size += 4;
+    }
+
+    /**
+     * Appends a long.
+     *
+     * @param value value to append.
+     */
+    final void putLong(final long value) {
+        ByteBuffer chunk = reserve();
+        chunk.putLong(getChunkOffset(size), value);
+        size += 8;
+    }
+
+    /**
+     * Appends a double.
+     *
+     * @param value value to append.
+     */
+    final void putDouble(final double value) {
+        ByteBuffer chunk = reserve();
+        chunk.putDouble(getChunkOffset(size), value);
+        size += 8;
+    }
+
+    /**
+     * Returns the byte at the given position.
+     *
+     * @param position position in bytes.
+     * @return byte value.
+     */
+    final byte getByte(final long position) {
+        return chunks.get(getChunkIndex(position)).get(getChunkOffset(position));
+    }
+
+    /**
+     * Returns the int at the given position.
+     *
+     * @param position position in bytes.
+     * @return int value.
+     */
+    final int getInt(final long position) {
+        return chunks.get(getChunkIndex(position)).getInt(getChunkOffset(position));
+    }
+
+    /**
+     * Returns the long at the given position.
+     *
+     * @param position position in bytes.
+     * @return long value.
+     */
+    final long getLong(final long position) {
+        return chunks.get(getChunkIndex(position)).getLong(getChunkOffset(position));
+    }
+
+    /**
+     * Returns the double at the given position.
+     *
+     * @param position position in bytes.
+     * @return double value.
+     */
+    final double getDouble(final long position) {
+        return chunks.get(getChunkIndex(position)).getDouble(getChunkOffset(position));
+    }
+
+    /**
+     * Returns the chunk that receives the next value and allocates a new chunk when the last one is full.
+     *
+     * @return chunk with room for the next value.
+     */
+    private ByteBuffer reserve() {
+        int index = getChunkIndex(size);
+        if (index == chunks.size()) {
+            chunks.add(allocate(getChunkSize(index)));
+        }
+        return chunks.get(index);
+    }
+
+    /**
+     * Allocates a chunk.
+     *
+     * @param chunkSize size of the chunk in bytes.
+     * @return direct or memory-mapped buffer.
+     */
+    private ByteBuffer allocate(final int chunkSize) {
+        if (mappedDirectory == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        try {
+            Path file = Files.createTempFile(mappedDirectory, "ion-series-column", ".tmp");
+            //The mapping stays valid after the file is closed, so the file is deleted right away.
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map a column chunk in directory: " + mappedDirectory, e);
+        }
+    }
+
+    /**
+     * Returns the size of a chunk.
+     *
+     * @param index chunk number.
+     * @return size in bytes.
+     */
+    private static int getChunkSize(final int index) {
+        if (index < GROWING_CHUNKS) {
+            return INITIAL_CHUNK_SIZE << index;
+        }
+        return MAXIMUM_CHUNK_SIZE;
+    }
+
+    /**
+     * Returns the chunk that contains the given position.
+     *
+     * @param position position in bytes.
+     * @return chunk number.
+     */
+    private static int getChunkIndex(final long position) {
+        if (position < GROWING_SIZE) {
+            return 31 - Integer.numberOfLeadingZeros((int) (position / INITIAL_CHUNK_SIZE) + 1);
+        }
+        return GROWING_CHUNKS + (int) ((position - GROWING_SIZE) / MAXIMUM_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the position within its chunk.
+     *
+     * @param position position in bytes.
+     * @return offset in bytes.
+     */
+    private static int getChunkOffset(final long position) {
+        if (position < GROWING_SIZE) {
+            int index = getChunkIndex(position);
+            return (int) (position - (long) INITIAL_CHUNK_SIZE * ((1 << index) - 1));
+        }
+        return (int) ((position - GROWING_SIZE) % MAXIMUM_CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Settings of an external sort: the size of the runs that are sorted in memory, the directory of the run files and the
+ * amount of threads that sort the runs.
+ *
+ * @author vnijenhuis
+ */
+public class ExternalSortSettings {
+
+    /**
+     * Standard amount of objects per run.
+     */
+    public static final int DEFAULT_RUN_SIZE = 500000;
+
+    /**
+     * Maximum amount of objects that are sorted in memory as one run.
+     */
+    private final int runSize;
+
+    /**
+     * Directory of the run files.
+     */
+    private final Path tempDirectory;
+
+    /**
+     * Amount of threads that sort the runs.
+     */
+    private final int threads;
+
+    /**
+     * Creates the settings of an external sort.
+     *
+     * @param runSize maximum amount of objects that are sorted in memory as one run.
+     * @param tempDirectory directory of the run files or null to use the temporary directory.
+     * @param threads amount of threads that sort the runs.
+     */
+    public ExternalSortSettings(final Integer runSize, final String tempDirectory, final Integer threads) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("The run size of a sort should be at least 1, got " + runSize + ".");
+        }
+        this.runSize = runSize;
+        if (tempDirectory == null) {
+            this.tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        } else {
+            this.tempDirectory = Paths.get(tempDirectory);
+        }
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Returns the maximum amount of objects that are sorted in memory as one run.
+     *
+     * @return run size.
+     */
+    public final int getRunSize() {
+        return this.runSize;
+    }
+
+    /**
+     * Returns the directory of the run files.
+     *
+     * @return path to the directory.
+     */
+    public final Path getTempDirectory() {
+        return this.tempDirectory;
+    }
+
+    /**
+     * Returns the amount of threads that sort the runs.
+     *
+     * @return amount of threads.
+     */
+    public final int getThreads() {
+        return this.threads;
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts more objects than fit in memory.
+ *
+ * The objects are collected in runs of the configured size. Each full run is sorted and written to a temporary run
+ * file by one of the sort threads, while the next run is being collected. At most one run per thread is waiting to be
+ * sorted, so the memory use is bounded by the run size and the amount of threads. The sorted objects are then read
+ * with a k-way merge of the run files. When there are too many run files to read at once, groups of run files are
+ * merged first. If all objects fit in a single run, they are sorted in memory and no files are written.
+ *
+ * The sort is stable: runs are sorted with Collections.sort and equal objects of different runs are returned in the
+ * order of their runs. The run files are deleted when the sorter is closed.
+ *
+ * @author vnijenhuis
+ * @param <T> type of the sorted objects.
+ */
+public class ExternalSorter<T> implements Closeable {
+
+    /**
+     * Maximum amount of run files that are read at the same time.
+     */
+    private static final int MERGE_WIDTH = 64;
+
+    /**
+     * Buffer size of a run file in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Comparator that defines the sort order.
+     */
+    private final Comparator<? super T> comparator;
+
+    /**
+     * Writes and reads the objects of the run files.
+     */
+    private final RecordCodec<T> codec;
+
+    /**
+     * Run size, directory of the run files and amount of sort threads.
+     */
+    private final ExternalSortSettings settings;
+
+    /**
+     * Thread pool that sorts the runs or null if the runs are sorted by the calling thread.
+     */
+    private final ExecutorService sortPool;
+
+    /**
+     * Runs that are being sorted, in order.
+     */
+    private final ArrayList<Future<Path>> pendingRuns;
+
+    /**
+     * Run files that are written, in order.
+     */
+    private ArrayList<Path> runFiles;
+
+    /**
+     * All temporary files that are not deleted yet.
+     */
+    private final Set<Path> tempFiles;
+
+    /**
+     * Objects of the run that is being collected.
+     */
+    private ArrayList<T> buffer;
+
+    /**
+     * Readers of the merge, ordered on their current object, or null if the objects were sorted in memory.
+     */
+    private PriorityQueue<RunReader> mergeQueue;
+
+    /**
+     * Position of the next object if the objects were sorted in memory.
+     */
+    private int bufferPosition;
+
+    /**
+     * True once sort has been called.
+     */
+    private boolean sorted;
+
+    /**
+     * Creates an empty sorter.
+     *
+     * @param comparator comparator that defines the sort order.
+     * @param codec writes and reads the objects of the run files.
+     * @param settings run size, directory of the run files and amount of sort threads.
+     */
+    public ExternalSorter(final Comparator<? super T> comparator, final RecordCodec<T> codec, final ExternalSortSettings settings) {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.settings = settings;
+        if (settings.getThreads() > 1) {
+            this.sortPool = Executors.newFixedThreadPool(settings.getThreads());
+        } else {
+            this.sortPool = null;
+        }
+        this.pendingRuns = new ArrayList<>();
+        this.runFiles = new ArrayList<>();
+        this.tempFiles = Collections.synchronizedSet(new LinkedHashSet<Path>());
+        this.buffer = new ArrayList<>();
+        this.sorted = false;
+    }
+
+    /**
+     * Adds an object. A full run is handed over to a sort thread, which may wait until an earlier run is written.
+     *
+     * @param record object to sort, not null.
+     * @throws IOException could not write a run file.
+     * @throws InterruptedException process was interrupted while waiting for a sort thread.
+     */
+    public final void add(final T record) throws IOException, InterruptedException {
+        if (sorted) {
+            throw new IllegalStateException("Objects cannot be added after the sort.");
+        }
+        buffer.add(record);
+        if (buffer.size() >= settings.getRunSize()) {
+            spillBuffer();
+        }
+    }
+
+    /**
+     * Sorts the added objects. Waits until all runs are written and prepares the merge of the run files.
+     *
+     * @throws IOException could not write or merge the run files.
+     * @throws InterruptedException process was interrupted while waiting for a sort thread.
+     */
+    public final void sort() throws IOException, InterruptedException {
+        if (sorted) {
+            throw new IllegalStateException("The objects are already sorted.");
+        }
+        sorted = true;
+        if (runFiles.isEmpty() && pendingRuns.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            bufferPosition = 0;
+            shutdownSortPool();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            spillBuffer();
+        }
+        buffer = null;
+        while (!pendingRuns.isEmpty()) {
+            completeOldestRun();
+        }
+        shutdownSortPool();
+        //Groups of run files are merged into longer runs until all runs can be read at once.
+        while (runFiles.size() > MERGE_WIDTH) {
+            ArrayList<Path> mergedFiles = new ArrayList<>();
+            for (int start = 0; start < runFiles.size(); start += MERGE_WIDTH) {
+                List<Path> group = runFiles.subList(start, Math.min(start + MERGE_WIDTH, runFiles.size()));
+                if (group.size() == 1) {
+                    mergedFiles.add(group.get(0));
+                } else {
+                    mergedFiles.add(mergeRuns(group));
+                }
+            }
+            runFiles = mergedFiles;
+        }
+        mergeQueue = openRuns(runFiles);
+    }
+
+    /**
+     * Returns the next object in sorted order.
+     *
+     * @return next object or null if all objects have been returned.
+     * @throws IOException could not read a run file.
+     */
+    public final T next() throws IOException {
+        if (!sorted) {
+            throw new IllegalStateException("The objects are not sorted yet.");
+        }
+        if (mergeQueue == null) {
+            if (buffer == null || bufferPosition >= buffer.size()) {
+                return null;
+            }
+            //Returned objects are released, so they can be collected while the rest is being read.
+            return buffer.set(bufferPosition++, null);
+        }
+        RunReader reader = mergeQueue.poll();
+        if (reader == null) {
+            return null;
+        }
+        T record = reader.current;
+        if (reader.advance()) {
+            mergeQueue.add(reader);
+        } else {
+            reader.close();
+        }
+        return record;
+    }
+
+    /**
+     * Stops the sort threads and deletes the run files.
+     *
+     * @throws IOException could not delete a run file.
+     */
+    @Override
+    public final void close() throws IOException {
+        IOException error = null;
+        //Runs that are still being written are awaited, so their files are deleted as well.
+        for (Future<Path> pendingRun : pendingRuns) {
+            pendingRun.cancel(false);
+        }
+        pendingRuns.clear();
+        shutdownSortPool();
+        if (sortPool != null) {
+            boolean interrupted = false;
+            while (!sortPool.isTerminated()) {
+                try {
+                    sortPool.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (mergeQueue != null) {
+            for (RunReader reader : mergeQueue) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            mergeQueue.clear();
+        }
+        buffer = null;
+        synchronized (tempFiles) {
+            for (Path file : tempFiles) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            tempFiles.clear();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Hands the collected run over to a sort thread or sorts and writes it directly without sort threads.
+     *
+     * @throws IOException could not write a run file.
+     * @throws InterruptedException process was interrupted while waiting for a sort thread.
+     */
+    private void spillBuffer() throws IOException, InterruptedException {
+        final ArrayList<T> run = buffer;
+        buffer = new ArrayList<>();
+        if (sortPool == null) {
+            runFiles.add(writeRun(run));
+            return;
+        }
+        while (pendingRuns.size() >= settings.getThreads()) {
+            completeOldestRun();
+        }
+        pendingRuns.add(sortPool.submit(new Callable<Path>() {
+            @Override
+            public Path call() throws IOException {
+                return writeRun(run);
+            }
+        }));
+    }
+
+    /**
+     * Waits until the oldest pending run is written and adds its run file.
+     *
+     * @throws IOException could not write the run file.
+     * @throws InterruptedException process was interrupted while waiting for a sort thread.
+     */
+    private void completeOldestRun() throws IOException, InterruptedException {
+        Future<Path> pendingRun = pendingRuns.get(0);
+        try {
+            runFiles.add(pendingRun.get());
+            pendingRuns.remove(0);
+        } catch (ExecutionException e) {
+            pendingRuns.remove(0);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not sort a run: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Sorts a run and writes it to a new run file.
+     *
+     * @param run objects of the run.
+     * @return path to the run file.
+     * @throws IOException could not write the run file.
+     */
+    private Path writeRun(final List<T> run) throws IOException {
+        Collections.sort(run, comparator);
+        Path file = createRunFile();
+        try (DataOutputStream output = openOutput(file)) {
+            output.writeLong(run.size());
+            for (T record : run) {
+                codec.write(output, record);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Merges a group of run files into a new run file and deletes the group.
+     *
+     * @param group run files in order.
+     * @return path to the merged run file.
+     * @throws IOException could not read or write a run file.
+     */
+    private Path mergeRuns(final List<Path> group) throws IOException {
+        Path file = createRunFile();
+        PriorityQueue<RunReader> queue = openRuns(group);
+        try (DataOutputStream output = openOutput(file)) {
+            long count = 0;
+            for (RunReader reader : queue) {
+                count += reader.remaining + 1;
+            }
+            output.writeLong(count);
+            RunReader reader;
+            while ((reader = queue.poll()) != null) {
+                codec.write(output, reader.current);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+        for (Path run : group) {
+            Files.deleteIfExists(run);
+            tempFiles.remove(run);
+        }
+        return file;
+    }
+
+    /**
+     * Opens a reader per run file and reads the first object of each run.
+     *
+     * @param files run files in order.
+     * @return readers ordered on their first object, then on the order of their run.
+     * @throws IOException could not read a run file.
+     */
+    private PriorityQueue<RunReader> openRuns(final List<Path> files) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, files.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader o1, RunReader o2) {
+                int order = comparator.compare(o1.current, o2.current);
+                if (order == 0) {
+                    order = Integer.compare(o1.run, o2.run);
+                }
+                return order;
+            }
+        });
+        try {
+            for (int run = 0; run < files.size(); run++) {
+                RunReader reader = new RunReader(files.get(run), run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (RunReader reader : queue) {
+                try {
+                    reader.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+        return queue;
+    }
+
+    /**
+     * Creates an empty run file in the directory of the settings.
+     *
+     * @return path to the run file.
+     * @throws IOException could not create the file.
+     */
+    private Path createRunFile() throws IOException {
+        Path file = Files.createTempFile(settings.getTempDirectory(), "sort-run", ".tmp");
+        tempFiles.add(file);
+        return file;
+    }
+
+    /**
+     * Opens a buffered output stream to a run file.
+     *
+     * @param file run file.
+     * @return data output of the file.
+     * @throws IOException could not open the file.
+     */
+    private DataOutputStream openOutput(final Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Stops accepting new runs. Runs that were submitted are still written.
+     */
+    private void shutdownSortPool() {
+        if (sortPool != null) {
+            sortPool.shutdown();
+        }
+    }
+
+    /**
+     * Writes a String that may be longer than writeUTF supports. Null is written as length -1.
+     *
+     * @param output data output.
+     * @param value String or null.
+     * @throws IOException could not write the String.
+     */
+    public static void writeString(final DataOutput output, final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a String that was written by writeString.
+     *
+     * @param input data input.
+     * @return String or null.
+     * @throws IOException could not read the String.
+     */
+    public static String readString(final DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a Double that may be null.
+     *
+     * @param output data output.
+     * @param value Double or null.
+     * @throws IOException could not write the value.
+     */
+    public static void writeNullableDouble(final DataOutput output, final Double value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeDouble(value);
+        }
+    }
+
+    /**
+     * Reads a Double that was written by writeNullableDouble.
+     *
+     * @param input data input.
+     * @return Double or null.
+     * @throws IOException could not read the value.
+     */
+    public static Double readNullableDouble(final DataInput input) throws IOException {
+        if (input.readBoolean()) {
+            return input.readDouble();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the objects of a run file one at a time.
+     */
+    private final class RunReader implements Closeable {
+
+        /**
+         * Input of the run file.
+         */
+        private final DataInputStream input;
+
+        /**
+         * Position of the run in the merge.
+         */
+        private final int run;
+
+        /**
+         * Amount of objects that are not read yet.
+         */
+        private long remaining;
+
+        /**
+         * Object that was read last.
+         */
+        private T current;
+
+        /**
+         * Opens a run file and reads its object count.
+         *
+         * @param file run file.
+         * @param run position of the run in the merge.
+         * @throws IOException could not read the file.
+         */
+        private RunReader(final Path file, final int run) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+            this.run = run;
+            try {
+                this.remaining = input.readLong();
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next object of the run.
+         *
+         * @return true if an object was read, false at the end of the run.
+         * @throws IOException could not read the object.
+         */
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            current = codec.read(input);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
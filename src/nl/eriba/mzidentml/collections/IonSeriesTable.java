@@ -0,0 +1,213 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Columnar table of ion series results as read from a binary ion series file.
+ *
+ * Peptide sequences and protein accessions are stored as ids into a dictionary. The ion series indices and accession
+ * ids of all rows are stored in one array per column, with an offset array that marks where each row starts.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesTable {
+
+    /**
+     * Distinct peptide sequences.
+     */
+    private final List<String> sequenceDictionary;
+
+    /**
+     * Distinct protein accessions.
+     */
+    private final List<String> accessionDictionary;
+
+    /**
+     * Sequence id of each row.
+     */
+    private final int[] sequenceIds;
+
+    /**
+     * Peptide score of each row.
+     */
+    private final double[] peptideScores;
+
+    /**
+     * Intensity threshold of each row, NaN for rows of a single threshold.
+     */
+    private final double[] intensityThresholds;
+
+    /**
+     * Ion series flag of each row.
+     */
+    private final byte[] ionSeriesFlags;
+
+    /**
+     * Start of the ion series indices of each row, with the total amount of indices as last value.
+     */
+    private final int[] indexOffsets;
+
+    /**
+     * Ion series indices of all rows.
+     */
+    private final int[] ionSeriesIndices;
+
+    /**
+     * Start of the accession ids of each row, with the total amount of accession ids as last value.
+     */
+    private final int[] accessionOffsets;
+
+    /**
+     * Accession ids of all rows.
+     */
+    private final int[] accessionIds;
+
+    /**
+     * Creates a table from its columns. The arrays are used directly and should not be changed afterwards.
+     *
+     * @param sequenceDictionary distinct peptide sequences.
+     * @param accessionDictionary distinct protein accessions.
+     * @param sequenceIds sequence id of each row.
+     * @param peptideScores peptide score of each row.
+     * @param intensityThresholds intensity threshold of each row, NaN for rows of a single threshold.
+     * @param ionSeriesFlags ion series flag of each row.
+     * @param indexOffsets start of the ion series indices of each row plus the total amount of indices.
+     * @param ionSeriesIndices ion series indices of all rows.
+     * @param accessionOffsets start of the accession ids of each row plus the total amount of accession ids.
+     * @param accessionIds accession ids of all rows.
+     */
+    public IonSeriesTable(final List<String> sequenceDictionary, final List<String> accessionDictionary, final int[] sequenceIds,
+            final double[] peptideScores, final double[] intensityThresholds, final byte[] ionSeriesFlags, final int[] indexOffsets, final int[] ionSeriesIndices,
+            final int[] accessionOffsets, final int[] accessionIds) {
+        this.sequenceDictionary = Collections.unmodifiableList(sequenceDictionary);
+        this.accessionDictionary = Collections.unmodifiableList(accessionDictionary);
+        this.sequenceIds = sequenceIds;
+        this.peptideScores = peptideScores;
+        this.intensityThresholds = intensityThresholds;
+        this.ionSeriesFlags = ionSeriesFlags;
+        this.indexOffsets = indexOffsets;
+        this.ionSeriesIndices = ionSeriesIndices;
+        this.accessionOffsets = accessionOffsets;
+        this.accessionIds = accessionIds;
+    }
+
+    /**
+     * Returns the amount of rows.
+     *
+     * @return row count.
+     */
+    public final int getRowCount() {
+        return this.sequenceIds.length;
+    }
+
+    /**
+     * Returns the peptide sequence of a row.
+     *
+     * @param row row number.
+     * @return peptide sequence as String.
+     */
+    public final String getPeptideSequence(final int row) {
+        return this.sequenceDictionary.get(sequenceIds[row]);
+    }
+
+    /**
+     * Returns the sequence id of a row.
+     *
+     * @param row row number.
+     * @return index into the sequence dictionary.
+     */
+    public final int getSequenceId(final int row) {
+        return this.sequenceIds[row];
+    }
+
+    /**
+     * Returns the peptide score of a row.
+     *
+     * @param row row number.
+     * @return peptide score.
+     */
+    public final double getPeptideScore(final int row) {
+        return this.peptideScores[row];
+    }
+
+    /**
+     * Returns the intensity threshold of a row.
+     *
+     * @param row row number.
+     * @return intensity threshold or NaN if the rows were not written by an intensity threshold sweep.
+     */
+    public final double getIntensityThreshold(final int row) {
+        return this.intensityThresholds[row];
+    }
+
+    /**
+     * Returns the ion series flag of a row.
+     *
+     * @param row row number.
+     * @return ion series flag.
+     */
+    public final int getIonSeriesFlag(final int row) {
+        return this.ionSeriesFlags[row];
+    }
+
+    /**
+     * Returns the ion series indices of a row.
+     *
+     * @param row row number.
+     * @return copy of the ion series indices.
+     */
+    public final int[] getIonSeriesIndices(final int row) {
+        return Arrays.copyOfRange(ionSeriesIndices, indexOffsets[row], indexOffsets[row + 1]);
+    }
+
+    /**
+     * Returns the accession ids of a row.
+     *
+     * @param row row number.
+     * @return copy of the accession ids.
+     */
+    public final int[] getAccessionIds(final int row) {
+        return Arrays.copyOfRange(accessionIds, accessionOffsets[row], accessionOffsets[row + 1]);
+    }
+
+    /**
+     * Returns the protein accessions of a row as written in the csv file.
+     *
+     * @param row row number.
+     * @return colon separated accessions as String.
+     */
+    public final String getProteinAccessions(final int row) {
+        StringBuilder accessions = new StringBuilder();
+        for (int i = accessionOffsets[row]; i < accessionOffsets[row + 1]; i++) {
+            if (i > accessionOffsets[row]) {
+                accessions.append(':');
+            }
+            accessions.append(accessionDictionary.get(accessionIds[i]));
+        }
+        return accessions.toString();
+    }
+
+    /**
+     * Returns the distinct peptide sequences.
+     *
+     * @return unmodifiable list of sequences, indexed by sequence id.
+     */
+    public final List<String> getSequenceDictionary() {
+        return this.sequenceDictionary;
+    }
+
+    /**
+     * Returns the distinct protein accessions.
+     *
+     * @return unmodifiable list of accessions, indexed by accession id.
+     */
+    public final List<String> getAccessionDictionary() {
+        return this.accessionDictionary;
+    }
+}
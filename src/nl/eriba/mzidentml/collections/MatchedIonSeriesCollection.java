@@ -4,28 +4,98 @@
  */
 package nl.eriba.mzidentml.collections;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
 
 /**
  * Collection of MatchedIonSeries objects.
+ *
+ * The objects are kept in an ArrayList on the heap, or in a columnar store outside of the heap: in direct buffers or
+ * in memory-mapped temporary files. A columnar collection creates a new MatchedIonSeries object for each row that is
+ * read, so large collections should be read by iterating over the collection instead of getMatchedIonSeriesList.
  * 
  * @author vnijenhuis
  */
-public class MatchedIonSeriesCollection {
-    
+public class MatchedIonSeriesCollection implements Iterable<MatchedIonSeries> {
+
+    /**
+     * Keeps the MatchedIonSeries objects in an ArrayList.
+     */
+    public static final String HEAP_STORE = "heap";
+
+    /**
+     * Keeps the rows in columns of direct buffers.
+     */
+    public static final String OFF_HEAP_STORE = "offheap";
+
+    /**
+     * Keeps the rows in columns of memory-mapped temporary files.
+     */
+    public static final String MAPPED_STORE = "mapped";
+
     /**
      * Creates an ArrayList for MatchedIonSeries objects.
      */
     private final ArrayList<MatchedIonSeries> matchedIonSeriesList;
 
+    /**
+     * Columnar store of the rows or null if the objects are kept in the ArrayList.
+     */
+    private final MatchedIonSeriesStore columnStore;
+
+    /**
+     * Type of store of the collection.
+     */
+    private final String storeType;
+
     /**
      * ArrayList of MatchedIonSeries objects.
      */
     public MatchedIonSeriesCollection() {
-        matchedIonSeriesList = new ArrayList<>();
+        this(HEAP_STORE);
+    }
+
+    /**
+     * Creates a collection with the given type of store. Memory-mapped files are created in the temporary directory.
+     *
+     * @param storeType heap, offheap or mapped.
+     */
+    public MatchedIonSeriesCollection(final String storeType) {
+        this.storeType = storeType;
+        switch (storeType) {
+            case HEAP_STORE:
+                matchedIonSeriesList = new ArrayList<>();
+                columnStore = null;
+                break;
+            case OFF_HEAP_STORE:
+                matchedIonSeriesList = null;
+                columnStore = new MatchedIonSeriesStore(null);
+                break;
+            case MAPPED_STORE:
+                matchedIonSeriesList = null;
+                columnStore = new MatchedIonSeriesStore(Paths.get(System.getProperty("java.io.tmpdir")));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown ion series store " + storeType + ". Use " + HEAP_STORE + ", " + OFF_HEAP_STORE
+                        + " or " + MAPPED_STORE + ".");
+        }
+    }
+
+    /**
+     * Returns the type of store of the collection.
+     *
+     * @return heap, offheap or mapped.
+     */
+    public final String getStoreType() {
+        return this.storeType;
     }
 
     /**
@@ -34,26 +104,66 @@ public class MatchedIonSeriesCollection {
      * @param matchedIonSeries MatchedIonSeries object.
      */
     public final void addMatchedIonSeries(final MatchedIonSeries matchedIonSeries) {
-        matchedIonSeriesList.add(matchedIonSeries);
+        if (columnStore != null) {
+            columnStore.add(matchedIonSeries);
+        } else {
+            matchedIonSeriesList.add(matchedIonSeries);
+        }
     }
 
     /**
-     * Removes a MatchedIonSeries object from the ArrayList.
+     * Removes a MatchedIonSeries object from the ArrayList. Rows cannot be removed from a columnar store.
      *
      * @param matchedIonSeries MatchedIonSeries object.
      */
     public final void removeMatchedIonSeries(final MatchedIonSeries matchedIonSeries) {
+        if (columnStore != null) {
+            throw new UnsupportedOperationException("Rows cannot be removed from a columnar store.");
+        }
         matchedIonSeriesList.remove(matchedIonSeries);
     }
 
     /**
-     * Returns an ArrayList of MatchedIonSeries objects.
+     * Returns an ArrayList of MatchedIonSeries objects. A columnar collection returns a new list with a new object
+     * per row.
      *
      * @return ArrayList of MatchedIonSeries objects.
      */
     public final ArrayList<MatchedIonSeries> getMatchedIonSeriesList() {
+        if (columnStore != null) {
+            ArrayList<MatchedIonSeries> rows = new ArrayList<>(columnStore.size());
+            for (MatchedIonSeries matchedIonSeries : columnStore) {
+                rows.add(matchedIonSeries);
+            }
+            return rows;
+        }
         return matchedIonSeriesList;
     }
+
+    /**
+     * Returns the amount of MatchedIonSeries objects.
+     *
+     * @return size of the collection.
+     */
+    public final int size() {
+        if (columnStore != null) {
+            return columnStore.size();
+        }
+        return matchedIonSeriesList.size();
+    }
+
+    /**
+     * Returns an iterator over the MatchedIonSeries objects in the current order.
+     *
+     * @return iterator of MatchedIonSeries objects.
+     */
+    @Override
+    public final Iterator<MatchedIonSeries> iterator() {
+        if (columnStore != null) {
+            return columnStore.iterator();
+        }
+        return matchedIonSeriesList.iterator();
+    }
     
     /**
      * Adds a collection of MatchedIonSeries objects to an existing collection.
@@ -61,7 +171,9 @@ public class MatchedIonSeriesCollection {
      * @param ionSeriesCollection collection of MatchedIonSeries objects to add to this collection.
      */
     public final void addMatchedIonSeriesCollection(MatchedIonSeriesCollection ionSeriesCollection) {
-        this.matchedIonSeriesList.addAll(ionSeriesCollection.getMatchedIonSeriesList());
+        for (MatchedIonSeries matchedIonSeries : ionSeriesCollection) {
+            addMatchedIonSeries(matchedIonSeries);
+        }
     }
     
     /**
@@ -82,6 +194,97 @@ public class MatchedIonSeriesCollection {
      * Sorts the collection based on the peptide sequence String.
      */
     public final void sortOnPeptideSequence() {
+        if (columnStore != null) {
+            columnStore.sortOnPeptideSequence();
+            return;
+        }
         Collections.sort(this.matchedIonSeriesList, sortOnPeptideSequenceComparator());
     }
+
+    /**
+     * Creates an external sorter that sorts MatchedIonSeries objects on peptide sequence. Objects with the same
+     * sequence keep the order in which they were added.
+     *
+     * @param settings run size, directory of the run files and amount of sort threads.
+     * @return empty sorter that should be closed after use.
+     */
+    public static ExternalSorter<MatchedIonSeries> createPeptideSequenceSorter(final ExternalSortSettings settings) {
+        return new ExternalSorter<>(sortOnPeptideSequenceComparator(), getRecordCodec(), settings);
+    }
+
+    /**
+     * Writes and reads MatchedIonSeries objects in the run files of an external sort.
+     *
+     * @return codec of MatchedIonSeries objects.
+     */
+    static RecordCodec<MatchedIonSeries> getRecordCodec() {
+        return new RecordCodec<MatchedIonSeries>() {
+            @Override
+            public void write(DataOutput output, MatchedIonSeries record) throws IOException {
+                ExternalSorter.writeString(output, record.getPeptideSequence());
+                ExternalSorter.writeString(output, record.getProteinAccessions());
+                ExternalSorter.writeNullableDouble(output, record.getPeptideScore());
+                ExternalSorter.writeNullableDouble(output, record.getIntensityThreshold());
+                output.writeInt(record.getIonSeriesFlag());
+                int[] finalIndices = record.getFinalIonSeriesIndices();
+                output.writeInt(finalIndices.length);
+                for (int index : finalIndices) {
+                    output.writeInt(index);
+                }
+                writeBitSet(output, record.getCombinedIonIndices());
+                writeBitSet(output, record.getBIonIndices());
+                writeBitSet(output, record.getYIonIndices());
+                writeBitSet(output, record.getCombinedAllIonIndices());
+            }
+
+            @Override
+            public MatchedIonSeries read(DataInput input) throws IOException {
+                String peptideSequence = ExternalSorter.readString(input);
+                String accessions = ExternalSorter.readString(input);
+                Double score = ExternalSorter.readNullableDouble(input);
+                Double threshold = ExternalSorter.readNullableDouble(input);
+                int flag = input.readInt();
+                int[] finalIndices = new int[input.readInt()];
+                for (int i = 0; i < finalIndices.length; i++) {
+                    finalIndices[i] = input.readInt();
+                }
+                BitSet combinedIonIndices = readBitSet(input);
+                BitSet bIonIndices = readBitSet(input);
+                BitSet yIonIndices = readBitSet(input);
+                BitSet combinedAllIonIndices = readBitSet(input);
+                return new MatchedIonSeries(peptideSequence, score, accessions, combinedIonIndices, bIonIndices, yIonIndices, combinedAllIonIndices,
+                        finalIndices, flag, threshold);
+            }
+        };
+    }
+
+    /**
+     * Writes the words of a BitSet.
+     *
+     * @param output data output.
+     * @param indices BitSet of indices.
+     * @throws IOException could not write the BitSet.
+     */
+    private static void writeBitSet(final DataOutput output, final BitSet indices) throws IOException {
+        long[] words = indices.toLongArray();
+        output.writeInt(words.length);
+        for (long word : words) {
+            output.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a BitSet that was written by writeBitSet.
+     *
+     * @param input data input.
+     * @return new BitSet of indices.
+     * @throws IOException could not read the BitSet.
+     */
+    private static BitSet readBitSet(final DataInput input) throws IOException {
+        long[] words = new long[input.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = input.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
 }
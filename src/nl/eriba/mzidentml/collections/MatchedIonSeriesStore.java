@@ -0,0 +1,249 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+
+/**
+ * Columnar store of MatchedIonSeries objects outside of the Java heap.
+ *
+ * Peptide sequences and protein accessions are dictionary encoded, so each row stores an int id per String. Scores,
+ * intensity thresholds and flags are stored as primitive columns. The ion series indices of a row are stored in one int
+ * column: the sizes of the final, combined, b-ion, y-ion and all combined index sets followed by their indices, with
+ * the start of each row in an offset column. Rows are returned as new MatchedIonSeries objects, which can be discarded
+ * after use.
+ *
+ * Sorting only changes the order in which the rows are returned. The rows are ordered with a stable counting sort on
+ * the rank of their dictionary id, so the order equals a stable sort of the objects on peptide sequence.
+ *
+ * @author vnijenhuis
+ */
+class MatchedIonSeriesStore implements Iterable<MatchedIonSeries> {
+
+    /**
+     * Amount of index sets per row.
+     */
+    private static final int INDEX_SETS = 5;
+
+    /**
+     * Dictionary of the peptide sequences.
+     */
+    private final SymbolTable sequenceDictionary;
+
+    /**
+     * Dictionary of the protein accessions.
+     */
+    private final SymbolTable accessionDictionary;
+
+    /**
+     * Sequence id of each row.
+     */
+    private final ColumnBuffer sequenceColumn;
+
+    /**
+     * Accession id of each row.
+     */
+    private final ColumnBuffer accessionColumn;
+
+    /**
+     * Peptide score of each row, NaN if the score is null.
+     */
+    private final ColumnBuffer scoreColumn;
+
+    /**
+     * Intensity threshold of each row, NaN if the threshold is null.
+     */
+    private final ColumnBuffer thresholdColumn;
+
+    /**
+     * Ion series flag of each row.
+     */
+    private final ColumnBuffer flagColumn;
+
+    /**
+     * Start of the indices of each row in the index column.
+     */
+    private final ColumnBuffer offsetColumn;
+
+    /**
+     * Index set sizes and indices of all rows.
+     */
+    private final ColumnBuffer indexColumn;
+
+    /**
+     * Amount of rows.
+     */
+    private int rowCount;
+
+    /**
+     * Rows in sorted order or null if the rows are returned in insertion order.
+     */
+    private int[] order;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param mappedDirectory directory for memory-mapped columns or null to use direct buffers.
+     */
+    MatchedIonSeriesStore(final Path mappedDirectory) {
+        this.sequenceDictionary = new SymbolTable();
+        this.accessionDictionary = new SymbolTable();
+        this.sequenceColumn = new ColumnBuffer(mappedDirectory);
+        this.accessionColumn = new ColumnBuffer(mappedDirectory);
+        this.scoreColumn = new ColumnBuffer(mappedDirectory);
+        this.thresholdColumn = new ColumnBuffer(mappedDirectory);
+        this.flagColumn = new ColumnBuffer(mappedDirectory);
+        this.offsetColumn = new ColumnBuffer(mappedDirectory);
+        this.indexColumn = new ColumnBuffer(mappedDirectory);
+        this.rowCount = 0;
+    }
+
+    /**
+     * Adds a MatchedIonSeries object as a new row.
+     *
+     * @param matchedIonSeries MatchedIonSeries object.
+     */
+    final void add(final MatchedIonSeries matchedIonSeries) {
+        sequenceColumn.putInt(sequenceDictionary.getId(matchedIonSeries.getPeptideSequence()));
+        accessionColumn.putInt(accessionDictionary.getId(matchedIonSeries.getProteinAccessions()));
+        Double score = matchedIonSeries.getPeptideScore();
+        scoreColumn.putDouble(score == null ? Double.NaN : score);
+        Double threshold = matchedIonSeries.getIntensityThreshold();
+        thresholdColumn.putDouble(threshold == null ? Double.NaN : threshold);
+        flagColumn.putByte(matchedIonSeries.getIonSeriesFlag().byteValue());
+        offsetColumn.putLong(indexColumn.size());
+        int[] finalIndices = matchedIonSeries.getFinalIonSeriesIndices();
+        BitSet[] indexSets = {matchedIonSeries.getCombinedIonIndices(), matchedIonSeries.getBIonIndices(), matchedIonSeries.getYIonIndices(),
+            matchedIonSeries.getCombinedAllIonIndices()};
+        indexColumn.putInt(finalIndices.length);
+        for (BitSet indexSet : indexSets) {
+            indexColumn.putInt(indexSet.cardinality());
+        }
+        for (int index : finalIndices) {
+            indexColumn.putInt(index);
+        }
+        for (BitSet indexSet : indexSets) {
+            for (int index = indexSet.nextSetBit(0); index >= 0; index = indexSet.nextSetBit(index + 1)) {
+                indexColumn.putInt(index);
+            }
+        }
+        if (order != null) {
+            if (order.length == rowCount) {
+                order = Arrays.copyOf(order, Math.max(16, rowCount * 2));
+            }
+            order[rowCount] = rowCount;
+        }
+        rowCount++;
+    }
+
+    /**
+     * Returns the amount of rows.
+     *
+     * @return row count.
+     */
+    final int size() {
+        return this.rowCount;
+    }
+
+    /**
+     * Returns the row at the given position of the current order.
+     *
+     * @param position position in the current order.
+     * @return new MatchedIonSeries object with the data of the row.
+     */
+    final MatchedIonSeries get(final int position) {
+        if (position < 0 || position >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + position + " of " + rowCount);
+        }
+        int row = position;
+        if (order != null) {
+            row = order[position];
+        }
+        long intPosition = (long) row * 4;
+        long doublePosition = (long) row * 8;
+        String peptideSequence = sequenceDictionary.getSymbol(sequenceColumn.getInt(intPosition));
+        String accessions = accessionDictionary.getSymbol(accessionColumn.getInt(intPosition));
+        double score = scoreColumn.getDouble(doublePosition);
+        double threshold = thresholdColumn.getDouble(doublePosition);
+        int flag = flagColumn.getByte(row);
+        long indexPosition = offsetColumn.getLong(doublePosition);
+        int[] sizes = new int[INDEX_SETS];
+        for (int i = 0; i < INDEX_SETS; i++) {
+            sizes[i] = indexColumn.getInt(indexPosition);
+            indexPosition += 4;
+        }
+        int[] finalIndices = new int[sizes[0]];
+        for (int i = 0; i < finalIndices.length; i++) {
+            finalIndices[i] = indexColumn.getInt(indexPosition);
+            indexPosition += 4;
+        }
+        BitSet[] indexSets = new BitSet[INDEX_SETS - 1];
+        for (int set = 0; set < indexSets.length; set++) {
+            indexSets[set] = new BitSet();
+            for (int i = 0; i < sizes[set + 1]; i++) {
+                indexSets[set].set(indexColumn.getInt(indexPosition));
+                indexPosition += 4;
+            }
+        }
+        return new MatchedIonSeries(peptideSequence, Double.isNaN(score) ? null : score, accessions, indexSets[0], indexSets[1], indexSets[2],
+                indexSets[3], finalIndices, flag, Double.isNaN(threshold) ? null : threshold);
+    }
+
+    /**
+     * Sorts the rows on peptide sequence. Rows with the same sequence keep their current order.
+     */
+    final void sortOnPeptideSequence() {
+        int[] rank = sequenceDictionary.getSortRanks();
+        //Counting sort: the start position of each rank is the amount of rows with a lower rank.
+        int[] start = new int[rank.length + 1];
+        for (int row = 0; row < rowCount; row++) {
+            start[rank[sequenceColumn.getInt((long) row * 4)] + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] sorted = new int[rowCount];
+        for (int position = 0; position < rowCount; position++) {
+            int row = order == null ? position : order[position];
+            sorted[start[rank[sequenceColumn.getInt((long) row * 4)]]++] = row;
+        }
+        order = sorted;
+    }
+
+    /**
+     * Returns an iterator over the rows in the current order.
+     *
+     * @return iterator that creates a MatchedIonSeries object per row.
+     */
+    @Override
+    public final Iterator<MatchedIonSeries> iterator() {
+        return new Iterator<MatchedIonSeries>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < rowCount;
+            }
+
+            @Override
+            public MatchedIonSeries next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(position++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Rows cannot be removed from a columnar store.");
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import nl.eriba.mzidentml.ionseries.objects.MzIdModification;
+import nl.eriba.mzidentml.ionseries.objects.MzIdPeptide;
+
+/**
+ * Index of the modification names of modified MzIdPeptide objects with the peptide sequence as key.
+ *
+ * Each lookup returns the merged modification names of the peptides that are still available for the given sequence
+ * and then claims the last of these peptides. Peptides without modifications and substitute modifications are not
+ * indexed.
+ *
+ * @author vnijenhuis
+ */
+public class PeptideModificationIndex {
+
+    /**
+     * Indexed peptides with the peptide sequence as key.
+     */
+    private final HashMap<String, IndexEntry> index;
+
+    /**
+     * Creates the index from a collection of MzIdPeptide objects. The order of the peptides in the collection
+     * determines the order of the merged modification names.
+     *
+     * @param peptideCollection collection of MzIdPeptide objects.
+     */
+    public PeptideModificationIndex(final MzIdPeptideCollection peptideCollection) {
+        HashMap<String, ArrayList<MzIdPeptide>> peptidesPerSequence = new HashMap<>();
+        for (MzIdPeptide peptide : peptideCollection.getPeptides()) {
+            if (!peptide.getModifications().isEmpty() || !peptide.getSubstituteModifications().isEmpty()) {
+                ArrayList<MzIdPeptide> peptides = peptidesPerSequence.get(peptide.getPeptideSequence());
+                if (peptides == null) {
+                    peptides = new ArrayList<>(1);
+                    peptidesPerSequence.put(peptide.getPeptideSequence(), peptides);
+                }
+                peptides.add(peptide);
+            }
+        }
+        index = new HashMap<>(peptidesPerSequence.size() * 2);
+        for (String sequence : peptidesPerSequence.keySet()) {
+            index.put(sequence, new IndexEntry(peptidesPerSequence.get(sequence)));
+        }
+    }
+
+    /**
+     * Returns the merged modification names of the available peptides with the given sequence and claims the last of
+     * these peptides, so it is not used for the next lookup of this sequence.
+     *
+     * @param sequence peptide sequence.
+     * @return ArrayList of modification names in order of first occurrence.
+     */
+    public final ArrayList<String> claimModificationNames(final String sequence) {
+        IndexEntry entry = index.get(sequence);
+        if (entry == null || entry.available == 0) {
+            return new ArrayList<>();
+        }
+        int nameCount = entry.nameCounts[entry.available - 1];
+        entry.available--;
+        return new ArrayList<>(entry.names.subList(0, nameCount));
+    }
+
+    /**
+     * Modification names of the peptides that share a sequence.
+     */
+    private static final class IndexEntry {
+
+        /**
+         * Distinct modification names of all peptides in order of first occurrence.
+         */
+        private final ArrayList<String> names;
+
+        /**
+         * Amount of distinct names introduced by the first n + 1 peptides. Since the names are ordered on first
+         * occurrence, the merged names of the first n + 1 peptides are the first nameCounts[n] names.
+         */
+        private final int[] nameCounts;
+
+        /**
+         * Amount of peptides that have not been claimed.
+         */
+        private int available;
+
+        /**
+         * Merges the modification names of the given peptides.
+         *
+         * @param peptides list of MzIdPeptide objects with the same sequence.
+         */
+        private IndexEntry(final ArrayList<MzIdPeptide> peptides) {
+            LinkedHashSet<String> distinctNames = new LinkedHashSet<>();
+            nameCounts = new int[peptides.size()];
+            for (int i = 0; i < peptides.size(); i++) {
+                for (MzIdModification modification : peptides.get(i).getModifications()) {
+                    distinctNames.addAll(modification.getNames());
+                }
+                nameCounts[i] = distinctNames.size();
+            }
+            names = new ArrayList<>(distinctNames);
+            available = peptides.size();
+        }
+    }
+}
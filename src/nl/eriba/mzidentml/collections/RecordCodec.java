@@ -0,0 +1,36 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes objects to and reads objects from the run files of an ExternalSorter.
+ *
+ * @author vnijenhuis
+ * @param <T> type of the objects.
+ */
+public interface RecordCodec<T> {
+
+    /**
+     * Writes an object.
+     *
+     * @param output output of the run file.
+     * @param record object to write.
+     * @throws IOException could not write the object.
+     */
+    void write(DataOutput output, T record) throws IOException;
+
+    /**
+     * Reads an object that was written by write.
+     *
+     * @param input input of the run file.
+     * @return new object with the data that was read.
+     * @throws IOException could not read the object.
+     */
+    T read(DataInput input) throws IOException;
+}
@@ -5,6 +5,7 @@
 package nl.eriba.mzidentml.collections;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import nl.eriba.mzidentml.ionseries.objects.SingleDatabaseReference;
@@ -103,4 +104,72 @@ public class SingleDatabaseReferenceCollection {
     public final void sortOnPeptideSequence() {
         Collections.sort(this.databaseSequences, getPeptideSequenceComparator());
     }
+
+    /**
+     * Sorts the collection based on the peptide sequence with a counting sort on the sort rank of each sequence. The
+     * order is the same as that of sortOnPeptideSequence, but no Strings are compared.
+     *
+     * @param sequenceSymbols symbol table that contains the peptide sequences of all references.
+     */
+    public final void sortOnPeptideSequence(final SymbolTable sequenceSymbols) {
+        int[] sortRanks = sequenceSymbols.getSortRanks();
+        int[] ranks = new int[databaseSequences.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = sortRanks[getSymbolId(sequenceSymbols, databaseSequences.get(i).getPeptideSequence())];
+        }
+        sortOnRanks(ranks, sortRanks.length);
+    }
+
+    /**
+     * Sorts the collection based on the protein accession with a counting sort on the sort rank of each accession.
+     *
+     * @param accessionSymbols symbol table that contains the protein accessions of all references.
+     */
+    public final void sortOnProteinAccession(final SymbolTable accessionSymbols) {
+        int[] sortRanks = accessionSymbols.getSortRanks();
+        int[] ranks = new int[databaseSequences.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = sortRanks[getSymbolId(accessionSymbols, databaseSequences.get(i).getProteinAccession())];
+        }
+        sortOnRanks(ranks, sortRanks.length);
+    }
+
+    /**
+     * Returns the id of a String of a reference.
+     *
+     * @param symbols symbol table.
+     * @param symbol String of a reference.
+     * @return id of the String.
+     * @throws IllegalArgumentException the String is not in the symbol table.
+     */
+    private static int getSymbolId(final SymbolTable symbols, final String symbol) {
+        int id = symbols.findId(symbol);
+        if (id < 0) {
+            throw new IllegalArgumentException("The symbol table does not contain " + symbol + ".");
+        }
+        return id;
+    }
+
+    /**
+     * Reorders the references with a stable counting sort on their rank.
+     *
+     * @param ranks rank of each reference in the current order.
+     * @param rankCount amount of distinct ranks.
+     */
+    private void sortOnRanks(final int[] ranks, final int rankCount) {
+        //The start position of each rank is the amount of references with a lower rank.
+        int[] start = new int[rankCount + 1];
+        for (int rank : ranks) {
+            start[rank + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        SingleDatabaseReference[] sorted = new SingleDatabaseReference[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            sorted[start[ranks[i]]++] = databaseSequences.get(i);
+        }
+        databaseSequences.clear();
+        databaseSequences.addAll(Arrays.asList(sorted));
+    }
 }
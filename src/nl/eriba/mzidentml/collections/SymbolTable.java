@@ -0,0 +1,137 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Dictionary of the distinct Strings of an mzid file, such as peptide sequences or protein accessions.
+ *
+ * Each distinct String gets a compact int id in order of first occurrence. Objects that take their Strings from the
+ * table share a single instance per distinct String, so equal Strings are stored once and compared by reference
+ * before their characters are. The sort rank of each id is determined once, after which sorts on the Strings can
+ * compare ints instead.
+ *
+ * Symbols are added by a single thread while the file is read. Once all symbols are added, the table can be read by
+ * multiple threads without locking.
+ *
+ * @author vnijenhuis
+ */
+public class SymbolTable {
+
+    /**
+     * Distinct Strings in order of their id.
+     */
+    private final ArrayList<String> symbols;
+
+    /**
+     * Ids with the String as key.
+     */
+    private final HashMap<String, Integer> ids;
+
+    /**
+     * Sort rank of each id or null if symbols were added since the ranks were determined.
+     */
+    private volatile int[] sortRanks;
+
+    /**
+     * Creates an empty symbol table.
+     */
+    public SymbolTable() {
+        this.symbols = new ArrayList<>();
+        this.ids = new HashMap<>();
+    }
+
+    /**
+     * Returns the id of a String and adds the String if it is new.
+     *
+     * @param symbol String to look up, not null.
+     * @return id of the String.
+     */
+    public final int getId(final String symbol) {
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            ids.put(symbol, id);
+            symbols.add(symbol);
+            sortRanks = null;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of a String without adding it.
+     *
+     * @param symbol String to look up.
+     * @return id of the String or -1 if the String is not in the table.
+     */
+    public final int findId(final String symbol) {
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the instance of the table that equals the given String and adds the String if it is new.
+     *
+     * @param symbol String to look up, not null.
+     * @return shared instance of the String.
+     */
+    public final String intern(final String symbol) {
+        return symbols.get(getId(symbol));
+    }
+
+    /**
+     * Returns the String of an id.
+     *
+     * @param id id of the String.
+     * @return String of the id.
+     */
+    public final String getSymbol(final int id) {
+        return symbols.get(id);
+    }
+
+    /**
+     * Returns the amount of distinct Strings.
+     *
+     * @return size of the table.
+     */
+    public final int size() {
+        return symbols.size();
+    }
+
+    /**
+     * Returns the sort rank of each id: the position of its String when all Strings of the table are sorted. The ranks
+     * are determined once and again after new symbols are added.
+     *
+     * @return array with the rank of each id.
+     */
+    public final int[] getSortRanks() {
+        int[] ranks = sortRanks;
+        if (ranks == null) {
+            Integer[] sortedIds = new Integer[symbols.size()];
+            for (int i = 0; i < sortedIds.length; i++) {
+                sortedIds[i] = i;
+            }
+            Arrays.sort(sortedIds, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return symbols.get(o1).compareTo(symbols.get(o2));
+                }
+            });
+            ranks = new int[sortedIds.length];
+            for (int i = 0; i < sortedIds.length; i++) {
+                ranks[sortedIds[i]] = i;
+            }
+            sortRanks = ranks;
+        }
+        return ranks;
+    }
+}
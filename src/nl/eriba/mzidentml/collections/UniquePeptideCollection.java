@@ -21,6 +21,16 @@ public class UniquePeptideCollection {
      */
     private final ArrayList<CombinedPeptideEntry> uniquePeptideEntries;
 
+    /**
+     * Symbol table of the peptide sequences of the accession index.
+     */
+    private SymbolTable sequenceSymbols;
+
+    /**
+     * Colon separated accessions with the sequence id as index, or null if the index has not been built.
+     */
+    private String[] accessionIndex;
+
     /**
      * ArrayList of UniquePeptideEntry objects.
      */
@@ -35,6 +45,7 @@ public class UniquePeptideCollection {
      */
     public final void addUniquePeptideEntry(final CombinedPeptideEntry uniquePeptideEntry) {
         uniquePeptideEntries.add(uniquePeptideEntry);
+        accessionIndex = null;
     }
 
     /**
@@ -44,6 +55,7 @@ public class UniquePeptideCollection {
      */
     public final void removeUniquePeptideEntry(final CombinedPeptideEntry uniquePeptideEntry) {
         uniquePeptideEntries.remove(uniquePeptideEntry);
+        accessionIndex = null;
     }
 
     /**
@@ -76,4 +88,93 @@ public class UniquePeptideCollection {
     public final void sortOnPeptideSequence() {
         Collections.sort(this.uniquePeptideEntries, sortOnPeptideSequenceComparator());
     }
+
+    /**
+     * Builds the accession index of this collection. The accessions of each peptide sequence are joined once. If a
+     * sequence occurs more than once, the first entry is used. The index should be built after all entries have been
+     * added and can then be read by multiple threads without locking.
+     */
+    public final void buildAccessionIndex() {
+        buildAccessionIndex(new SymbolTable());
+    }
+
+    /**
+     * Builds the accession index of this collection on the ids of the given symbol table. Sequences of the entries
+     * that are not in the table are added to it. The table should not be changed after the index is built.
+     *
+     * @param sequenceSymbols symbol table of the peptide sequences of the mzid file.
+     */
+    public final void buildAccessionIndex(final SymbolTable sequenceSymbols) {
+        for (CombinedPeptideEntry peptide : uniquePeptideEntries) {
+            sequenceSymbols.getId(peptide.getSequence());
+        }
+        String[] index = new String[sequenceSymbols.size()];
+        for (CombinedPeptideEntry peptide : uniquePeptideEntries) {
+            int id = sequenceSymbols.findId(peptide.getSequence());
+            if (index[id] == null) {
+                StringBuilder accessions = new StringBuilder();
+                for (String accession : peptide.getAccessionList()) {
+                    if (accessions.length() > 0) {
+                        accessions.append(':');
+                    }
+                    accessions.append(accession);
+                }
+                index[id] = accessions.toString();
+            }
+        }
+        this.sequenceSymbols = sequenceSymbols;
+        this.accessionIndex = index;
+    }
+
+    /**
+     * Returns the id of a peptide sequence in the accession index.
+     *
+     * @param sequence peptide sequence.
+     * @return sequence id or -1 if the sequence is not present.
+     * @throws IllegalStateException the accession index has not been built after the last change to this collection.
+     */
+    public final int findSequenceId(final String sequence) {
+        if (accessionIndex == null) {
+            throw new IllegalStateException("The accession index has not been built for this collection.");
+        }
+        return sequenceSymbols.findId(sequence);
+    }
+
+    /**
+     * Returns the shared instance of a peptide sequence of the accession index.
+     *
+     * @param sequenceId sequence id.
+     * @return peptide sequence.
+     */
+    public final String getPeptideSequence(final int sequenceId) {
+        return sequenceSymbols.getSymbol(sequenceId);
+    }
+
+    /**
+     * Returns the colon separated accessions of a peptide sequence id.
+     *
+     * @param sequenceId sequence id or -1.
+     * @return accessions as String or an empty String if the sequence has no entry.
+     */
+    public final String getAccessions(final int sequenceId) {
+        String[] index = accessionIndex;
+        if (index == null) {
+            throw new IllegalStateException("The accession index has not been built for this collection.");
+        }
+        if (sequenceId < 0 || sequenceId >= index.length || index[sequenceId] == null) {
+            return "";
+        }
+        return index[sequenceId];
+    }
+
+    /**
+     * Returns the colon separated accessions of a peptide sequence.
+     *
+     * @param sequence peptide sequence.
+     * @return accessions as String or an empty String if the sequence is not present.
+     * @throws IllegalStateException the accession index has not been built after the last change to this collection.
+     */
+    public final String getAccessions(final String sequence) {
+        return getAccessions(findSequenceId(sequence));
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import nl.eriba.mzidentml.collections.UniquePeptideCollection;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationItem;
+
+/**
+ * Processes SpectrumIdentificationItem objects in parallel batches.
+ *
+ * Items are submitted in batches to a fixed thread pool and collected in order of completion. The results of each
+ * batch are passed to the IonSeriesSink in submission order, so the output does not depend on the amount
+ * of threads. With multiple intensity thresholds, each item adds one result per threshold in the order of the
+ * thresholds.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesBatchProcessor {
+
+    /**
+     * Amount of items that are submitted per thread before the results of a batch are collected.
+     */
+    private static final int ITEMS_PER_THREAD = 256;
+
+    /**
+     * Thread pool that executes the ion series tasks.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Completion service that returns the finished tasks in order of completion.
+     */
+    private final CompletionService<List<MatchedIonSeries>> completionService;
+
+    /**
+     * Amount of items per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Items of the current batch in submission order.
+     */
+    private final ArrayList<SpectrumIdentificationItem> batch;
+
+    /**
+     * List of unique peptides and the data corresponding to these peptides.
+     */
+    private final UniquePeptideCollection uniquePeptideCollection;
+
+    /**
+     * Specified signal intensity thresholds.
+     */
+    private final List<Double> intensityThresholds;
+
+    /**
+     * Sink that receives the results of each batch.
+     */
+    private final IonSeriesSink sink;
+
+    /**
+     * Threads that were created by the thread pool.
+     */
+    private final List<Thread> workerThreads;
+
+    /**
+     * True if the thread pool is shared with other batch processors and must not be shut down.
+     */
+    private final boolean sharedPool;
+
+    /**
+     * Creates a batch processor with a thread pool of the given size.
+     *
+     * @param threads amount of threads used to process the items.
+     * @param uniquePeptideCollection collection of unique peptides and their accessions.
+     * @param intensityThresholds user specified signal intensity thresholds.
+     * @param sink receiver of the results.
+     */
+    public IonSeriesBatchProcessor(final Integer threads, final UniquePeptideCollection uniquePeptideCollection,
+            final List<Double> intensityThresholds, final IonSeriesSink sink) {
+        int poolSize = Math.max(1, threads);
+        this.workerThreads = Collections.synchronizedList(new ArrayList<Thread>(poolSize));
+        final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        //The worker threads are recorded so their allocations can be measured.
+        this.executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+                Thread thread = defaultFactory.newThread(task);
+                workerThreads.add(thread);
+                return thread;
+            }
+        });
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.batchSize = poolSize * ITEMS_PER_THREAD;
+        this.batch = new ArrayList<>(batchSize);
+        this.uniquePeptideCollection = uniquePeptideCollection;
+        this.intensityThresholds = intensityThresholds;
+        this.sink = sink;
+        this.sharedPool = false;
+    }
+
+    /**
+     * Creates a batch processor that uses a thread pool which is shared with other batch processors. The pool is not
+     * shut down by this processor.
+     *
+     * @param workerPool shared thread pool.
+     * @param threads amount of threads of the pool this processor should keep busy, which sets the batch size.
+     * @param uniquePeptideCollection collection of unique peptides and their accessions.
+     * @param intensityThresholds user specified signal intensity thresholds.
+     * @param sink receiver of the results.
+     */
+    public IonSeriesBatchProcessor(final ExecutorService workerPool, final Integer threads, final UniquePeptideCollection uniquePeptideCollection,
+            final List<Double> intensityThresholds, final IonSeriesSink sink) {
+        //The threads of a shared pool also work for other files, so their allocations are not measured.
+        this.workerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        this.executor = workerPool;
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.batchSize = Math.max(1, threads) * ITEMS_PER_THREAD;
+        this.batch = new ArrayList<>(batchSize);
+        this.uniquePeptideCollection = uniquePeptideCollection;
+        this.intensityThresholds = intensityThresholds;
+        this.sink = sink;
+        this.sharedPool = true;
+    }
+
+    /**
+     * Adds a SpectrumIdentificationItem to the current batch. The batch is processed once it is full.
+     *
+     * @param spectrumIdItem SpectrumIdentificationItem object.
+     * @throws InterruptedException process was interrupted while waiting for the results.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException the sink could not write a result.
+     */
+    public final void addSpectrumIdentificationItem(final SpectrumIdentificationItem spectrumIdItem) throws InterruptedException, ExecutionException, IOException {
+        batch.add(spectrumIdItem);
+        if (batch.size() >= batchSize) {
+            processBatch();
+        }
+    }
+
+    /**
+     * Processes the remaining items of the last batch.
+     *
+     * @throws InterruptedException process was interrupted while waiting for the results.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException the sink could not write a result.
+     */
+    public final void finish() throws InterruptedException, ExecutionException, IOException {
+        processBatch();
+    }
+
+    /**
+     * Returns the threads that were created by the thread pool.
+     *
+     * @return list of worker threads.
+     */
+    public final List<Thread> getWorkerThreads() {
+        synchronized (workerThreads) {
+            return new ArrayList<>(workerThreads);
+        }
+    }
+
+    /**
+     * Shuts down the thread pool. Tasks that are still running are interrupted. A shared thread pool keeps running.
+     */
+    public final void shutdown() {
+        if (!sharedPool) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits all items of the current batch, collects the results as they complete and adds them to the collection
+     * in submission order. When a task fails, the tasks of the batch that did not complete yet are cancelled.
+     *
+     * @throws InterruptedException process was interrupted while waiting for the results.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException the sink could not write a result.
+     */
+    private void processBatch() throws InterruptedException, ExecutionException, IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        IdentityHashMap<Future<List<MatchedIonSeries>>, Integer> positions = new IdentityHashMap<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final IonSeriesGenerator task = new IonSeriesGenerator(batch.get(i), uniquePeptideCollection, intensityThresholds);
+            positions.put(completionService.submit(new Callable<List<MatchedIonSeries>>() {
+                @Override
+                public List<MatchedIonSeries> call() {
+                    return task.callAllThresholds();
+                }
+            }), i);
+        }
+        List<List<MatchedIonSeries>> results = new ArrayList<>(Collections.nCopies(batch.size(), (List<MatchedIonSeries>) null));
+        try {
+            for (int completed = 0; completed < results.size(); completed++) {
+                Future<List<MatchedIonSeries>> future = completionService.take();
+                results.set(positions.remove(future), future.get());
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            //The batch is not used anymore, so its remaining tasks should not take time from a shared thread pool.
+            for (Future<List<MatchedIonSeries>> future : positions.keySet()) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+        for (List<MatchedIonSeries> itemResults : results) {
+            for (MatchedIonSeries matchedIonSeries : itemResults) {
+                sink.accept(matchedIonSeries);
+            }
+        }
+        batch.clear();
+    }
+}
@@ -5,7 +5,9 @@
 package nl.eriba.mzidentml.ionseries.identifiication;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -13,10 +15,14 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import javax.xml.stream.XMLStreamException;
 import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
 import nl.eriba.mzidentml.collections.MzIdPeptideCollection;
+import nl.eriba.mzidentml.collections.PeptideModificationIndex;
 import nl.eriba.mzidentml.collections.SingleDatabaseReferenceCollection;
+import nl.eriba.mzidentml.collections.SymbolTable;
 import nl.eriba.mzidentml.collections.UniquePeptideCollection;
+import nl.eriba.mzidentml.ionseries.objects.IonCategory;
 import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
 import nl.eriba.mzidentml.ionseries.objects.MzIdIonFragment;
 import nl.eriba.mzidentml.ionseries.objects.MzIdModification;
@@ -24,6 +30,9 @@ import nl.eriba.mzidentml.ionseries.objects.MzIdPeptide;
 import nl.eriba.mzidentml.ionseries.objects.MzIdSubstituteModification;
 import nl.eriba.mzidentml.ionseries.objects.SingleDatabaseReference;
 import nl.eriba.mzidentml.ionseries.objects.CombinedPeptideEntry;
+import nl.eriba.mzidentml.ionseries.tools.DecompressingInputStream;
+import nl.eriba.mzidentml.ionseries.tools.PipelineMetrics;
+import nl.eriba.mzidentml.ionseries.tools.PipelineMetrics.RunningStage;
 import uk.ac.ebi.jmzidml.MzIdentMLElement;
 import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
 import uk.ac.ebi.jmzidml.model.mzidml.FragmentArray;
@@ -43,12 +52,12 @@ import uk.ac.ebi.jmzidml.xml.io.MzIdentMLUnmarshaller;
  *
  * @author vnijenhuis
  */
-public class IonSeriesGenerator implements Callable {
+public class IonSeriesGenerator implements Callable<MatchedIonSeries> {
 
     /**
-     * Specified signal intensity threshold.
+     * Specified signal intensity thresholds. Contains more than one threshold for a threshold sweep.
      */
-    private final Double userIntensityThreshold;
+    private final List<Double> userIntensityThresholds;
 
     /**
      * SpectrumIdentificationItem object.
@@ -60,6 +69,16 @@ public class IonSeriesGenerator implements Callable {
      */
     private final UniquePeptideCollection uniquePeptideCountList;
 
+    /**
+     * Thread pool that is shared with other files or null to create a thread pool per file.
+     */
+    private ExecutorService workerPool;
+
+    /**
+     * Type of store of the ion series collection: heap, offheap or mapped.
+     */
+    private String storeType = MatchedIonSeriesCollection.HEAP_STORE;
+
     /**
      * mzid format file reader.
      *
@@ -68,76 +87,371 @@ public class IonSeriesGenerator implements Callable {
      * @param intensityThreshold user specified signal intensity threshold.
      */
     public IonSeriesGenerator(final SpectrumIdentificationItem spectrumItem, final UniquePeptideCollection uniquePeptideCountList, final Double intensityThreshold) {
-        this.userIntensityThreshold = intensityThreshold;
+        this(spectrumItem, uniquePeptideCountList, Collections.singletonList(intensityThreshold));
+    }
+
+    /**
+     * mzid format file reader that determines the ion series for each of the given intensity thresholds.
+     *
+     * @param spectrumItem the given SpectrumIdentificationItem object.
+     * @param uniquePeptideCountList list of UniquePeptideEntry objects.
+     * @param intensityThresholds user specified signal intensity thresholds.
+     */
+    public IonSeriesGenerator(final SpectrumIdentificationItem spectrumItem, final UniquePeptideCollection uniquePeptideCountList,
+            final List<Double> intensityThresholds) {
+        this.userIntensityThresholds = new ArrayList<>(intensityThresholds);
         this.spectrumItem = spectrumItem;
         this.uniquePeptideCountList = uniquePeptideCountList;
     }
 
+    /**
+     * Sets a thread pool that is shared with other files. The ion series tasks of this file are then executed on the
+     * shared pool instead of a pool of its own.
+     *
+     * @param workerPool shared thread pool or null to create a thread pool per file.
+     */
+    public final void setWorkerPool(final ExecutorService workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Sets the type of store of the ion series collection. A columnar store keeps the results outside of the heap.
+     *
+     * @param storeType heap, offheap or mapped.
+     */
+    public final void setStoreType(final String storeType) {
+        this.storeType = storeType;
+    }
+
+    /**
+     * Collects mzid data by storing the data into a collection of ScanID
+     * objects.
+     *
+     * @param mzIdFile file with the .mzid extension and MzIdentMl format.
+     * @param threads amount of threads used for the program.
+     * @param intensityThreshold user specified signal intensity threshold.
+     * @return returns a collection of ScanID objects.
+     * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.ExecutionException
+     * @throws java.io.IOException could not find or open the given file.
+     * @throws javax.xml.stream.XMLStreamException the given file does not contain valid xml.
+     */
+    public MatchedIonSeriesCollection generateIonSeries(final String mzIdFile, final Double intensityThreshold, final Integer threads) throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        return generateIonSeries(mzIdFile, intensityThreshold, threads, false);
+    }
+
     /**
      * Collects mzid data by storing the data into a collection of ScanID
      * objects.
      *
+     * In streaming mode the SpectrumIdentificationResult elements are read one at a time and passed directly to the
+     * ion series stage instead of unmarshalling the complete SpectrumIdentificationList. The results are then kept in
+     * file order instead of being sorted on peptide sequence.
+     *
+     * Gzip and zstd compressed files are decompressed on a separate thread and read in one pass with a StAX parser.
+     *
+     * @param mzIdFile file with the .mzid extension and MzIdentMl format.
+     * @param threads amount of threads used for the program.
+     * @param intensityThreshold user specified signal intensity threshold.
+     * @param streaming true to stream the SpectrumIdentificationResult elements, false to unmarshal the complete list.
+     * @return returns a collection of ScanID objects.
+     * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.ExecutionException
+     * @throws java.io.IOException could not find or open the given file.
+     * @throws javax.xml.stream.XMLStreamException the given file does not contain valid xml.
+     */
+    public MatchedIonSeriesCollection generateIonSeries(final String mzIdFile, final Double intensityThreshold, final Integer threads, final Boolean streaming)
+            throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        return generateIonSeries(mzIdFile, intensityThreshold, threads, streaming, new PipelineMetrics());
+    }
+
+    /**
+     * Collects mzid data by storing the data into a collection of ScanID
+     * objects and records the measurements of each stage.
+     *
      * @param mzIdFile file with the .mzid extension and MzIdentMl format.
      * @param threads amount of threads used for the program.
      * @param intensityThreshold user specified signal intensity threshold.
+     * @param streaming true to stream the SpectrumIdentificationResult elements, false to unmarshal the complete list.
+     * @param metrics recorder for the measurements of each stage.
+     * @return returns a collection of ScanID objects.
+     * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.ExecutionException
+     * @throws java.io.IOException could not find or open the given file.
+     * @throws javax.xml.stream.XMLStreamException the given file does not contain valid xml.
+     */
+    public MatchedIonSeriesCollection generateIonSeries(final String mzIdFile, final Double intensityThreshold, final Integer threads, final Boolean streaming,
+            final PipelineMetrics metrics) throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        return generateIonSeries(mzIdFile, Collections.singletonList(intensityThreshold), threads, streaming, metrics);
+    }
+
+    /**
+     * Collects mzid data for each of the given intensity thresholds in a single pass over the file. Each fragment array
+     * is read once and tested against all thresholds. With more than one threshold, each SpectrumIdentificationItem
+     * gives one MatchedIonSeries per threshold, in the order of the thresholds.
+     *
+     * @param mzIdFile file with the .mzid extension and MzIdentMl format.
+     * @param intensityThresholds user specified signal intensity thresholds.
+     * @param threads amount of threads used for the program.
+     * @param streaming true to stream the SpectrumIdentificationResult elements, false to unmarshal the complete list.
+     * @param metrics recorder for the measurements of each stage.
      * @return returns a collection of ScanID objects.
      * @throws java.lang.InterruptedException
      * @throws java.util.concurrent.ExecutionException
+     * @throws java.io.IOException could not find or open the given file.
+     * @throws javax.xml.stream.XMLStreamException the given file does not contain valid xml.
      */
-    public MatchedIonSeriesCollection generateIonSeries(final String mzIdFile, final Double intensityThreshold, final Integer threads) throws InterruptedException, ExecutionException {
-        File mzIdentMLFile = new File(mzIdFile);
+    public MatchedIonSeriesCollection generateIonSeries(final String mzIdFile, final List<Double> intensityThresholds, final Integer threads,
+            final Boolean streaming, final PipelineMetrics metrics) throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        final MatchedIonSeriesCollection matchedIonSeriesCollection = new MatchedIonSeriesCollection(storeType);
+        generateIonSeries(mzIdFile, intensityThresholds, threads, streaming, metrics, new IonSeriesSink() {
+            @Override
+            public void accept(final MatchedIonSeries matchedIonSeries) {
+                matchedIonSeriesCollection.addMatchedIonSeries(matchedIonSeries);
+            }
+        });
+        return matchedIonSeriesCollection;
+    }
+
+    /**
+     * Determines the ion series of an mzid file and passes each result to the given sink as soon as its batch is
+     * finished, so the results do not have to be kept in memory until the whole file is matched.
+     *
+     * @param mzIdFile file with the .mzid extension and MzIdentMl format.
+     * @param intensityThresholds user specified signal intensity thresholds.
+     * @param threads amount of threads used for the program.
+     * @param streaming true to stream the SpectrumIdentificationResult elements, false to unmarshal the complete list.
+     * @param metrics recorder for the measurements of each stage.
+     * @param sink receiver of the MatchedIonSeries objects.
+     * @return amount of SpectrumIdentificationItem objects that were matched.
+     * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.ExecutionException
+     * @throws java.io.IOException could not find or open the given file or the sink could not write a result.
+     * @throws javax.xml.stream.XMLStreamException the given file does not contain valid xml.
+     */
+    public long generateIonSeries(final String mzIdFile, final List<Double> intensityThresholds, final Integer threads, final Boolean streaming,
+            final PipelineMetrics metrics, final IonSeriesSink sink) throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        final File mzIdentMLFile = new File(mzIdFile);
         System.out.println("Reading given file: " + mzIdFile);
-        //Unmarshaller that transforms storage data format to a memory format
+        UniquePeptideCollection createUniquePeptideCountList;
+        SpectrumIdentificationList spectrumIdList = null;
+        SpectrumIdentificationResultReader resultReader = null;
+        Integer count = 0;
+        try {
+            if (DecompressingInputStream.isCompressed(mzIdentMLFile)) {
+                //Compressed files cannot be unmarshalled, so the sequences and spectra are read in one pass while the file is decompressed.
+                System.out.println("Decompressing the given file while reading...");
+                resultReader = new SpectrumIdentificationResultReader(mzIdentMLFile);
+                RunningStage unmarshalStage = metrics.startStage("unmarshal sequences");
+                SequenceCollection sequenceCollection = resultReader.readSequenceCollection();
+                metrics.finishStage(unmarshalStage, sequenceCollection.getPeptide().size() + sequenceCollection.getPeptideEvidence().size());
+                createUniquePeptideCountList = createSequenceIndexes(sequenceCollection, metrics);
+                if (!streaming) {
+                    unmarshalStage = metrics.startStage("unmarshal spectra");
+                    spectrumIdList = new SpectrumIdentificationList();
+                    SpectrumIdentificationResult spectrumIdResult;
+                    while ((spectrumIdResult = resultReader.readNext()) != null) {
+                        spectrumIdList.getSpectrumIdentificationResult().add(spectrumIdResult);
+                    }
+                    Collections.sort(spectrumIdList.getSpectrumIdentificationResult(), new SortSpectrumResultBySequence());
+                    metrics.finishStage(unmarshalStage, spectrumIdList.getSpectrumIdentificationResult().size());
+                }
+            } else {
+                //The sequence side is read and indexed on a second thread while the spectrum side is read on this thread.
+                ExecutorService sequenceExecutor = Executors.newSingleThreadExecutor();
+                try {
+                    Future<UniquePeptideCollection> sequenceBranch = sequenceExecutor.submit(new Callable<UniquePeptideCollection>() {
+                        @Override
+                        public UniquePeptideCollection call() {
+                            return createSequenceIndexes(mzIdentMLFile, metrics);
+                        }
+                    });
+                    if (!streaming) {
+                        RunningStage unmarshalStage = metrics.startStage("unmarshal spectra");
+                        //Each branch uses its own unmarshaller, since the unmarshaller is not documented to be thread safe.
+                        MzIdentMLUnmarshaller unmarshaller = new MzIdentMLUnmarshaller(mzIdentMLFile);
+                        System.out.println("Retrieving <SpectrumIdentificationList> element...");
+                        spectrumIdList = unmarshaller.unmarshal(MzIdentMLElement.SpectrumIdentificationList);
+                        Collections.sort(spectrumIdList.getSpectrumIdentificationResult(), new SortSpectrumResultBySequence());
+                        metrics.finishStage(unmarshalStage, spectrumIdList.getSpectrumIdentificationResult().size());
+                    }
+                    createUniquePeptideCountList = sequenceBranch.get();
+                } finally {
+                    sequenceExecutor.shutdownNow();
+                }
+                if (streaming) {
+                    resultReader = new SpectrumIdentificationResultReader(mzIdentMLFile);
+                }
+            }
+            //Process data of each SpectrumIdentificationItem.
+            long submitted = 0;
+            System.out.println("Starting identification of ion series...");
+            //In streaming mode this stage includes reading the SpectrumIdentificationResult elements.
+            RunningStage matchingStage = metrics.startStage("psm matching");
+            //Items are processed in parallel batches. Results are added in submission order.
+            IonSeriesBatchProcessor batchProcessor;
+            if (workerPool == null) {
+                batchProcessor = new IonSeriesBatchProcessor(threads, createUniquePeptideCountList, intensityThresholds, sink);
+            } else {
+                batchProcessor = new IonSeriesBatchProcessor(workerPool, threads, createUniquePeptideCountList, intensityThresholds, sink);
+            }
+            try {
+                if (streaming) {
+                    System.out.println("Streaming <SpectrumIdentificationResult> elements...");
+                    SpectrumIdentificationResult spectrumIdResult;
+                    while ((spectrumIdResult = resultReader.readNext()) != null) {
+                        count++;
+                        submitted += submitSpectrumIdentificationResult(spectrumIdResult, batchProcessor, count);
+                    }
+                } else {
+                    for (SpectrumIdentificationResult spectrumIdResult : spectrumIdList.getSpectrumIdentificationResult()) {
+                        count++;
+                        submitted += submitSpectrumIdentificationResult(spectrumIdResult, batchProcessor, count);
+                    }
+                }
+                batchProcessor.finish();
+                //Measured before the shutdown, because the allocations of the worker threads are lost when they end.
+                metrics.finishStage(matchingStage, submitted, batchProcessor.getWorkerThreads());
+            } finally {
+                batchProcessor.shutdown();
+            }
+            System.out.println("Matched data for " + count + " <SpectrumIdentificationResult> elements.");
+            return submitted;
+        } finally {
+            if (resultReader != null) {
+                resultReader.close();
+            }
+        }
+    }
+
+    /**
+     * Unmarshals the SequenceCollection and creates the collection of unique peptides and their accessions.
+     *
+     * @param mzIdentMLFile file with the .mzid extension and MzIdentMl format.
+     * @param metrics recorder for the measurements of each stage.
+     * @return collection of unique peptides with the accession index.
+     */
+    private UniquePeptideCollection createSequenceIndexes(final File mzIdentMLFile, final PipelineMetrics metrics) {
+        RunningStage unmarshalStage = metrics.startStage("unmarshal sequences");
         MzIdentMLUnmarshaller unmarshaller = new MzIdentMLUnmarshaller(mzIdentMLFile);
-        System.out.println("Retrieving <SpectrumIdentificationList> element...");
-        SpectrumIdentificationList spectrumIdList = unmarshaller.unmarshal(MzIdentMLElement.SpectrumIdentificationList);
         SequenceCollection sequenceCollection = unmarshaller.unmarshal(SequenceCollection.class);
-        Collections.sort(spectrumIdList.getSpectrumIdentificationResult(), new SortSpectrumResultBySequence());
+        metrics.finishStage(unmarshalStage, sequenceCollection.getPeptide().size() + sequenceCollection.getPeptideEvidence().size());
+        return createSequenceIndexes(sequenceCollection, metrics);
+    }
+
+    /**
+     * Creates the collection of unique peptides and their accessions from a SequenceCollection.
+     *
+     * The peptide sequences and protein accessions of the file are interned in a symbol table per file while the
+     * collections are created, so each distinct String is stored once and the sorts compare ranks instead of Strings.
+     *
+     * @param sequenceCollection SequenceCollection with the Peptide and PeptideEvidence objects.
+     * @param metrics recorder for the measurements of each stage.
+     * @return collection of unique peptides with the accession index.
+     */
+    private UniquePeptideCollection createSequenceIndexes(final SequenceCollection sequenceCollection, final PipelineMetrics metrics) {
         System.out.println("Retrieving <PeptideEvidence> elements...");
         List<PeptideEvidence> peptideEvidenceList = sequenceCollection.getPeptideEvidence();
         System.out.println("Creating unique peptide collection...");
-        MzIdPeptideCollection peptideCollection = createPeptideCollection(sequenceCollection.getPeptide());
-        SingleDatabaseReferenceCollection singleDatabaseReferenceCollection = createSequenceDatabaseReferenceCollection(peptideEvidenceList, peptideCollection);
-        UniquePeptideCollection createUniquePeptideCountList = createUniquePeptideCountList(singleDatabaseReferenceCollection);
-        MatchedIonSeriesCollection matchedIonSeriesCollection = new MatchedIonSeriesCollection();
-        //Process data of each SpectrumIdentificationItem.
-        Integer count = 0;
-        System.out.println("Starting identification of ion series...");
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
-        for (SpectrumIdentificationResult spectrumIdResult : spectrumIdList.getSpectrumIdentificationResult()) {
-            count++;
-            for (SpectrumIdentificationItem spectrumIdItem : spectrumIdResult.getSpectrumIdentificationItem()) {
-                if (spectrumIdItem.isPassThreshold()) {
-                    Callable<MatchedIonSeries> callable = new IonSeriesGenerator(spectrumIdItem, createUniquePeptideCountList, intensityThreshold);
-                    //Collects the output from the call function
-                    Future<MatchedIonSeries> future = executor.submit(callable);
-                    MatchedIonSeries matchedIonSeries = future.get();
-                    matchedIonSeriesCollection.addMatchedIonSeries(matchedIonSeries);
-                }
-            }
-            if (count % 2000 == 0) {
-                System.out.println("Matched data for " + count + " <SpectrumIdentificationResult> elements.");
+        RunningStage peptideStage = metrics.startStage("peptide collection");
+        SymbolTable sequenceSymbols = new SymbolTable();
+        SymbolTable accessionSymbols = new SymbolTable();
+        MzIdPeptideCollection peptideCollection = createPeptideCollection(sequenceCollection.getPeptide(), sequenceSymbols);
+        metrics.finishStage(peptideStage, sequenceCollection.getPeptide().size());
+        RunningStage joinStage = metrics.startStage("evidence join");
+        SingleDatabaseReferenceCollection singleDatabaseReferenceCollection = createSequenceDatabaseReferenceCollection(peptideEvidenceList, peptideCollection,
+                sequenceSymbols, accessionSymbols);
+        metrics.finishStage(joinStage, peptideEvidenceList.size());
+        RunningStage uniqueStage = metrics.startStage("unique peptides");
+        UniquePeptideCollection uniquePeptides = createUniquePeptideCountList(singleDatabaseReferenceCollection, sequenceSymbols);
+        metrics.finishStage(uniqueStage, singleDatabaseReferenceCollection.getDatabaseSequenceReferenceList().size());
+        return uniquePeptides;
+    }
+
+    /**
+     * Submits each SpectrumIdentificationItem of a SpectrumIdentificationResult that passes the threshold.
+     *
+     * @param spectrumIdResult SpectrumIdentificationResult object.
+     * @param batchProcessor processor that determines the ion series of each item.
+     * @param count amount of processed SpectrumIdentificationResult elements.
+     * @return amount of submitted SpectrumIdentificationItem objects.
+     * @throws InterruptedException process was interrupted while waiting for the results.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException the sink could not write a result.
+     */
+    private int submitSpectrumIdentificationResult(final SpectrumIdentificationResult spectrumIdResult, final IonSeriesBatchProcessor batchProcessor,
+            final Integer count) throws InterruptedException, ExecutionException, IOException {
+        int submitted = 0;
+        for (SpectrumIdentificationItem spectrumIdItem : spectrumIdResult.getSpectrumIdentificationItem()) {
+            if (spectrumIdItem.isPassThreshold()) {
+                batchProcessor.addSpectrumIdentificationItem(spectrumIdItem);
+                submitted++;
             }
         }
-        executor.shutdown();
-        System.out.println("Matched data for " + count + " <SpectrumIdentificationResult> elements.");
-        return matchedIonSeriesCollection;
+        if (count % 2000 == 0) {
+            System.out.println("Submitted data for " + count + " <SpectrumIdentificationResult> elements.");
+        }
+        return submitted;
     }
 
     /**
      * Call function that can be used by a thread to execute the given task.
      *
-     * @return MatchedIonSeries object.
+     * @return MatchedIonSeries object of the first intensity threshold.
      */
     @Override
-    public Object call() {
-        String score = "";
-        String peptideSequence = spectrumItem.getPeptideRef();
-        List<IonType> fragmentList = spectrumItem.getFragmentation().getIonType();
-        String accessions = getAccessions(peptideSequence);
+    public MatchedIonSeries call() {
+        int sequenceId = uniquePeptideCountList.findSequenceId(spectrumItem.getPeptideRef());
+        String peptideSequence = getPeptideSequence(sequenceId);
         //Process all ion fragments of the given peptide amino acid sequence.
-        ArrayList<MzIdIonFragment> ionFragmentList = createMzIdIonFragmentList(fragmentList);
-        //Determines the length of the actual peptide sequence.
+        ArrayList<MzIdIonFragment> ionFragmentList = createMzIdIonFragmentList(spectrumItem.getFragmentation().getIonType());
+        return createMatchedIonSeries(ionFragmentList, 0, peptideSequence, getPeptideScore(), uniquePeptideCountList.getAccessions(sequenceId), null);
+    }
+
+    /**
+     * Determines the ion series for each intensity threshold. The fragment arrays are read once for all thresholds.
+     *
+     * @return list with a MatchedIonSeries object per intensity threshold, in the order of the thresholds. With a
+     * single threshold this is the result of call().
+     */
+    public final List<MatchedIonSeries> callAllThresholds() {
+        if (userIntensityThresholds.size() == 1) {
+            return Collections.singletonList(call());
+        }
+        int sequenceId = uniquePeptideCountList.findSequenceId(spectrumItem.getPeptideRef());
+        String peptideSequence = getPeptideSequence(sequenceId);
+        ArrayList<MzIdIonFragment> ionFragmentList = createMzIdIonFragmentList(spectrumItem.getFragmentation().getIonType());
+        Double peptideScore = getPeptideScore();
+        String accessions = uniquePeptideCountList.getAccessions(sequenceId);
+        ArrayList<MatchedIonSeries> ionSeriesList = new ArrayList<>(userIntensityThresholds.size());
+        for (int threshold = 0; threshold < userIntensityThresholds.size(); threshold++) {
+            ionSeriesList.add(createMatchedIonSeries(ionFragmentList, threshold, peptideSequence, peptideScore, accessions,
+                    userIntensityThresholds.get(threshold)));
+        }
+        return ionSeriesList;
+    }
+
+    /**
+     * Returns the peptide sequence of the SpectrumIdentificationItem. Known sequences are taken from the symbol table
+     * of the file, so all results of the same peptide share one String.
+     *
+     * @param sequenceId id of the peptide reference or -1 if the reference has no entry.
+     * @return peptide sequence as String.
+     */
+    private String getPeptideSequence(final int sequenceId) {
+        if (sequenceId < 0) {
+            return spectrumItem.getPeptideRef();
+        }
+        return uniquePeptideCountList.getPeptideSequence(sequenceId);
+    }
+
+    /**
+     * Returns the PSM score of the SpectrumIdentificationItem.
+     *
+     * @return peptide score as Double.
+     */
+    private Double getPeptideScore() {
+        String score = "";
         //Gather psmScore from the cvParam list.
         List<CvParam> parameterList = spectrumItem.getCvParam();
         for (CvParam parameter : parameterList) {
@@ -146,65 +460,63 @@ public class IonSeriesGenerator implements Callable {
                 break;
             }
         }
-        Double peptideScore = Double.parseDouble(score);
+        return Double.parseDouble(score);
+    }
+
+    /**
+     * Determines the ion series of a peptide for one of the intensity thresholds.
+     *
+     * @param ionFragmentList ion fragments with the results of all intensity thresholds.
+     * @param threshold position of the intensity threshold.
+     * @param peptideSequence peptide amino acid sequence.
+     * @param peptideScore peptide score.
+     * @param accessions protein accessions.
+     * @param sweepThreshold intensity threshold that is stored with the result or null for a single threshold.
+     * @return MatchedIonSeries object.
+     */
+    private MatchedIonSeries createMatchedIonSeries(final List<MzIdIonFragment> ionFragmentList, final int threshold, final String peptideSequence,
+            final Double peptideScore, final String accessions, final Double sweepThreshold) {
         //Determine amino acid sequence length.
-        Integer sequenceLength;
+        int sequenceLength;
         if (peptideSequence.contains("_")) {
             sequenceLength = peptideSequence.split("_")[0].length();
         } else {
             sequenceLength = peptideSequence.length();
         }
-        ArrayList<Integer> bIonIndices = new ArrayList<>(sequenceLength);
-        ArrayList<Integer> yIonIndices = new ArrayList<>(sequenceLength);
-        ArrayList<Integer> combinedIonIndices = new ArrayList<>(sequenceLength);
-        ArrayList<Integer> combinedAllIonIndices = new ArrayList<>();
-        ArrayList<Integer> finalIndexList = new ArrayList<>();
+        //Indices are stored as bits to avoid boxing and linear duplicate checks.
+        BitSet bIonIndices = new BitSet(sequenceLength + 1);
+        BitSet yIonIndices = new BitSet(sequenceLength + 1);
+        BitSet combinedIonIndices = new BitSet(sequenceLength + 1);
+        BitSet combinedAllIonIndices = new BitSet(sequenceLength + 1);
         for (MzIdIonFragment ionFragment : ionFragmentList) {
-            String name = ionFragment.getName();
+            IonCategory category = ionFragment.getCategory();
             List<Integer> indexList = ionFragment.getIndexList();
-            ArrayList<Boolean> intensityValues = ionFragment.getItensityValues();
             //Removes hits with different index and intensity counts. (size should be the same to process data.
-           if (intensityValues.size() == indexList.size()) {
+            if (category != IonCategory.OTHER && ionFragment.getIntensityCount() == indexList.size()) {
                 for (int i = 0; i < indexList.size(); i++) {
-                    Integer listIndex = indexList.get(i);
-                    Integer sequenceIndex = listIndex;
-                    if (intensityValues.get(i)) {
-                        if (name.matches("frag: y ion")) {
-                            if (!yIonIndices.contains(sequenceIndex)) {
-                                yIonIndices.add(sequenceIndex);
-                            }
-                            if (!combinedAllIonIndices.contains(sequenceIndex)) {
-                                combinedAllIonIndices.add(sequenceIndex);
-                            }
-                        } else if (name.matches("(frag: y ion -).*")) {
-                            if (!combinedIonIndices.contains(sequenceIndex)) {
-                                combinedIonIndices.add(sequenceIndex);
-                            }
-                            if (!combinedAllIonIndices.contains(sequenceIndex)) {
-                                combinedAllIonIndices.add(sequenceIndex);
-                            }
-                        } else if (name.matches("frag: b ion")) {
-                            sequenceIndex = sequenceLength - listIndex;
-                            if (!bIonIndices.contains(sequenceIndex)) {
-                                bIonIndices.add(sequenceIndex);
-                            }
-                            if (!combinedAllIonIndices.contains(sequenceIndex)) {
-                                combinedAllIonIndices.add(sequenceIndex);
-                            }
-                        } else if (name.matches("(frag: b ion -).*")) {
-                            if (!combinedIonIndices.contains(sequenceIndex)) {
-                                combinedIonIndices.add(sequenceIndex);
-                            }
-                            if (!combinedAllIonIndices.contains(sequenceIndex)) {
-                                combinedAllIonIndices.add(sequenceIndex);
-                            }
-                        } else if (name.contains("immonium")) {
-                            if (!combinedIonIndices.contains(sequenceIndex)) {
-                                combinedIonIndices.add(sequenceIndex);
-                            }
-                            if (!combinedAllIonIndices.contains(sequenceIndex)) {
-                                combinedAllIonIndices.add(sequenceIndex);
-                            }
+                    int sequenceIndex = indexList.get(i);
+                    //Negative indices can not be part of an ion series.
+                    if (ionFragment.passesIntensityThreshold(threshold, i) && sequenceIndex >= 0) {
+                        switch (category) {
+                            case Y_ION:
+                                yIonIndices.set(sequenceIndex);
+                                combinedAllIonIndices.set(sequenceIndex);
+                                break;
+                            case B_ION:
+                                sequenceIndex = sequenceLength - sequenceIndex;
+                                if (sequenceIndex >= 0) {
+                                    bIonIndices.set(sequenceIndex);
+                                    combinedAllIonIndices.set(sequenceIndex);
+                                }
+                                break;
+                            case Y_ION_NEUTRAL_LOSS:
+                            case B_ION_NEUTRAL_LOSS:
+                            case IMMONIUM_ION:
+                                combinedIonIndices.set(sequenceIndex);
+                                combinedAllIonIndices.set(sequenceIndex);
+                                break;
+                            default:
+                                break;
                         }
                     }
                 }
@@ -212,22 +524,29 @@ public class IonSeriesGenerator implements Callable {
         }
         //Flag 0 for incomplete ion serie, flag 1 for complete b ion serie, flag 2 for complete y ion serie, flag 3 for combined ion series (includes immonium)
         Integer ionSerieFlag = 0;
+        BitSet finalIndices = new BitSet();
         sequenceLength--;
-        if (sequenceLength == bIonIndices.size()) {
+        if (sequenceLength == bIonIndices.cardinality()) {
             ionSerieFlag = 1;
-            finalIndexList = bIonIndices;
-        } else if (sequenceLength == yIonIndices.size()) {
+            finalIndices = bIonIndices;
+        } else if (sequenceLength == yIonIndices.cardinality()) {
             ionSerieFlag = 2;
-            finalIndexList = yIonIndices;
-        } else if (sequenceLength == combinedIonIndices.size()) {
+            finalIndices = yIonIndices;
+        } else if (sequenceLength == combinedIonIndices.cardinality()) {
             ionSerieFlag = 3;
-            finalIndexList = combinedIonIndices;
-        } else if (sequenceLength == combinedAllIonIndices.size()) {
+            finalIndices = combinedIonIndices;
+        } else if (sequenceLength == combinedAllIonIndices.cardinality()) {
             ionSerieFlag = 4;
-            finalIndexList = combinedAllIonIndices;
+            finalIndices = combinedAllIonIndices;
+        }
+        //Only the final ion series is converted to a sorted array of indices.
+        int[] finalIndexArray = new int[finalIndices.cardinality()];
+        int position = 0;
+        for (int index = finalIndices.nextSetBit(0); index >= 0; index = finalIndices.nextSetBit(index + 1)) {
+            finalIndexArray[position++] = index;
         }
-        Collections.sort(finalIndexList);
-        MatchedIonSeries ionSeries = new MatchedIonSeries(peptideSequence, peptideScore, accessions, combinedIonIndices, bIonIndices, yIonIndices, combinedAllIonIndices, finalIndexList, ionSerieFlag);
+        MatchedIonSeries ionSeries = new MatchedIonSeries(peptideSequence, peptideScore, accessions, combinedIonIndices, bIonIndices, yIonIndices, combinedAllIonIndices, finalIndexArray, ionSerieFlag,
+                sweepThreshold);
         return ionSeries;
     }
 
@@ -236,44 +555,28 @@ public class IonSeriesGenerator implements Callable {
      *
      * @param peptideEvidenceList list of PeptideEvidence objects from the jmzidentml package.
      * @param peptideCollection list of MzIdPeptide objects.
+     * @param sequenceSymbols symbol table of the peptide sequences of the file.
+     * @param accessionSymbols symbol table of the protein accessions of the file.
      * @return collection of SingleDatabaseReference objects.
      */
-    private SingleDatabaseReferenceCollection createSequenceDatabaseReferenceCollection(final List<PeptideEvidence> peptideEvidenceList, final MzIdPeptideCollection peptideCollection) {
+    final SingleDatabaseReferenceCollection createSequenceDatabaseReferenceCollection(final List<PeptideEvidence> peptideEvidenceList, final MzIdPeptideCollection peptideCollection,
+            final SymbolTable sequenceSymbols, final SymbolTable accessionSymbols) {
         System.out.println("Creating SequenceDatabaseReference object collection...");
         SingleDatabaseReferenceCollection sequenceDatabaseReferenceCollection = new SingleDatabaseReferenceCollection();
         Collections.sort(peptideEvidenceList, new SortPeptideEvidenceCollectionOnSequence());
-        peptideCollection.sortOnPeptideSequence();
+        //Index the modification names of the modified peptides on sequence to join them with the evidences in one pass.
+        PeptideModificationIndex modificationIndex = new PeptideModificationIndex(peptideCollection);
         for (PeptideEvidence peptideEvidence : peptideEvidenceList) {
             if (!peptideEvidence.isIsDecoy()) {
-                ArrayList<MzIdPeptide> removeablePeptideEntries = new ArrayList<>();
-                String proteinAccession = peptideEvidence.getDBSequenceRef();
+                String proteinAccession = accessionSymbols.intern(peptideEvidence.getDBSequenceRef());
                 Integer start = peptideEvidence.getStart();
                 Integer end = peptideEvidence.getEnd();
-                String peptideSequence = peptideEvidence.getPeptideRef();
+                String peptideSequence = sequenceSymbols.intern(peptideEvidence.getPeptideRef());
                 String pre = peptideEvidence.getPre();
                 String post = peptideEvidence.getPost();
                 String id = peptideEvidence.getId().split("_")[1];
                 Integer evidenceId = Integer.parseInt(id);
-                MzIdPeptide newEntry = null;
-                ArrayList<String> modifications = new ArrayList<>();
-                for (MzIdPeptide entry : peptideCollection.getPeptides()) {
-                    if (entry.getModifications().isEmpty() && entry.getSubstituteModifications().isEmpty()) {
-                        removeablePeptideEntries.add(entry);
-                    } else if (entry.getPeptideSequence().equals(peptideSequence)) {
-                        newEntry = entry;
-                        for (MzIdModification modification : entry.getModifications()) {
-                            for (String name : modification.getNames()) {
-                                if (!modifications.contains(name)) {
-                                    modifications.add(name);
-                                }
-                            }
-                        }
-                    }
-                }
-                removeablePeptideEntries.add(newEntry);
-                for (MzIdPeptide x : removeablePeptideEntries) {
-                    peptideCollection.getPeptides().remove(x);
-                }
+                ArrayList<String> modifications = modificationIndex.claimModificationNames(peptideSequence);
                 SingleDatabaseReference sequenceDatabaseReference = new SingleDatabaseReference(proteinAccession, evidenceId, peptideSequence, start, end, pre, post, modifications);
                 sequenceDatabaseReferenceCollection.addDatabaseReference(sequenceDatabaseReference);
             }
@@ -286,15 +589,17 @@ public class IonSeriesGenerator implements Callable {
      *
      * @param sequenceDatabaseReferenceCollection list of
      * SingleDatabaseReference objects.
+     * @param sequenceSymbols symbol table that contains the peptide sequences of the references.
      * @return collection of UniquePeptideEntry objects.
      */
-    private UniquePeptideCollection createUniquePeptideCountList(final SingleDatabaseReferenceCollection singleDatabaseReferenceCollection) {
+    final UniquePeptideCollection createUniquePeptideCountList(final SingleDatabaseReferenceCollection singleDatabaseReferenceCollection,
+            final SymbolTable sequenceSymbols) {
         System.out.println("Creating list for peptide data objects.");
         //Determine if a sequence is unique to one accession.
         UniquePeptideCollection uniquePeptides = new UniquePeptideCollection();
         ArrayList<String> accessionList = new ArrayList<>();
         //Sort collections on sequence. This causes UniquePeptideEntry list to be sorted on sequence as well.
-        singleDatabaseReferenceCollection.sortOnPeptideSequence();
+        singleDatabaseReferenceCollection.sortOnPeptideSequence(sequenceSymbols);
         //Get first entry sequence.
         String targetSequence = singleDatabaseReferenceCollection.getDatabaseSequenceReferenceList().get(0).getPeptideSequence();
         for (SingleDatabaseReference databaseReference : singleDatabaseReferenceCollection.getDatabaseSequenceReferenceList()) {
@@ -317,6 +622,8 @@ public class IonSeriesGenerator implements Callable {
                 targetSequence = databaseReference.getPeptideSequence();
             }
         }
+        //Join the accessions of each sequence once so worker threads can share the lookup by sequence id.
+        uniquePeptides.buildAccessionIndex(sequenceSymbols);
         return uniquePeptides;
     }
 
@@ -324,15 +631,16 @@ public class IonSeriesGenerator implements Callable {
      * Creates a collection of MzIdPeptide objects.
      *
      * @param peptides list of PeptideItem objects.
+     * @param sequenceSymbols symbol table of the peptide sequences of the file.
      * @return collection of MzIdPeptide objects.
      */
-    private MzIdPeptideCollection createPeptideCollection(final List<Peptide> peptides) {
+    final MzIdPeptideCollection createPeptideCollection(final List<Peptide> peptides, final SymbolTable sequenceSymbols) {
         System.out.println("Creating MzIdPeptide object collection...");
         MzIdPeptideCollection newPeptideCollection = new MzIdPeptideCollection();
         //Loops through list of all PeptideItem objects.
         for (Peptide peptide : peptides) {
-            String id = peptide.getId();
-            String sequence = peptide.getPeptideSequence();
+            String id = sequenceSymbols.intern(peptide.getId());
+            String sequence = sequenceSymbols.intern(peptide.getPeptideSequence());
             List<Modification> mods = peptide.getModification();
             List<SubstitutionModification> subMods = peptide.getSubstitutionModification();
             ArrayList<MzIdSubstituteModification> subModificationList = new ArrayList<>();
@@ -379,76 +687,76 @@ public class IonSeriesGenerator implements Callable {
      * Creates a list of MzIdIonFragments that pass the user specified
      * threshold.
      *
+     * The intensities of each fragment are read once into a primitive array to determine the highest peak, after which
+     * the threshold results of all fragments are written to one shared bitmask per intensity threshold.
+     *
      * @param fragmentList list of IonType objects.
      * @return filtered list of MzIdIonFragment objects.
      */
     final ArrayList<MzIdIonFragment> createMzIdIonFragmentList(List<IonType> fragmentList) {
-        ArrayList<MzIdIonFragment> ionFragmentList = new ArrayList<>();
+        ArrayList<MzIdIonFragment> ionFragmentList = new ArrayList<>(fragmentList.size());
+        int thresholdCount = userIntensityThresholds.size();
+        double[] intensityThresholds = new double[thresholdCount];
+        BitSet[] passedIntensityThresholds = new BitSet[thresholdCount];
+        for (int threshold = 0; threshold < thresholdCount; threshold++) {
+            //Set standard threshold to 5%.
+            intensityThresholds[threshold] = 0.05;
+            // Calculate the user defined intensity threshold value per peptide sequence.
+            if (userIntensityThresholds.get(threshold) >= intensityThresholds[threshold]) {
+                intensityThresholds[threshold] = userIntensityThresholds.get(threshold);
+            }
+            passedIntensityThresholds[threshold] = new BitSet();
+        }
+        float[] intensities = new float[0];
+        int offset = 0;
         for (IonType ionType : fragmentList) {
             List<Integer> indexList = ionType.getIndex();
-            ArrayList<Double> measuredMassToChargeValues = new ArrayList<>();
-            ArrayList<Boolean> passedIntensityThreshold = new ArrayList<>();
+            //Measured mass to charge values are not copied unless they are requested.
             FragmentArray fragmentArray = ionType.getFragmentArray().get(0);
-            //Gathers measured mass to charge values of each fragment array.
-            for (float fragmentValue : fragmentArray.getValues()) {
-                double measuredMassToCharge = fragmentValue;
-                measuredMassToChargeValues.add(measuredMassToCharge);
-            }
-            //Set standard threshold to 5%.
-            Double intensityThreshold = 0.05;
-            // Calculate the user defined intensity threshold value per peptide sequence.
             FragmentArray measureIntensity = ionType.getFragmentArray().get(1);
-            if (userIntensityThreshold >= intensityThreshold) {
-                intensityThreshold = userIntensityThreshold;
+            List<Float> intensityValues = measureIntensity.getValues();
+            int intensityCount = intensityValues.size();
+            if (intensities.length < intensityCount) {
+                intensities = new float[intensityCount];
             }
-            Double highestPeakIntensity = 0.0;
-            //Test peakIntensity versus the specified threshold.
-            for (Float intensityValue : measureIntensity.getValues()) {
-                double intensity = intensityValue;
-                Double peakIntensity = intensity * intensityThreshold;
-                if (peakIntensity > highestPeakIntensity) {
-                    highestPeakIntensity = peakIntensity;
+            //Determine the highest intensity while reading the values.
+            double highestIntensity = 0.0;
+            for (int i = 0; i < intensityCount; i++) {
+                float intensity = intensityValues.get(i);
+                intensities[i] = intensity;
+                if (intensity > highestIntensity) {
+                    highestIntensity = intensity;
                 }
             }
-            //Test if ion intensity passes the user specified threshold.
-            for (Float intensityValue : measureIntensity.getValues()) {
-                double intensity = intensityValue;
-                if (intensity >= highestPeakIntensity) {
-                    passedIntensityThreshold.add(true);
-                } else {
-                    passedIntensityThreshold.add(false);
+            for (int threshold = 0; threshold < thresholdCount; threshold++) {
+                double highestPeakIntensity = highestIntensity * intensityThresholds[threshold];
+                BitSet passedIntensityThreshold = passedIntensityThresholds[threshold];
+                //Test if ion intensity passes the user specified threshold.
+                for (int i = 0; i < intensityCount; i++) {
+                    if (intensities[i] >= highestPeakIntensity) {
+                        passedIntensityThreshold.set(offset + i);
+                    }
                 }
             }
-            //Create MzIdIonFragment object containing the name, indices, m/z values and a true/false list for passing the intensity threshold.
+            //Create MzIdIonFragment object containing the name, indices, m/z values and the threshold results.
             String name = ionType.getCvParam().getName();
-            MzIdIonFragment fragment = new MzIdIonFragment(name, indexList, measuredMassToChargeValues, passedIntensityThreshold);
+            IonCategory category = IonTypeClassifier.classify(ionType.getCvParam());
+            MzIdIonFragment fragment = new MzIdIonFragment(name, category, indexList, fragmentArray.getValues(), passedIntensityThresholds, offset, intensityCount);
             ionFragmentList.add(fragment);
+            offset += intensityCount;
         }
         return ionFragmentList;
     }
 
     /**
-     * Gathers all accessions per peptide sequence and determines if the peptide
-     * is unique to a protein sequence.
+     * Gathers all accessions of a peptide sequence from the accession index of
+     * the unique peptide collection.
      *
      * @param sequence peptide sequence.
-     * @return EvidenceData with a list of accessions and uniqueness flag.
+     * @return colon separated accessions as String.
      */
     public final String getAccessions(final String sequence) {
-        String accessions = "";
-        for (CombinedPeptideEntry peptide : uniquePeptideCountList.getUniquePeptideList()) {
-            if (peptide.getSequence().equals(sequence)) {
-                for (String accession : peptide.getAccessionList()) {
-                    if (accessions.isEmpty()) {
-                        accessions += accession;
-                    } else {
-                        accessions += ":" + accession;
-                    }
-                }
-                break;
-            }
-        }
-        return accessions;
+        return uniquePeptideCountList.getAccessions(sequence);
     }
 
 }
@@ -0,0 +1,28 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.io.IOException;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+
+/**
+ * Receives the MatchedIonSeries objects of a file as they are determined.
+ *
+ * The results are passed in the same order as they would be added to a MatchedIonSeriesCollection, from the thread
+ * that runs IonSeriesGenerator.generateIonSeries.
+ *
+ * @author vnijenhuis
+ */
+public interface IonSeriesSink {
+
+    /**
+     * Receives the next result.
+     *
+     * @param matchedIonSeries MatchedIonSeries object.
+     * @throws IOException the result could not be written.
+     * @throws InterruptedException process was interrupted while waiting to pass the result on.
+     */
+    void accept(MatchedIonSeries matchedIonSeries) throws IOException, InterruptedException;
+}
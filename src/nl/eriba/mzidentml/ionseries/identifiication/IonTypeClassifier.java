@@ -0,0 +1,125 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import nl.eriba.mzidentml.ionseries.objects.IonCategory;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+
+/**
+ * Maps IonType cvParams to an IonCategory.
+ *
+ * The cvParam name is matched once against the precompiled patterns and the result is cached, so each distinct name
+ * is only classified once. If a cvParam has no name, its PSI-MS accession is used instead. New ion types can be added
+ * by adding a category and a pattern.
+ *
+ * @author vnijenhuis
+ */
+public final class IonTypeClassifier {
+
+    /**
+     * Pattern of a y ion without neutral loss.
+     */
+    private static final Pattern Y_ION = Pattern.compile("frag: y ion");
+
+    /**
+     * Pattern of a y ion with a neutral loss.
+     */
+    private static final Pattern Y_ION_NEUTRAL_LOSS = Pattern.compile("(frag: y ion -).*");
+
+    /**
+     * Pattern of a b ion without neutral loss.
+     */
+    private static final Pattern B_ION = Pattern.compile("frag: b ion");
+
+    /**
+     * Pattern of a b ion with a neutral loss.
+     */
+    private static final Pattern B_ION_NEUTRAL_LOSS = Pattern.compile("(frag: b ion -).*");
+
+    /**
+     * Categories of the PSI-MS accessions of the supported ion types.
+     */
+    private static final HashMap<String, IonCategory> ACCESSION_CATEGORIES = new HashMap<>();
+
+    static {
+        ACCESSION_CATEGORIES.put("MS:1001220", IonCategory.Y_ION);
+        ACCESSION_CATEGORIES.put("MS:1001223", IonCategory.Y_ION_NEUTRAL_LOSS);
+        ACCESSION_CATEGORIES.put("MS:1001233", IonCategory.Y_ION_NEUTRAL_LOSS);
+        ACCESSION_CATEGORIES.put("MS:1001224", IonCategory.B_ION);
+        ACCESSION_CATEGORIES.put("MS:1001222", IonCategory.B_ION_NEUTRAL_LOSS);
+        ACCESSION_CATEGORIES.put("MS:1001232", IonCategory.B_ION_NEUTRAL_LOSS);
+        ACCESSION_CATEGORIES.put("MS:1001239", IonCategory.IMMONIUM_ION);
+    }
+
+    /**
+     * Categories of the cvParam names that have been classified.
+     */
+    private static final ConcurrentHashMap<String, IonCategory> NAME_CATEGORIES = new ConcurrentHashMap<>();
+
+    /**
+     * Utility class.
+     */
+    private IonTypeClassifier() {
+    }
+
+    /**
+     * Returns the category of an IonType cvParam.
+     *
+     * @param parameter cvParam of an IonType object.
+     * @return IonCategory of the cvParam.
+     */
+    public static IonCategory classify(final CvParam parameter) {
+        if (parameter == null) {
+            return IonCategory.OTHER;
+        }
+        if (parameter.getName() != null) {
+            return classify(parameter.getName());
+        }
+        IonCategory category = ACCESSION_CATEGORIES.get(parameter.getAccession());
+        if (category == null) {
+            return IonCategory.OTHER;
+        }
+        return category;
+    }
+
+    /**
+     * Returns the category of an IonType cvParam name.
+     *
+     * @param name cvParam name.
+     * @return IonCategory of the name.
+     */
+    public static IonCategory classify(final String name) {
+        IonCategory category = NAME_CATEGORIES.get(name);
+        if (category == null) {
+            category = matchName(name);
+            NAME_CATEGORIES.putIfAbsent(name, category);
+        }
+        return category;
+    }
+
+    /**
+     * Matches a cvParam name against the ion type patterns.
+     *
+     * @param name cvParam name.
+     * @return IonCategory of the name.
+     */
+    private static IonCategory matchName(final String name) {
+        if (Y_ION.matcher(name).matches()) {
+            return IonCategory.Y_ION;
+        } else if (Y_ION_NEUTRAL_LOSS.matcher(name).matches()) {
+            return IonCategory.Y_ION_NEUTRAL_LOSS;
+        } else if (B_ION.matcher(name).matches()) {
+            return IonCategory.B_ION;
+        } else if (B_ION_NEUTRAL_LOSS.matcher(name).matches()) {
+            return IonCategory.B_ION_NEUTRAL_LOSS;
+        } else if (name.contains("immonium")) {
+            return IonCategory.IMMONIUM_ION;
+        }
+        return IonCategory.OTHER;
+    }
+}
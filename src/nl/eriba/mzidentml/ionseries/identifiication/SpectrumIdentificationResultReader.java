@@ -0,0 +1,502 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.identifiication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import nl.eriba.mzidentml.ionseries.tools.DecompressingInputStream;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.DBSequence;
+import uk.ac.ebi.jmzidml.model.mzidml.FragmentArray;
+import uk.ac.ebi.jmzidml.model.mzidml.Fragmentation;
+import uk.ac.ebi.jmzidml.model.mzidml.IonType;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.Peptide;
+import uk.ac.ebi.jmzidml.model.mzidml.PeptideEvidence;
+import uk.ac.ebi.jmzidml.model.mzidml.SequenceCollection;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationItem;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationResult;
+import uk.ac.ebi.jmzidml.model.mzidml.SubstitutionModification;
+
+/**
+ * Streaming reader for the SpectrumIdentificationResult elements of an mzid file.
+ *
+ * Reads one SpectrumIdentificationResult element at a time with a StAX parser, so memory usage does not depend on the
+ * size of the file. Only the data that is used to determine the ion series is read: the peptide reference, the
+ * passThreshold attribute, the cvParams and the fragmentation of each SpectrumIdentificationItem.
+ *
+ * The SequenceCollection precedes the SpectrumIdentificationList in an mzid file, so both can be read in one pass by
+ * calling readSequenceCollection before readNext. This is used for compressed files, which cannot be unmarshalled.
+ *
+ * @author vnijenhuis
+ */
+public class SpectrumIdentificationResultReader implements Closeable {
+
+    /**
+     * Input stream of the mzid file.
+     */
+    private final InputStream inputStream;
+
+    /**
+     * StAX reader of the mzid file.
+     */
+    private final XMLStreamReader xmlReader;
+
+    /**
+     * Opens the given mzid file for streaming. Gzip and zstd compressed files are decompressed on a separate thread.
+     *
+     * @param mzIdFile file with the .mzid extension and MzIdentMl format.
+     * @throws IOException could not find or open the given file.
+     * @throws XMLStreamException could not create a parser for the given file.
+     */
+    public SpectrumIdentificationResultReader(final File mzIdFile) throws IOException, XMLStreamException {
+        this(DecompressingInputStream.open(mzIdFile));
+    }
+
+    /**
+     * Opens the given stream of an mzid file. The stream is closed when this reader is closed.
+     *
+     * @param inputStream stream with MzIdentMl data.
+     * @throws IOException could not close the stream after a parser error.
+     * @throws XMLStreamException could not create a parser for the given stream.
+     */
+    public SpectrumIdentificationResultReader(final InputStream inputStream) throws IOException, XMLStreamException {
+        this.inputStream = inputStream;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            this.xmlReader = factory.createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the Peptide and PeptideEvidence elements of the SequenceCollection. Must be called before the first
+     * call to readNext.
+     *
+     * @return SequenceCollection object, which is empty if the file has no SequenceCollection.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    public final SequenceCollection readSequenceCollection() throws XMLStreamException {
+        SequenceCollection sequenceCollection = new SequenceCollection();
+        while (xmlReader.hasNext()) {
+            if (xmlReader.next() == XMLStreamConstants.START_ELEMENT) {
+                String element = xmlReader.getLocalName();
+                if (element.equals("SequenceCollection")) {
+                    readSequenceCollectionElements(sequenceCollection);
+                    return sequenceCollection;
+                } else if (element.equals("SpectrumIdentificationList")) {
+                    //No SequenceCollection before the results.
+                    return sequenceCollection;
+                }
+            }
+        }
+        return sequenceCollection;
+    }
+
+    /**
+     * Reads the next SpectrumIdentificationResult element.
+     *
+     * @return SpectrumIdentificationResult object or null if the end of the file is reached.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    public final SpectrumIdentificationResult readNext() throws XMLStreamException {
+        while (xmlReader.hasNext()) {
+            if (xmlReader.next() == XMLStreamConstants.START_ELEMENT
+                    && xmlReader.getLocalName().equals("SpectrumIdentificationResult")) {
+                return readSpectrumIdentificationResult();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the children of the SequenceCollection element at the current position. Peptide evidences are linked to
+     * the peptides and database sequences that were read before them.
+     *
+     * @param sequenceCollection SequenceCollection object to add the peptides and evidences to.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private void readSequenceCollectionElements(final SequenceCollection sequenceCollection) throws XMLStreamException {
+        HashMap<String, Peptide> peptides = new HashMap<>();
+        HashMap<String, DBSequence> databaseSequences = new HashMap<>();
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xmlReader.getLocalName();
+                if (element.equals("Peptide")) {
+                    Peptide peptide = readPeptide();
+                    peptides.put(peptide.getId(), peptide);
+                    sequenceCollection.getPeptide().add(peptide);
+                } else if (element.equals("PeptideEvidence")) {
+                    sequenceCollection.getPeptideEvidence().add(readPeptideEvidence(peptides, databaseSequences));
+                } else if (element.equals("DBSequence")) {
+                    DBSequence databaseSequence = new DBSequence();
+                    databaseSequence.setId(xmlReader.getAttributeValue(null, "id"));
+                    databaseSequence.setAccession(xmlReader.getAttributeValue(null, "accession"));
+                    databaseSequences.put(databaseSequence.getId(), databaseSequence);
+                    skipElement();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the Peptide element at the current position.
+     *
+     * @return Peptide object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private Peptide readPeptide() throws XMLStreamException {
+        Peptide peptide = new Peptide();
+        peptide.setId(xmlReader.getAttributeValue(null, "id"));
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xmlReader.getLocalName();
+                if (element.equals("PeptideSequence")) {
+                    peptide.setPeptideSequence(xmlReader.getElementText().trim());
+                } else if (element.equals("Modification")) {
+                    peptide.getModification().add(readModification());
+                } else if (element.equals("SubstitutionModification")) {
+                    peptide.getSubstitutionModification().add(readSubstitutionModification());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return peptide;
+    }
+
+    /**
+     * Reads the Modification element at the current position.
+     *
+     * @return Modification object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private Modification readModification() throws XMLStreamException {
+        Modification modification = new Modification();
+        String location = xmlReader.getAttributeValue(null, "location");
+        if (location != null) {
+            modification.setLocation(Integer.parseInt(location.trim()));
+        }
+        String massDelta = xmlReader.getAttributeValue(null, "monoisotopicMassDelta");
+        if (massDelta != null) {
+            modification.setMonoisotopicMassDelta(Double.parseDouble(massDelta));
+        }
+        String residues = xmlReader.getAttributeValue(null, "residues");
+        if (residues != null) {
+            for (String residue : splitValues(residues)) {
+                modification.getResidues().add(residue);
+            }
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (xmlReader.getLocalName().equals("cvParam")) {
+                    modification.getCvParam().add(readCvParam());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return modification;
+    }
+
+    /**
+     * Reads the SubstitutionModification element at the current position.
+     *
+     * @return SubstitutionModification object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private SubstitutionModification readSubstitutionModification() throws XMLStreamException {
+        SubstitutionModification substitution = new SubstitutionModification();
+        String location = xmlReader.getAttributeValue(null, "location");
+        if (location != null) {
+            substitution.setLocation(Integer.parseInt(location.trim()));
+        }
+        String massDelta = xmlReader.getAttributeValue(null, "monoisotopicMassDelta");
+        if (massDelta != null) {
+            substitution.setMonoisotopicMassDelta(Double.parseDouble(massDelta));
+        }
+        substitution.setOriginalResidue(xmlReader.getAttributeValue(null, "originalResidue"));
+        substitution.setReplacementResidue(xmlReader.getAttributeValue(null, "replacementResidue"));
+        skipElement();
+        return substitution;
+    }
+
+    /**
+     * Reads the PeptideEvidence element at the current position.
+     *
+     * @param peptides peptides that were read, with the peptide id as key.
+     * @param databaseSequences database sequences that were read, with the id as key.
+     * @return PeptideEvidence object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private PeptideEvidence readPeptideEvidence(final Map<String, Peptide> peptides, final Map<String, DBSequence> databaseSequences)
+            throws XMLStreamException {
+        PeptideEvidence peptideEvidence = new PeptideEvidence();
+        peptideEvidence.setId(xmlReader.getAttributeValue(null, "id"));
+        String peptideRef = xmlReader.getAttributeValue(null, "peptide_ref");
+        Peptide peptide = peptides.get(peptideRef);
+        if (peptide == null) {
+            peptide = createPeptideReference(peptideRef);
+        }
+        peptideEvidence.setPeptide(peptide);
+        String databaseSequenceRef = xmlReader.getAttributeValue(null, "dBSequence_ref");
+        DBSequence databaseSequence = databaseSequences.get(databaseSequenceRef);
+        if (databaseSequence == null) {
+            databaseSequence = new DBSequence();
+            databaseSequence.setId(databaseSequenceRef);
+        }
+        peptideEvidence.setDBSequence(databaseSequence);
+        String start = xmlReader.getAttributeValue(null, "start");
+        if (start != null) {
+            peptideEvidence.setStart(Integer.parseInt(start.trim()));
+        }
+        String end = xmlReader.getAttributeValue(null, "end");
+        if (end != null) {
+            peptideEvidence.setEnd(Integer.parseInt(end.trim()));
+        }
+        peptideEvidence.setPre(xmlReader.getAttributeValue(null, "pre"));
+        peptideEvidence.setPost(xmlReader.getAttributeValue(null, "post"));
+        peptideEvidence.setIsDecoy(Boolean.parseBoolean(xmlReader.getAttributeValue(null, "isDecoy")));
+        skipElement();
+        return peptideEvidence;
+    }
+
+    /**
+     * Creates a Peptide that only holds the id, which is used to set the peptide reference of other elements.
+     *
+     * @param peptideRef id of the peptide.
+     * @return Peptide object with the given id.
+     */
+    private Peptide createPeptideReference(final String peptideRef) {
+        Peptide peptide = new Peptide();
+        peptide.setId(peptideRef);
+        return peptide;
+    }
+
+    /**
+     * Reads the SpectrumIdentificationResult element at the current position.
+     *
+     * @return SpectrumIdentificationResult object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private SpectrumIdentificationResult readSpectrumIdentificationResult() throws XMLStreamException {
+        SpectrumIdentificationResult spectrumIdResult = new SpectrumIdentificationResult();
+        spectrumIdResult.setId(xmlReader.getAttributeValue(null, "id"));
+        spectrumIdResult.setSpectrumID(xmlReader.getAttributeValue(null, "spectrumID"));
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (xmlReader.getLocalName().equals("SpectrumIdentificationItem")) {
+                    spectrumIdResult.getSpectrumIdentificationItem().add(readSpectrumIdentificationItem());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return spectrumIdResult;
+    }
+
+    /**
+     * Reads the SpectrumIdentificationItem element at the current position.
+     *
+     * @return SpectrumIdentificationItem object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private SpectrumIdentificationItem readSpectrumIdentificationItem() throws XMLStreamException {
+        SpectrumIdentificationItem spectrumIdItem = new SpectrumIdentificationItem();
+        spectrumIdItem.setId(xmlReader.getAttributeValue(null, "id"));
+        spectrumIdItem.setPeptide(createPeptideReference(xmlReader.getAttributeValue(null, "peptide_ref")));
+        spectrumIdItem.setPassThreshold(Boolean.parseBoolean(xmlReader.getAttributeValue(null, "passThreshold")));
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xmlReader.getLocalName();
+                if (element.equals("Fragmentation")) {
+                    spectrumIdItem.setFragmentation(readFragmentation());
+                } else if (element.equals("cvParam")) {
+                    spectrumIdItem.getCvParam().add(readCvParam());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return spectrumIdItem;
+    }
+
+    /**
+     * Reads the Fragmentation element at the current position.
+     *
+     * @return Fragmentation object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private Fragmentation readFragmentation() throws XMLStreamException {
+        Fragmentation fragmentation = new Fragmentation();
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (xmlReader.getLocalName().equals("IonType")) {
+                    fragmentation.getIonType().add(readIonType());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return fragmentation;
+    }
+
+    /**
+     * Reads the IonType element at the current position.
+     *
+     * @return IonType object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private IonType readIonType() throws XMLStreamException {
+        IonType ionType = new IonType();
+        String charge = xmlReader.getAttributeValue(null, "charge");
+        if (charge != null) {
+            ionType.setCharge(Integer.parseInt(charge.trim()));
+        }
+        String indices = xmlReader.getAttributeValue(null, "index");
+        if (indices != null) {
+            for (String index : splitValues(indices)) {
+                ionType.getIndex().add(Integer.parseInt(index));
+            }
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xmlReader.getLocalName();
+                if (element.equals("FragmentArray")) {
+                    ionType.getFragmentArray().add(readFragmentArray());
+                } else if (element.equals("cvParam")) {
+                    ionType.setCvParam(readCvParam());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return ionType;
+    }
+
+    /**
+     * Reads the FragmentArray element at the current position.
+     *
+     * @return FragmentArray object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private FragmentArray readFragmentArray() throws XMLStreamException {
+        FragmentArray fragmentArray = new FragmentArray();
+        String values = xmlReader.getAttributeValue(null, "values");
+        if (values != null) {
+            List<Float> valueList = fragmentArray.getValues();
+            for (String value : splitValues(values)) {
+                valueList.add(Float.parseFloat(value));
+            }
+        }
+        skipElement();
+        return fragmentArray;
+    }
+
+    /**
+     * Reads the cvParam element at the current position.
+     *
+     * @return CvParam object.
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private CvParam readCvParam() throws XMLStreamException {
+        CvParam parameter = new CvParam();
+        parameter.setAccession(xmlReader.getAttributeValue(null, "accession"));
+        parameter.setName(xmlReader.getAttributeValue(null, "name"));
+        parameter.setValue(xmlReader.getAttributeValue(null, "value"));
+        skipElement();
+        return parameter;
+    }
+
+    /**
+     * Skips the remainder of the element at the current position.
+     *
+     * @throws XMLStreamException the file does not contain valid xml.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Splits a whitespace separated attribute value.
+     *
+     * @param values attribute value.
+     * @return array of values.
+     */
+    private String[] splitValues(final String values) {
+        String trimmed = values.trim();
+        if (trimmed.isEmpty()) {
+            return new String[0];
+        }
+        return trimmed.split("\\s+");
+    }
+
+    /**
+     * Closes the StAX reader and the underlying file.
+     *
+     * @throws IOException could not close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            xmlReader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not close the mzid reader.", e);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
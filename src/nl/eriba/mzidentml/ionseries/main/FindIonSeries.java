@@ -4,21 +4,20 @@
  */
 package nl.eriba.mzidentml.ionseries.main;
 
+import nl.eriba.mzidentml.collections.ExternalSortSettings;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
 import nl.eriba.mzidentml.ionseries.tools.GeneralTools;
 import nl.eriba.mzidentml.ionseries.tools.InputTools;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.xml.parsers.ParserConfigurationException;
-import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
-import nl.eriba.mzidentml.ionseries.identifiication.IonSeriesGenerator;
+import javax.xml.stream.XMLStreamException;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -45,8 +44,9 @@ public class FindIonSeries {
      * @throws org.apache.commons.cli.ParseException
      * @throws org.xml.sax.SAXException
      * @throws javax.xml.parsers.ParserConfigurationException
+     * @throws javax.xml.stream.XMLStreamException
      */
-    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, ParseException, SAXException, ParserConfigurationException, org.apache.commons.cli.ParseException {
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, ParseException, SAXException, ParserConfigurationException, org.apache.commons.cli.ParseException, XMLStreamException {
         FindIonSeries peptideIdentification = new FindIonSeries();
         peptideIdentification.startIonSeriesIdentification(args);
     }
@@ -93,6 +93,136 @@ public class FindIonSeries {
                 .desc("Requires intensity threshold value. Examples: 5%, 0.05, 5")
                 .build();
         commandlineOptions.addOption(outputType);
+        //Determines the ion series for multiple intensity thresholds in one pass over each file.
+        Option sweep = Option.builder("sweep")
+                .hasArg()
+                .desc("Comma separated intensity thresholds that are all determined in one pass over each mzid file. Examples: 0.05,0.1,0.2")
+                .build();
+        commandlineOptions.addOption(sweep);
+        Option sweepOutput = Option.builder("sweepoutput")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Output of a threshold sweep: column to add an intensity threshold column or files to write a file per threshold."
+                        + " (DEFAULT: column)")
+                .build();
+        commandlineOptions.addOption(sweepOutput);
+        //Keeps the ion series of each file outside of the heap until they are written.
+        Option store = Option.builder("store")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Store of the ion series of each file: heap, offheap (direct buffers) or mapped (memory-mapped temporary files)."
+                        + " (DEFAULT: heap)")
+                .build();
+        commandlineOptions.addOption(store);
+        //Writes the ion series while the file is still being matched.
+        Option writeQueue = Option.builder("writequeue")
+                .hasArg()
+                .desc("Writes the ion series while each file is still being matched, through a queue of the given amount of rows,"
+                        + " instead of collecting all ion series in memory first. Example: 65536")
+                .build();
+        commandlineOptions.addOption(writeQueue);
+        //Sorts the output on peptide sequence with an external sort.
+        Option sort = Option.builder("sort")
+                .hasArg(false)
+                .desc("Writes the ion series of each file in order of their peptide sequence. Runs that do not fit in memory are sorted"
+                        + " in parallel, spilled to disk and merged.")
+                .build();
+        commandlineOptions.addOption(sort);
+        Option sortRun = Option.builder("sortrun")
+                .hasArg()
+                .desc("Amount of ion series that are sorted in memory as one run. (DEFAULT: " + ExternalSortSettings.DEFAULT_RUN_SIZE + ")")
+                .build();
+        commandlineOptions.addOption(sortRun);
+        Option sortTemp = Option.builder("sorttemp")
+                .hasArg()
+                .desc("Directory of the run files of the sort. (DEFAULT: the temporary directory of the system)")
+                .build();
+        commandlineOptions.addOption(sortTemp);
+        //Aggregates the peptide counts of all files per sample.
+        Option aggregate = Option.builder("aggregate")
+                .hasArg(false)
+                .desc("Writes the PSM count, file count and best peptide score of each peptide sequence and ion series flag per sample to "
+                        + IonSeriesAggregator.FILE_NAME + " in the output directory. Not available with -server or -watch.")
+                .build();
+        commandlineOptions.addOption(aggregate);
+        Option aggregateSize = Option.builder("aggregatesize")
+                .hasArg()
+                .desc("Maximum amount of peptide counts of the aggregate that are kept in memory before they are spilled to disk. (DEFAULT: "
+                        + IonSeriesAggregator.DEFAULT_MAXIMUM_ENTRIES + ")")
+                .build();
+        commandlineOptions.addOption(aggregateSize);
+        //Streams the SpectrumIdentificationResult elements instead of unmarshalling the complete list.
+        Option streaming = Option.builder("streaming")
+                .hasArg(false)
+                .desc("Reads <SpectrumIdentificationResult> elements one at a time to limit memory usage. Results are written in file order.")
+                .build();
+        commandlineOptions.addOption(streaming);
+        //Amount of mzid files that are processed at the same time.
+        Option parallelFiles = Option.builder("files")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Amount of mzid files to process at the same time. Each file uses the given amount of threads. (DEFAULT: 1 file)")
+                .build();
+        commandlineOptions.addOption(parallelFiles);
+        //Memory budget for the files that are processed at the same time.
+        Option memory = Option.builder("memory")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Memory budget in MB for all files that are processed at the same time. (DEFAULT: 75% of the maximum heap size)")
+                .build();
+        commandlineOptions.addOption(memory);
+        //Output formats of the ion series files.
+        Option format = Option.builder("format")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Comma separated output formats: csv, csv.gz and/or binary. (DEFAULT: csv)")
+                .build();
+        commandlineOptions.addOption(format);
+        //Cache of the output of processed mzid files.
+        Option cache = Option.builder("cache")
+                .hasArg()
+                .desc("Directory to cache the output of each mzid file in. Files that were processed before with the same settings are skipped.")
+                .build();
+        commandlineOptions.addOption(cache);
+        Option cacheSize = Option.builder("cachesize")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Maximum size of the cache in MB. The least recently used results are removed first. (DEFAULT: 10240 MB)")
+                .build();
+        commandlineOptions.addOption(cacheSize);
+        Option cacheAge = Option.builder("cacheage")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Amount of days after which unused results are removed from the cache. (DEFAULT: 30 days)")
+                .build();
+        commandlineOptions.addOption(cacheAge);
+        //Continues a batch that was interrupted.
+        Option resume = Option.builder("resume")
+                .longOpt("resume")
+                .hasArg(false)
+                .desc("Skips the mzid files that were completed by the previous run with the same output directory and settings, and redoes the other files.")
+                .build();
+        commandlineOptions.addOption(resume);
+        //Runs as a server that processes jobs from a spool directory.
+        Option server = Option.builder("server")
+                .hasArg()
+                .desc("Runs as a server that processes the .job files placed in the given spool directory until a file named stop is placed there."
+                        + " A job file contains the properties mzid, output and optionally intensity and resume.")
+                .build();
+        commandlineOptions.addOption(server);
+        Option jobs = Option.builder("jobs")
+                .hasArg()
+                .optionalArg(true)
+                .desc("Amount of jobs the server runs at the same time. The threads are shared by all jobs. (DEFAULT: 2 jobs)")
+                .build();
+        commandlineOptions.addOption(jobs);
+        //Watches directories for new mzid files.
+        Option watch = Option.builder("watch")
+                .hasArg()
+                .desc("Comma separated directories to watch for new mzid files, directly or in sample folders. New files are processed"
+                        + " as they arrive and written to the output directory. Completed files are not processed again.")
+                .build();
+        commandlineOptions.addOption(watch);
         //Implements the input tools class.
         inputTools = new InputTools();
         //Implements the general tools class.
@@ -110,8 +240,9 @@ public class FindIonSeries {
      * @throws org.apache.commons.cli.ParseException exception encountered in the commandline parser.
      * @throws org.xml.sax.SAXException
      * @throws javax.xml.parsers.ParserConfigurationException
+     * @throws javax.xml.stream.XMLStreamException
      */
-    public final void startIonSeriesIdentification(final String[] args) throws IOException, ParseException, InterruptedException, ExecutionException, SAXException, ParserConfigurationException, org.apache.commons.cli.ParseException {
+    public final void startIonSeriesIdentification(final String[] args) throws IOException, ParseException, InterruptedException, ExecutionException, SAXException, ParserConfigurationException, org.apache.commons.cli.ParseException, XMLStreamException {
         //Initiates the commandline parser.
         CommandLineParser parser = new BasicParser();
         //Gather arguments from the given options of the commandline.
@@ -131,14 +262,144 @@ public class FindIonSeries {
             Integer threads = getThreads(cmd);
             //Set the standard threshold value to 5% (0.05).
             Double intensityThreshold = generalTools.getIntensityThreshold(cmd);
+            //Set the intensity thresholds of a sweep.
+            List<Double> sweepThresholds = null;
+            Boolean separateSweepFiles = false;
+            if (cmd.getOptionValue("sweep") != null) {
+                sweepThresholds = new ArrayList<>();
+                try {
+                    for (String value : cmd.getOptionValue("sweep").split(",")) {
+                        Double threshold = generalTools.getIntensityThreshold(value.trim());
+                        if (!sweepThresholds.contains(threshold)) {
+                            sweepThresholds.add(threshold);
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.out.println("WARNING: " + e.getMessage());
+                    return;
+                }
+                String sweepOutput = "column";
+                if (cmd.getOptionValue("sweepoutput") != null) {
+                    sweepOutput = cmd.getOptionValue("sweepoutput");
+                }
+                if (!sweepOutput.equals("column") && !sweepOutput.equals("files")) {
+                    System.out.println("WARNING: unknown sweep output " + sweepOutput + ". Use column or files.");
+                    return;
+                }
+                separateSweepFiles = sweepOutput.equals("files");
+            }
+            //Stream the mzid files instead of unmarshalling the complete SpectrumIdentificationList.
+            Boolean streaming = cmd.hasOption("streaming");
+            //Set the amount of files that are processed at the same time and their memory budget.
+            Integer parallelFiles = getIntegerOption(cmd, "files", 1);
+            Integer memoryBudget = getIntegerOption(cmd, "memory", IonSeriesFileScheduler.getDefaultMemoryBudget());
+            //Set the output formats.
+            String formats = IonSeriesWriterFactory.CSV;
+            if (cmd.getOptionValue("format") != null) {
+                formats = cmd.getOptionValue("format");
+            }
+            List<IonSeriesWriter> writers;
+            try {
+                writers = new IonSeriesWriterFactory().createWriters(formats);
+            } catch (IllegalArgumentException e) {
+                System.out.println("WARNING: " + e.getMessage());
+                return;
+            }
+            //Set the store of the ion series.
+            String storeType = MatchedIonSeriesCollection.HEAP_STORE;
+            if (cmd.getOptionValue("store") != null) {
+                storeType = cmd.getOptionValue("store");
+            }
+            if (!Arrays.asList(MatchedIonSeriesCollection.HEAP_STORE, MatchedIonSeriesCollection.OFF_HEAP_STORE,
+                    MatchedIonSeriesCollection.MAPPED_STORE).contains(storeType)) {
+                System.out.println("WARNING: unknown store " + storeType + ". Use heap, offheap or mapped.");
+                return;
+            }
+            //Write the ion series through a bounded queue instead of collecting them first.
+            Integer writeQueue = null;
+            if (cmd.hasOption("writequeue")) {
+                writeQueue = getIntegerOption(cmd, "writequeue", QueuedIonSeriesSink.DEFAULT_CAPACITY);
+            }
+            //Sort the output on peptide sequence.
+            ExternalSortSettings sortSettings = null;
+            if (cmd.hasOption("sort")) {
+                Integer runSize = getIntegerOption(cmd, "sortrun", ExternalSortSettings.DEFAULT_RUN_SIZE);
+                if (runSize < 1) {
+                    System.out.println("WARNING: the sort run size should be at least 1, got " + runSize + ".");
+                    return;
+                }
+                sortSettings = new ExternalSortSettings(runSize, cmd.getOptionValue("sorttemp"), threads);
+            }
+            //Aggregate the peptide counts of the files per sample.
+            ExternalSortSettings aggregateSettings = null;
+            if (cmd.hasOption("aggregate")) {
+                Integer maximumEntries = getIntegerOption(cmd, "aggregatesize", IonSeriesAggregator.DEFAULT_MAXIMUM_ENTRIES);
+                if (maximumEntries < 1) {
+                    System.out.println("WARNING: the aggregate size should be at least 1, got " + maximumEntries + ".");
+                    return;
+                }
+                aggregateSettings = new ExternalSortSettings(maximumEntries, cmd.getOptionValue("sorttemp"), 1);
+                //A server or watcher has no end of the batch at which the aggregate could be written.
+                if (cmd.getOptionValue("server") != null || cmd.getOptionValue("watch") != null) {
+                    System.out.println("WARNING: -aggregate can only be used for an entry file, not with -server or -watch.");
+                    return;
+                }
+            }
+            //Continue the journal of the previous run.
+            Boolean resume = cmd.hasOption("resume");
+            //Set the cache of processed mzid files.
+            IonSeriesResultCache resultCache = null;
+            if (cmd.getOptionValue("cache") != null) {
+                resultCache = new IonSeriesResultCache(cmd.getOptionValue("cache"), getIntegerOption(cmd, "cachesize", 10240),
+                        getIntegerOption(cmd, "cacheage", 30));
+            }
+            //Run as a server instead of processing a single entry file.
+            if (cmd.getOptionValue("server") != null) {
+                IonSeriesServer ionSeriesServer = new IonSeriesServer(cmd.getOptionValue("server"), getSeparator(), intensityThreshold, threads,
+                        getIntegerOption(cmd, "jobs", 2), parallelFiles, memoryBudget, streaming, writers, resultCache);
+                ionSeriesServer.setIntensitySweep(sweepThresholds, separateSweepFiles);
+                ionSeriesServer.setStoreType(storeType);
+                ionSeriesServer.setWriteQueue(writeQueue);
+                ionSeriesServer.setSortSettings(sortSettings);
+                ionSeriesServer.run();
+                return;
+            }
             //Determine path separator.
             inputTools.isDirectory(outputDirectory);
             separator = getSeparator();
+            //Watch directories for new mzid files instead of reading an entry file.
+            if (cmd.getOptionValue("watch") != null) {
+                IonSeriesFileProcessor processor = new IonSeriesFileProcessor(outputDirectory, separator, intensityThreshold, threads, streaming, writers);
+                processor.setResultCache(resultCache);
+                processor.setIntensitySweep(sweepThresholds, separateSweepFiles);
+                processor.setStoreType(storeType);
+                processor.setWriteQueue(writeQueue);
+                processor.setSortSettings(sortSettings);
+                //The journal is always continued, so files completed before a restart are not processed again.
+                IonSeriesBatchJournal journal = new IonSeriesBatchJournal(outputDirectory, true, processor.getSettings());
+                IonSeriesFolderWatcher watcher = new IonSeriesFolderWatcher(Arrays.asList(cmd.getOptionValue("watch").split(",")), processor, journal,
+                        parallelFiles, memoryBudget);
+                watcher.run();
+                return;
+            }
             //Read input file
             if (inputTools.isTxtFile(inputFile)) {
                 ArrayList<String> entryFileList = reader.readMainTextFile(inputFile);
                 LinkedHashMap<String, ArrayList<String>> mzidEntryMap = reader.createMzIdHashMap(entryFileList, separator);
-                processIonSeries(outputDirectory, mzidEntryMap, intensityThreshold, threads);
+                IonSeriesAggregator aggregator = null;
+                if (aggregateSettings != null) {
+                    //Each file writes its peptide counts, which the aggregator reads when the file is finished.
+                    writers = new ArrayList<>(writers);
+                    writers.add(new PeptideCountWriter());
+                    aggregator = new IonSeriesAggregator(outputDirectory, aggregateSettings);
+                }
+                IonSeriesFileProcessor processor = new IonSeriesFileProcessor(outputDirectory, separator, intensityThreshold, threads, streaming, writers);
+                processor.setResultCache(resultCache);
+                processor.setIntensitySweep(sweepThresholds, separateSweepFiles);
+                processor.setStoreType(storeType);
+                processor.setWriteQueue(writeQueue);
+                processor.setSortSettings(sortSettings);
+                processIonSeries(outputDirectory, mzidEntryMap, processor, parallelFiles, memoryBudget, resume, aggregator);
             } else {
                 System.out.println("WARNING: given file is not a .txt file: " + inputFile);
             }
@@ -164,6 +425,27 @@ public class FindIonSeries {
         return threads;
     }
 
+    /**
+     * Returns the value of a numeric commandline option.
+     *
+     * @param cmd commandline arguments.
+     * @param option name of the option.
+     * @param defaultValue value to use if the option is not given or is not a number.
+     * @return option value as Integer.
+     */
+    private Integer getIntegerOption(CommandLine cmd, String option, Integer defaultValue) {
+        Integer value = defaultValue;
+        if (cmd.hasOption(option)) {
+            try {
+                value = Integer.parseInt(cmd.getOptionValue(option));
+            } catch (Exception e) {
+                System.out.println("Please enter a number as input instead of " + cmd.getOptionValue(option)
+                        + ".\nCurrent input results in error: " + e.getMessage());
+            }
+        }
+        return value;
+    }
+
     /**
      * Determines the folder separator based on the system platform.
      * 
@@ -179,61 +461,49 @@ public class FindIonSeries {
         return separator;
     }
 
-    /**
-     * Generates an output directory to write files to.
-     * 
-     * @param file file name.
-     * @param outputDirectory directory name.
-     * @return output directory as String.
-     */
-    private String generateOutputDirectory(final String file, final String outputDirectory) {
-        String[] split = file.split(separator);
-        String fileName = split[split.length - 1];
-        fileName = fileName.substring(0, fileName.indexOf(".mzid"));
-        String folder = split[split.length - 2];
-        //Generate directory if it does not exist.
-        String directory = outputDirectory + folder + separator + fileName + separator;
-        Path path = Paths.get(directory);
-        if (!Files.exists(path)) {
-            try {
-                Files.createDirectories(path);
-            } catch (IOException e) {
-                System.out.println("WARNING: could not create a directory for the given mzid file: " + file + "\nError: " + e);
-                System.out.println("Creating path: " + path + " failed. Process will terminate.");
-                System.exit(0);
-            }
-        }
-        return directory;
-    }
-
     /**
      * Processes peptide data and creates files with the ion series data of each peptide spectrum match.
      * 
      * @param outputDirectory output directory to write the files to.
      * @param mzidEntryMap hashmap of mzid files.
-     * @param itensityThreshold user specified or standard minimum intensity threshold.
-     * @param threads amount of threads used to run this tool.
+     * @param processor processor that handles a single mzid file.
+     * @param parallelFiles amount of mzid files that are processed at the same time.
+     * @param memoryBudget memory budget in MB for the files that are processed at the same time.
+     * @param resume true to skip the files that were completed by the previous run.
+     * @param aggregator aggregator of the peptide counts of all files or null to not aggregate the counts.
      * @throws InterruptedException process was interrupted by another task.
-     * @throws ExecutionException 
-     * @throws IOException 
+     * @throws IOException could not read or write the batch journal or the peptide aggregate.
      */
-    private void processIonSeries(String outputDirectory, LinkedHashMap<String, ArrayList<String>> mzidEntryMap, Double itensityThreshold, Integer threads) throws InterruptedException, ExecutionException, IOException {
+    private void processIonSeries(String outputDirectory, LinkedHashMap<String, ArrayList<String>> mzidEntryMap, IonSeriesFileProcessor processor,
+            Integer parallelFiles, Integer memoryBudget, Boolean resume, IonSeriesAggregator aggregator) throws InterruptedException, IOException {
         System.out.println("Starting processing of ion series data...");
-        Integer sampleSize = 0;
-        for (Map.Entry<String, ArrayList<String>> x : mzidEntryMap.entrySet()) {
-            if (sampleSize <= x.getValue().size()) {
-                sampleSize = x.getValue().size();
-            }
-        }
+        ArrayList<String> allFiles = new ArrayList<>();
         for (Map.Entry<String, ArrayList<String>> mzidList: mzidEntryMap.entrySet()) {
-            for (String mzidFile: mzidList.getValue()) {
-                String directory = generateOutputDirectory(mzidFile, outputDirectory);
-                System.out.println("Processing file " + mzidFile);
-                IonSeriesGenerator generator = new IonSeriesGenerator(null, null, itensityThreshold);
-                MatchedIonSeriesCollection generateIonSeries = generator.generateIonSeries(mzidFile, itensityThreshold, threads);
-                IonSeriesCsvWriter writer = new IonSeriesCsvWriter();
-                writer.writeCsv(directory, generateIonSeries);
+            allFiles.addAll(mzidList.getValue());
+        }
+        //The journal records every completed file, so an interrupted batch can be resumed.
+        IonSeriesBatchJournal journal = new IonSeriesBatchJournal(outputDirectory, resume, processor.getSettings());
+        List<String> mzidFiles = new ArrayList<>(journal.getRemainingFiles(allFiles));
+        IonSeriesFileScheduler scheduler = new IonSeriesFileScheduler(processor, parallelFiles, memoryBudget);
+        scheduler.setJournal(journal);
+        if (aggregator != null) {
+            //Files that were completed by the previous run are aggregated from their peptide count files.
+            for (String mzidFile : allFiles) {
+                if (!mzidFiles.contains(mzidFile) && !aggregator.addFile(journal.getOutputDirectory(mzidFile), journal.getFileNames(mzidFile))) {
+                    System.out.println("Processing completed file " + mzidFile + " again, because it has no peptide counts.");
+                    mzidFiles.add(mzidFile);
+                }
             }
+            scheduler.setAggregator(aggregator);
+        }
+        int failedFiles = scheduler.processFiles(mzidFiles);
+        if (failedFiles > 0) {
+            System.out.println("WARNING: " + failedFiles + " of " + mzidFiles.size() + " mzid file(s) could not be processed.");
+        } else {
+            System.out.println("Finished processing of " + mzidFiles.size() + " mzid file(s).");
+        }
+        if (aggregator != null) {
+            aggregator.finish();
         }
     }
 }
@@ -0,0 +1,373 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import nl.eriba.mzidentml.collections.ExternalSortSettings;
+import nl.eriba.mzidentml.collections.ExternalSorter;
+import nl.eriba.mzidentml.collections.RecordCodec;
+import nl.eriba.mzidentml.ionseries.objects.PeptideCount;
+
+/**
+ * Aggregates the peptide counts of all mzid files of a batch per sample.
+ *
+ * The peptide counts of each file are added as soon as the file is finished. The counts are kept in a hash map with
+ * the sample, peptide sequence, ion series flag and intensity threshold as key. When the map reaches the configured
+ * amount of entries, its counts are spilled to disk as a sorted run and the map is cleared. When the batch is finished,
+ * the spilled runs and the map are merged into one csv file with the match count, file count and best peptide score
+ * of each peptide per sample.
+ *
+ * The sample of a file is the folder of its output directory, which is the sample name of the entry file.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesAggregator {
+
+    /**
+     * Name of the aggregate file in the output directory.
+     */
+    public static final String FILE_NAME = "peptide-aggregate.csv";
+
+    /**
+     * Standard maximum amount of peptide counts that are kept in memory.
+     */
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 1000000;
+
+    /**
+     * Prefix of the peptide count files of the processed files, also of the files of a threshold sweep.
+     */
+    private static final String COUNT_FILE_PREFIX = "peptide-counts";
+
+    /**
+     * Directory to write the aggregate file to.
+     */
+    private final String outputDirectory;
+
+    /**
+     * Settings of the spilled runs; the run size is the maximum amount of peptide counts in memory.
+     */
+    private final ExternalSortSettings spillSettings;
+
+    /**
+     * Peptide counts that are kept in memory.
+     */
+    private final HashMap<String, PeptideCount> peptideCounts;
+
+    /**
+     * Sorter with the spilled peptide counts or null if nothing was spilled.
+     */
+    private ExternalSorter<PeptideCount> spilledCounts;
+
+    /**
+     * Amount of files that were added.
+     */
+    private int fileCount;
+
+    /**
+     * True if a peptide count has an intensity threshold.
+     */
+    private boolean sweep;
+
+    /**
+     * Creates an empty aggregator.
+     *
+     * @param outputDirectory directory to write the aggregate file to.
+     * @param spillSettings settings of the spilled runs; the run size is the maximum amount of peptide counts in memory.
+     */
+    public IonSeriesAggregator(final String outputDirectory, final ExternalSortSettings spillSettings) {
+        this.outputDirectory = outputDirectory;
+        this.spillSettings = spillSettings;
+        this.peptideCounts = new HashMap<>();
+        this.fileCount = 0;
+        this.sweep = false;
+    }
+
+    /**
+     * Adds the peptide counts of a finished file.
+     *
+     * @param fileDirectory output directory of the file.
+     * @param fileNames names of the output files of the file.
+     * @return true if the file had peptide counts, false if it was processed without them.
+     * @throws IOException could not read the peptide counts or spill the counts to disk.
+     * @throws InterruptedException process was interrupted while spilling the counts.
+     */
+    public final synchronized boolean addFile(final String fileDirectory, final List<String> fileNames) throws IOException, InterruptedException {
+        String sample = Paths.get(fileDirectory).getParent().getFileName().toString();
+        boolean found = false;
+        for (String fileName : fileNames) {
+            if (fileName.startsWith(COUNT_FILE_PREFIX)) {
+                readPeptideCounts(sample, Paths.get(fileDirectory, fileName));
+                found = true;
+            }
+        }
+        if (found) {
+            fileCount++;
+        }
+        return found;
+    }
+
+    /**
+     * Merges the spilled runs and the peptide counts in memory and writes the aggregate file. The file is written
+     * under a temporary name and then renamed, so an earlier aggregate file is only replaced by a complete one.
+     *
+     * @return path to the aggregate file.
+     * @throws IOException could not read a spilled run or write the aggregate file.
+     * @throws InterruptedException process was interrupted while sorting the counts.
+     */
+    public final synchronized String finish() throws IOException, InterruptedException {
+        Path aggregateFile = Paths.get(outputDirectory, FILE_NAME);
+        Path partialFile = Paths.get(outputDirectory, FILE_NAME + ".partial");
+        ExternalSorter<PeptideCount> sorter = spilledCounts;
+        if (sorter == null) {
+            sorter = createSorter();
+        }
+        spilledCounts = null;
+        long rows;
+        try {
+            rows = writeAggregate(sorter, partialFile);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Files.deleteIfExists(partialFile);
+            throw e;
+        }
+        Files.move(partialFile, aggregateFile, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Wrote " + rows + " peptide counts of " + fileCount + " mzid file(s) to " + aggregateFile);
+        return aggregateFile.toString();
+    }
+
+    /**
+     * Adds the peptide counts in memory to the sorter and writes the merged counts to the given file.
+     *
+     * @param sorter sorter with the spilled peptide counts, which is closed afterwards.
+     * @param file path to the file.
+     * @return amount of rows that were written.
+     * @throws IOException could not read a spilled run or write the file.
+     * @throws InterruptedException process was interrupted while sorting the counts.
+     */
+    private long writeAggregate(final ExternalSorter<PeptideCount> sorter, final Path file) throws IOException, InterruptedException {
+        long rows = 0;
+        try (ExternalSorter<PeptideCount> sortedCounts = sorter;
+                Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8))) {
+            for (PeptideCount peptideCount : peptideCounts.values()) {
+                sortedCounts.add(peptideCount);
+            }
+            peptideCounts.clear();
+            sortedCounts.sort();
+            writer.write(generateHeader());
+            //Counts of the same peptide from different runs are next to each other after the merge.
+            Comparator<PeptideCount> comparator = getPeptideCountComparator();
+            PeptideCount current = sortedCounts.next();
+            PeptideCount next;
+            while (current != null) {
+                while ((next = sortedCounts.next()) != null && comparator.compare(current, next) == 0) {
+                    current.addPeptideCount(next);
+                }
+                writer.write(generateRow(current));
+                rows++;
+                current = next;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Reads a peptide count file and adds its counts to the sample.
+     *
+     * @param sample name of the sample.
+     * @param countFile path to the peptide count file.
+     * @throws IOException could not read the file or spill the counts to disk.
+     * @throws InterruptedException process was interrupted while spilling the counts.
+     */
+    private void readPeptideCounts(final String sample, final Path countFile) throws IOException, InterruptedException {
+        try (BufferedReader reader = Files.newBufferedReader(countFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(PeptideCountWriter.HEADER)) {
+                throw new IOException("Not a peptide count file: " + countFile);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(PeptideCountWriter.DELIMITER, -1);
+                if (columns.length != 5) {
+                    throw new IOException("Invalid line in peptide count file " + countFile + ": " + line);
+                }
+                Double threshold = parseNullable(columns[2]);
+                sweep |= threshold != null;
+                PeptideCount peptideCount = new PeptideCount(sample, columns[0], Integer.parseInt(columns[1]), threshold, Long.parseLong(columns[3]), 1,
+                        parseNullable(columns[4]));
+                String key = sample + "\t" + columns[0] + "\t" + columns[1] + "\t" + columns[2];
+                PeptideCount existing = peptideCounts.get(key);
+                if (existing == null) {
+                    peptideCounts.put(key, peptideCount);
+                    if (peptideCounts.size() >= spillSettings.getRunSize()) {
+                        spillPeptideCounts();
+                    }
+                } else {
+                    existing.addPeptideCount(peptideCount);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in peptide count file " + countFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the peptide counts in memory to disk as a sorted run and clears the map.
+     *
+     * @throws IOException could not write the run.
+     * @throws InterruptedException process was interrupted while writing the run.
+     */
+    private void spillPeptideCounts() throws IOException, InterruptedException {
+        if (spilledCounts == null) {
+            spilledCounts = createSorter();
+        }
+        System.out.println("Spilling " + peptideCounts.size() + " peptide counts to " + spillSettings.getTempDirectory());
+        //The map holds exactly one run, so the sorter writes it right away.
+        for (PeptideCount peptideCount : peptideCounts.values()) {
+            spilledCounts.add(peptideCount);
+        }
+        peptideCounts.clear();
+    }
+
+    /**
+     * Creates a sorter for the peptide counts.
+     *
+     * @return empty sorter.
+     */
+    private ExternalSorter<PeptideCount> createSorter() {
+        return new ExternalSorter<>(getPeptideCountComparator(), getRecordCodec(), spillSettings);
+    }
+
+    /**
+     * Generates the header of the aggregate file.
+     *
+     * @return header row.
+     */
+    private String generateHeader() {
+        String header = "Sample" + PeptideCountWriter.DELIMITER + "Peptide Sequence" + PeptideCountWriter.DELIMITER + "Ion Series Flag";
+        if (sweep) {
+            header += PeptideCountWriter.DELIMITER + "Intensity Threshold";
+        }
+        header += PeptideCountWriter.DELIMITER + "PSM Count" + PeptideCountWriter.DELIMITER + "File Count" + PeptideCountWriter.DELIMITER
+                + "Best Peptide Score\n";
+        return header;
+    }
+
+    /**
+     * Generates a row of the aggregate file.
+     *
+     * @param peptideCount PeptideCount object.
+     * @return data row.
+     */
+    private String generateRow(final PeptideCount peptideCount) {
+        StringBuilder row = new StringBuilder();
+        row.append(peptideCount.getSample()).append(PeptideCountWriter.DELIMITER);
+        row.append(peptideCount.getPeptideSequence()).append(PeptideCountWriter.DELIMITER);
+        row.append(peptideCount.getIonSeriesFlag());
+        if (sweep) {
+            row.append(PeptideCountWriter.DELIMITER).append(PeptideCountWriter.formatNullable(peptideCount.getIntensityThreshold()));
+        }
+        row.append(PeptideCountWriter.DELIMITER).append(peptideCount.getMatchCount());
+        row.append(PeptideCountWriter.DELIMITER).append(peptideCount.getFileCount());
+        row.append(PeptideCountWriter.DELIMITER).append(PeptideCountWriter.formatNullable(peptideCount.getBestScore()));
+        row.append("\n");
+        return row.toString();
+    }
+
+    /**
+     * Parses a value that may be an empty column.
+     *
+     * @param value column value.
+     * @return Double or null if the column is empty.
+     */
+    private static Double parseNullable(final String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Compares peptide counts on sample, peptide sequence, ion series flag and intensity threshold. Counts without a
+     * sample or threshold come first.
+     *
+     * @return comparator of PeptideCount objects.
+     */
+    static Comparator<PeptideCount> getPeptideCountComparator() {
+        return new Comparator<PeptideCount>() {
+            @Override
+            public int compare(PeptideCount o1, PeptideCount o2) {
+                int order = compareNullable(o1.getSample(), o2.getSample());
+                if (order == 0) {
+                    order = o1.getPeptideSequence().compareTo(o2.getPeptideSequence());
+                }
+                if (order == 0) {
+                    order = o1.getIonSeriesFlag().compareTo(o2.getIonSeriesFlag());
+                }
+                if (order == 0) {
+                    order = compareNullable(o1.getIntensityThreshold(), o2.getIntensityThreshold());
+                }
+                return order;
+            }
+        };
+    }
+
+    /**
+     * Compares two values that may be null. Null comes first.
+     *
+     * @param <T> type of the values.
+     * @param value first value or null.
+     * @param otherValue second value or null.
+     * @return order of the values.
+     */
+    private static <T extends Comparable<T>> int compareNullable(final T value, final T otherValue) {
+        if (value == null || otherValue == null) {
+            return Boolean.compare(value != null, otherValue != null);
+        }
+        return value.compareTo(otherValue);
+    }
+
+    /**
+     * Writes and reads PeptideCount objects in the spilled runs.
+     *
+     * @return codec of PeptideCount objects.
+     */
+    private static RecordCodec<PeptideCount> getRecordCodec() {
+        return new RecordCodec<PeptideCount>() {
+            @Override
+            public void write(DataOutput output, PeptideCount record) throws IOException {
+                ExternalSorter.writeString(output, record.getSample());
+                ExternalSorter.writeString(output, record.getPeptideSequence());
+                output.writeInt(record.getIonSeriesFlag());
+                ExternalSorter.writeNullableDouble(output, record.getIntensityThreshold());
+                output.writeLong(record.getMatchCount());
+                output.writeInt(record.getFileCount());
+                ExternalSorter.writeNullableDouble(output, record.getBestScore());
+            }
+
+            @Override
+            public PeptideCount read(DataInput input) throws IOException {
+                String sample = ExternalSorter.readString(input);
+                String peptideSequence = ExternalSorter.readString(input);
+                int flag = input.readInt();
+                Double threshold = ExternalSorter.readNullableDouble(input);
+                long matchCount = input.readLong();
+                int files = input.readInt();
+                return new PeptideCount(sample, peptideSequence, flag, threshold, matchCount, files, ExternalSorter.readNullableDouble(input));
+            }
+        };
+    }
+}
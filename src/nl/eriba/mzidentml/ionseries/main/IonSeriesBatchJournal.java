@@ -0,0 +1,237 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Journal of the mzid files of a batch that were processed completely.
+ *
+ * Each completed file is recorded as one line with the path, size and modification time of the mzid file, its output
+ * directory, its output files and the settings it was processed with. The line is written with a single write and
+ * synced to disk, so a crash leaves at most one incomplete last line, which is ignored when the journal is read. A file
+ * counts as completed when it has not changed since it was recorded, it was processed with the settings of the current
+ * run and its output files still exist.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesBatchJournal {
+
+    /**
+     * Name of the journal file in the output directory.
+     */
+    public static final String JOURNAL_FILE = "ion-series-journal.tsv";
+
+    /**
+     * Separates the fields of a record.
+     */
+    private static final String DELIMITER = "\t";
+
+    /**
+     * Separates the output file names of a record.
+     */
+    private static final String FILE_DELIMITER = ",";
+
+    /**
+     * Amount of fields of a complete record.
+     */
+    private static final int FIELD_COUNT = 6;
+
+    /**
+     * Path to the journal file.
+     */
+    private final String journalFile;
+
+    /**
+     * Settings of the current run.
+     */
+    private final String settings;
+
+    /**
+     * Completed records with the mzid file as key.
+     */
+    private final HashMap<String, String[]> completedFiles;
+
+    /**
+     * Opens the journal in the given output directory. When resuming, the records of the previous run are read,
+     * otherwise the journal is started empty.
+     *
+     * @param outputDirectory output directory of the batch.
+     * @param resume true to continue the journal of the previous run.
+     * @param settings settings of the current run, as returned by IonSeriesFileProcessor.getSettings.
+     * @throws IOException could not read or create the journal file.
+     */
+    public IonSeriesBatchJournal(final String outputDirectory, final Boolean resume, final String settings) throws IOException {
+        this.journalFile = Paths.get(outputDirectory, JOURNAL_FILE).toString();
+        this.settings = settings;
+        this.completedFiles = new HashMap<>();
+        if (resume && new File(journalFile).isFile()) {
+            readJournal();
+        } else {
+            Files.write(Paths.get(journalFile), new byte[0]);
+        }
+    }
+
+    /**
+     * Returns true if the mzid file was completed in the previous run and can be skipped.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return true if the file is unchanged, was processed with the same settings and its output files exist, else
+     * false.
+     */
+    public final synchronized boolean isCompleted(final String mzidFile) {
+        String[] record = completedFiles.get(mzidFile);
+        if (record == null || !record[5].equals(settings)) {
+            return false;
+        }
+        File file = new File(mzidFile);
+        if (file.length() != Long.parseLong(record[1]) || file.lastModified() != Long.parseLong(record[2])) {
+            return false;
+        }
+        for (String fileName : record[4].split(FILE_DELIMITER)) {
+            if (!fileName.isEmpty() && !new File(record[3], fileName).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the output directory of a completed mzid file.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return output directory or null if the file is not recorded.
+     */
+    public final synchronized String getOutputDirectory(final String mzidFile) {
+        String[] record = completedFiles.get(mzidFile);
+        if (record == null) {
+            return null;
+        }
+        return record[3];
+    }
+
+    /**
+     * Returns the names of the output files of a completed mzid file.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return list of file names, empty if the file is not recorded.
+     */
+    public final synchronized List<String> getFileNames(final String mzidFile) {
+        ArrayList<String> fileNames = new ArrayList<>();
+        String[] record = completedFiles.get(mzidFile);
+        if (record != null) {
+            for (String fileName : record[4].split(FILE_DELIMITER)) {
+                if (!fileName.isEmpty()) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * Returns the mzid files that were not completed in the previous run.
+     *
+     * @param mzidFiles paths to the mzid files of the batch.
+     * @return list of mzid files that still have to be processed.
+     */
+    public final List<String> getRemainingFiles(final List<String> mzidFiles) {
+        ArrayList<String> remainingFiles = new ArrayList<>();
+        for (String mzidFile : mzidFiles) {
+            if (isCompleted(mzidFile)) {
+                System.out.println("Skipping completed file " + mzidFile);
+            } else {
+                if (hasOtherSettings(mzidFile)) {
+                    System.out.println("Processing completed file " + mzidFile + " again, because it was processed with other settings.");
+                }
+                remainingFiles.add(mzidFile);
+            }
+        }
+        return remainingFiles;
+    }
+
+    /**
+     * Returns true if the mzid file was completed with other settings than those of the current run.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return true if the file is recorded with other settings, else false.
+     */
+    private synchronized boolean hasOtherSettings(final String mzidFile) {
+        String[] record = completedFiles.get(mzidFile);
+        return record != null && !record[5].equals(settings);
+    }
+
+    /**
+     * Records that an mzid file was processed completely with the settings of the current run. The size and
+     * modification time are those read before the file was processed, so a file that changed during processing is not
+     * seen as completed.
+     *
+     * @param mzidFile path to the mzid file.
+     * @param fileSize size of the mzid file in bytes before it was processed.
+     * @param lastModified modification time of the mzid file before it was processed.
+     * @param outputDirectory output directory of the mzid file.
+     * @param fileNames names of the output files.
+     * @throws IOException could not write to the journal file.
+     */
+    public final synchronized void recordCompleted(final String mzidFile, final long fileSize, final long lastModified, final String outputDirectory,
+            final List<String> fileNames) throws IOException {
+        StringBuilder names = new StringBuilder();
+        for (String fileName : fileNames) {
+            if (names.length() > 0) {
+                names.append(FILE_DELIMITER);
+            }
+            names.append(fileName);
+        }
+        String[] record = {mzidFile, Long.toString(fileSize), Long.toString(lastModified), outputDirectory, names.toString(), settings};
+        StringBuilder line = new StringBuilder();
+        for (String field : record) {
+            if (line.length() > 0) {
+                line.append(DELIMITER);
+            }
+            line.append(field);
+        }
+        line.append("\n");
+        try (FileOutputStream output = new FileOutputStream(journalFile, true)) {
+            output.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        }
+        completedFiles.put(mzidFile, record);
+    }
+
+    /**
+     * Reads the complete records of the journal file.
+     *
+     * @throws IOException could not read the journal file.
+     */
+    private void readJournal() throws IOException {
+        byte[] content = Files.readAllBytes(Paths.get(journalFile));
+        int length = content.length;
+        //An incomplete last line was interrupted while it was written and is removed, so new records start on a new line.
+        while (length > 0 && content[length - 1] != '\n') {
+            length--;
+        }
+        if (length < content.length) {
+            Files.write(Paths.get(journalFile), Arrays.copyOf(content, length));
+        }
+        String text = new String(content, 0, length, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            String[] record = line.split(DELIMITER, -1);
+            //Records of earlier versions have no settings and are processed again.
+            if (record.length == FIELD_COUNT) {
+                completedFiles.put(record[0], record);
+            }
+        }
+        System.out.println("Resuming batch with " + completedFiles.size() + " completed file(s) in " + journalFile);
+    }
+}
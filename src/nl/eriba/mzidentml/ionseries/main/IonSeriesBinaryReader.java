@@ -0,0 +1,206 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import nl.eriba.mzidentml.collections.IonSeriesTable;
+
+/**
+ * Reads binary ion series files that were written by IonSeriesBinaryWriter.
+ *
+ * All blocks of a file are combined into one IonSeriesTable. The dictionaries of the blocks are merged, so equal
+ * sequences and accessions have the same id in the table.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesBinaryReader {
+
+    /**
+     * Size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Distinct peptide sequences of all blocks.
+     */
+    private final ArrayList<String> sequences = new ArrayList<>();
+
+    /**
+     * Sequence ids with the sequence as key.
+     */
+    private final HashMap<String, Integer> sequenceIds = new HashMap<>();
+
+    /**
+     * Distinct protein accessions of all blocks.
+     */
+    private final ArrayList<String> accessions = new ArrayList<>();
+
+    /**
+     * Accession ids with the accession as key.
+     */
+    private final HashMap<String, Integer> accessionIds = new HashMap<>();
+
+    /**
+     * Reads a binary ion series file.
+     *
+     * @param file path to the binary file.
+     * @return table with the rows of all blocks.
+     * @throws IOException could not read the file or the file is not a binary ion series file.
+     */
+    public final IonSeriesTable read(final String file) throws IOException {
+        sequences.clear();
+        sequenceIds.clear();
+        accessions.clear();
+        accessionIds.clear();
+        int rowCount = 0;
+        int[] rowSequenceIds = new int[0];
+        double[] scores = new double[0];
+        double[] thresholds = new double[0];
+        byte[] flags = new byte[0];
+        int[] indexOffsets = {0};
+        int[] indices = new int[0];
+        int[] accessionOffsets = {0};
+        int[] rowAccessionIds = new int[0];
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            int magic;
+            while ((magic = readMagic(input)) != -1) {
+                if (magic != IonSeriesBinaryWriter.MAGIC) {
+                    throw new IOException("Not a binary ion series file: " + file);
+                }
+                int version = input.readInt();
+                if (version != IonSeriesBinaryWriter.VERSION && version != IonSeriesBinaryWriter.SWEEP_VERSION) {
+                    throw new IOException("Unsupported binary ion series version " + version + " in file: " + file);
+                }
+                int blockRows = input.readInt();
+                int[] sequenceMapping = readDictionary(input, sequences, sequenceIds);
+                int[] accessionMapping = readDictionary(input, accessions, accessionIds);
+                int newRowCount = rowCount + blockRows;
+                rowSequenceIds = Arrays.copyOf(rowSequenceIds, newRowCount);
+                scores = Arrays.copyOf(scores, newRowCount);
+                thresholds = Arrays.copyOf(thresholds, newRowCount);
+                flags = Arrays.copyOf(flags, newRowCount);
+                for (int row = rowCount; row < newRowCount; row++) {
+                    rowSequenceIds[row] = sequenceMapping[input.readInt()];
+                }
+                for (int row = rowCount; row < newRowCount; row++) {
+                    scores[row] = input.readDouble();
+                }
+                //Only blocks of an intensity threshold sweep contain the threshold column.
+                for (int row = rowCount; row < newRowCount; row++) {
+                    if (version == IonSeriesBinaryWriter.SWEEP_VERSION) {
+                        thresholds[row] = input.readDouble();
+                    } else {
+                        thresholds[row] = Double.NaN;
+                    }
+                }
+                input.readFully(flags, rowCount, blockRows);
+                indexOffsets = readOffsets(input, indexOffsets, rowCount, blockRows);
+                indices = readValues(input, indices, indexOffsets[rowCount], indexOffsets[newRowCount], null);
+                accessionOffsets = readOffsets(input, accessionOffsets, rowCount, blockRows);
+                rowAccessionIds = readValues(input, rowAccessionIds, accessionOffsets[rowCount], accessionOffsets[newRowCount], accessionMapping);
+                rowCount = newRowCount;
+            }
+        }
+        return new IonSeriesTable(new ArrayList<>(sequences), new ArrayList<>(accessions), rowSequenceIds, scores, thresholds, flags, indexOffsets, indices,
+                accessionOffsets, rowAccessionIds);
+    }
+
+    /**
+     * Reads the magic number of the next block.
+     *
+     * @param input input stream.
+     * @return magic number or -1 at the end of the file.
+     * @throws IOException could not read the file.
+     */
+    private int readMagic(final DataInputStream input) throws IOException {
+        int first = input.read();
+        if (first == -1) {
+            return -1;
+        }
+        byte[] rest = new byte[3];
+        input.readFully(rest);
+        return (first << 24) | ((rest[0] & 0xff) << 16) | ((rest[1] & 0xff) << 8) | (rest[2] & 0xff);
+    }
+
+    /**
+     * Reads a dictionary and merges it with the values of the previous blocks.
+     *
+     * @param input input stream.
+     * @param values distinct values of all blocks.
+     * @param ids ids of the values of all blocks.
+     * @return id in the merged dictionary for each id of the block.
+     * @throws IOException could not read the file.
+     */
+    private int[] readDictionary(final DataInputStream input, final ArrayList<String> values, final HashMap<String, Integer> ids) throws IOException {
+        int size = input.readInt();
+        int[] mapping = new int[size];
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            mapping[i] = id;
+        }
+        return mapping;
+    }
+
+    /**
+     * Reads the offsets of a block and appends them to the offsets of the previous blocks.
+     *
+     * @param input input stream.
+     * @param offsets offsets of the previous blocks with the total as last value.
+     * @param rowCount amount of rows of the previous blocks.
+     * @param blockRows amount of rows of the block.
+     * @return offsets of all blocks with the total as last value.
+     * @throws EOFException the file ends within the block.
+     * @throws IOException could not read the file.
+     */
+    private int[] readOffsets(final DataInputStream input, final int[] offsets, final int rowCount, final int blockRows) throws IOException {
+        int base = offsets[rowCount];
+        int valueCount = input.readInt();
+        int[] result = Arrays.copyOf(offsets, rowCount + blockRows + 1);
+        for (int row = rowCount; row < rowCount + blockRows; row++) {
+            result[row] = base + input.readInt();
+        }
+        result[rowCount + blockRows] = base + valueCount;
+        return result;
+    }
+
+    /**
+     * Reads the values of a block and appends them to the values of the previous blocks.
+     *
+     * @param input input stream.
+     * @param values values of the previous blocks.
+     * @param start amount of values of the previous blocks.
+     * @param end amount of values including this block.
+     * @param mapping maps the values to merged dictionary ids or null to keep them.
+     * @return values of all blocks.
+     * @throws IOException could not read the file.
+     */
+    private int[] readValues(final DataInputStream input, final int[] values, final int start, final int end, final int[] mapping) throws IOException {
+        int[] result = Arrays.copyOf(values, end);
+        for (int i = start; i < end; i++) {
+            int value = input.readInt();
+            if (mapping != null) {
+                value = mapping[value];
+            }
+            result[i] = value;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+
+/**
+ * Writes the ion series to a compact binary columnar file.
+ *
+ * The file consists of a block that contains a header, a dictionary of the peptide sequences, a dictionary of the
+ * protein accessions and one column per field: sequence ids, peptide scores, ion series flags, the ion series indices
+ * and the accession ids. Blocks of an intensity threshold sweep have version 2 and contain an intensity threshold
+ * column after the peptide scores. The index and accession columns are stored as one int array with an offset array
+ * per row. All numbers are big-endian. Files can be concatenated, IonSeriesBinaryReader reads all blocks of a file.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesBinaryWriter implements IonSeriesWriter {
+
+    /**
+     * Marks the start of a block: "ISB1" in ASCII.
+     */
+    static final int MAGIC = 0x49534231;
+
+    /**
+     * Version of the block layout.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Version of the block layout with an intensity threshold column.
+     */
+    static final int SWEEP_VERSION = 2;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Returns the name of the binary file.
+     *
+     * @return ion-series.bin.
+     */
+    @Override
+    public final String getFileName() {
+        return "ion-series.bin";
+    }
+
+    /**
+     * Returns false, because separate threshold files have the columns of the output of a single threshold.
+     *
+     * @return false.
+     */
+    @Override
+    public final boolean keepsIntensityThreshold() {
+        return false;
+    }
+
+    /**
+     * Writes the ion series to the binary file. An existing file is replaced.
+     *
+     * @param outputDirectory directory to write the file to.
+     * @param matchedIonSeries collection of MatchedIonSeries objects.
+     * @throws IOException could not write the file.
+     */
+    @Override
+    public final void write(final String outputDirectory, final MatchedIonSeriesCollection matchedIonSeries) throws IOException {
+        writeFile(outputDirectory + getFileName(), matchedIonSeries);
+    }
+
+    /**
+     * Opens a binary file for writing one row at a time. The columns can only be written once all rows are known, so
+     * the rows are collected in an off-heap columnar collection and the file is written when the writer is closed.
+     *
+     * @param outputFile path to the binary file.
+     * @return row writer of the binary file.
+     */
+    @Override
+    public final IonSeriesRowWriter open(final String outputFile) {
+        final MatchedIonSeriesCollection rows = new MatchedIonSeriesCollection(MatchedIonSeriesCollection.OFF_HEAP_STORE);
+        return new IonSeriesRowWriter() {
+            @Override
+            public void writeRow(final MatchedIonSeries matchedIonSeries) {
+                rows.addMatchedIonSeries(matchedIonSeries);
+            }
+
+            @Override
+            public void close() throws IOException {
+                writeFile(outputFile, rows);
+            }
+        };
+    }
+
+    /**
+     * Writes the ion series to the binary file. An existing file is replaced.
+     *
+     * @param outputFile path to the binary file.
+     * @param matchedIonSeries collection of MatchedIonSeries objects.
+     * @throws IOException could not write the file.
+     */
+    private void writeFile(final String outputFile, final MatchedIonSeriesCollection matchedIonSeries) throws IOException {
+        System.out.println("Writing output to " + outputFile);
+        //The collection is read once per column, so a columnar collection is never copied to the heap as a whole.
+        int rowCount = matchedIonSeries.size();
+        HashMap<String, Integer> sequenceIds = new HashMap<>();
+        ArrayList<String> sequences = new ArrayList<>();
+        HashMap<String, Integer> accessionIds = new HashMap<>();
+        ArrayList<String> accessions = new ArrayList<>();
+        int[] rowSequenceIds = new int[rowCount];
+        int indexCount = 0;
+        ArrayList<int[]> rowAccessionIds = new ArrayList<>(rowCount);
+        int accessionCount = 0;
+        boolean sweep = false;
+        int row = 0;
+        for (MatchedIonSeries ionSeries : matchedIonSeries) {
+            sweep |= ionSeries.getIntensityThreshold() != null;
+            rowSequenceIds[row] = getId(ionSeries.getPeptideSequence(), sequenceIds, sequences);
+            indexCount += ionSeries.getFinalIonSeriesIndices().length;
+            String[] rowAccessions = splitAccessions(ionSeries.getProteinAccessions());
+            int[] ids = new int[rowAccessions.length];
+            for (int i = 0; i < rowAccessions.length; i++) {
+                ids[i] = getId(rowAccessions[i], accessionIds, accessions);
+            }
+            rowAccessionIds.add(ids);
+            accessionCount += ids.length;
+            row++;
+        }
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            if (sweep) {
+                output.writeInt(SWEEP_VERSION);
+            } else {
+                output.writeInt(VERSION);
+            }
+            output.writeInt(rowCount);
+            writeDictionary(output, sequences);
+            writeDictionary(output, accessions);
+            for (int sequenceId : rowSequenceIds) {
+                output.writeInt(sequenceId);
+            }
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                Double score = ionSeries.getPeptideScore();
+                output.writeDouble(score == null ? Double.NaN : score);
+            }
+            if (sweep) {
+                for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                    Double threshold = ionSeries.getIntensityThreshold();
+                    output.writeDouble(threshold == null ? Double.NaN : threshold);
+                }
+            }
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                output.writeByte(ionSeries.getIonSeriesFlag());
+            }
+            output.writeInt(indexCount);
+            int offset = 0;
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                output.writeInt(offset);
+                offset += ionSeries.getFinalIonSeriesIndices().length;
+            }
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                for (int index : ionSeries.getFinalIonSeriesIndices()) {
+                    output.writeInt(index);
+                }
+            }
+            output.writeInt(accessionCount);
+            offset = 0;
+            for (int[] ids : rowAccessionIds) {
+                output.writeInt(offset);
+                offset += ids.length;
+            }
+            for (int[] ids : rowAccessionIds) {
+                for (int id : ids) {
+                    output.writeInt(id);
+                }
+            }
+        }
+        System.out.println("Finished writing to " + outputFile);
+    }
+
+    /**
+     * Returns the dictionary id of a value and adds the value if it is new.
+     *
+     * @param value value to look up.
+     * @param ids dictionary ids with the value as key.
+     * @param dictionary values in order of their id.
+     * @return dictionary id.
+     */
+    private int getId(final String value, final HashMap<String, Integer> ids, final ArrayList<String> dictionary) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            ids.put(value, id);
+            dictionary.add(value);
+        }
+        return id;
+    }
+
+    /**
+     * Splits the colon separated accessions of a row. Empty accessions are kept, so joining the result with colons
+     * gives the original String.
+     *
+     * @param accessions colon separated accessions.
+     * @return array of accessions, empty if the String is empty.
+     */
+    private String[] splitAccessions(final String accessions) {
+        if (accessions == null || accessions.isEmpty()) {
+            return new String[0];
+        }
+        return accessions.split(":", -1);
+    }
+
+    /**
+     * Writes a dictionary as the amount of values followed by the length and UTF-8 bytes of each value.
+     *
+     * @param output output stream.
+     * @param dictionary values in order of their id.
+     * @throws IOException could not write to the file.
+     */
+    private void writeDictionary(final DataOutputStream output, final List<String> dictionary) throws IOException {
+        output.writeInt(dictionary.size());
+        for (String value : dictionary) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+}
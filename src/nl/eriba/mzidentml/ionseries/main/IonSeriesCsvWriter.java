@@ -4,18 +4,97 @@
  */
 package nl.eriba.mzidentml.ionseries.main;
 
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
 import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
 import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
-import nl.eriba.mzidentml.ionseries.tools.InputTools;
 
 /**
  * Generates a csv file with data from the MzIdentML files.
  *
+ * The csv file can be gzip compressed. Rows can be written one at a time, so the file can be written while the ion
+ * series are still being determined.
+ *
  * @author vnijenhuis
  */
-public class IonSeriesCsvWriter {
+public class IonSeriesCsvWriter implements IonSeriesWriter {
+
+    /**
+     * Amount of characters that are collected before they are written to the file.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Delimiter of the csv columns.
+     */
+    private static final String DELIMITER = ",";
+
+    /**
+     * Line ending of the csv rows.
+     */
+    private static final String LINE_ENDING = "\n";
+
+    /**
+     * True to gzip compress the csv file.
+     */
+    private final Boolean compressed;
+
+    /**
+     * Creates a writer for a plain text csv file.
+     */
+    public IonSeriesCsvWriter() {
+        this(false);
+    }
+
+    /**
+     * Creates a writer for a plain text or gzip compressed csv file.
+     *
+     * @param compressed true to gzip compress the csv file.
+     */
+    public IonSeriesCsvWriter(final Boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns the name of the csv file.
+     *
+     * @return ion-series.csv or ion-series.csv.gz if the file is compressed.
+     */
+    @Override
+    public final String getFileName() {
+        if (compressed) {
+            return "ion-series.csv.gz";
+        }
+        return "ion-series.csv";
+    }
+
+    /**
+     * Returns false, because separate threshold files have the columns of the output of a single threshold.
+     *
+     * @return false.
+     */
+    @Override
+    public final boolean keepsIntensityThreshold() {
+        return false;
+    }
+
+    /**
+     * Writes the output csv file.
+     *
+     * @param outputDirectory directory to write the file to
+     * @param matchedIonSeries collection of MatchedIonSeries objects.
+     * @throws java.io.IOException could not find or access the given file.
+     */
+    @Override
+    public final void write(final String outputDirectory, final MatchedIonSeriesCollection matchedIonSeries) throws IOException {
+        writeCsv(outputDirectory, matchedIonSeries);
+    }
 
     /**
      * Writes the output csv file.
@@ -25,27 +104,50 @@ public class IonSeriesCsvWriter {
      * @throws java.io.IOException could not find or access the given file.
      */
     public final void writeCsv(String outputDirectory, final MatchedIonSeriesCollection matchedIonSeries) throws IOException {
-        String outputFile = outputDirectory + "ion-series.csv";
-        InputTools test = new InputTools();
-        FileWriter writer;
-        if (test.isFile(outputFile)) {
-            writer = new FileWriter(outputFile, true);
-            System.out.println("Writing data to existing file: " + outputFile);
+        try (IonSeriesRowWriter rowWriter = open(outputDirectory + getFileName())) {
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                rowWriter.writeRow(ionSeries);
+            }
+        }
+    }
+
+    /**
+     * Opens a csv file for writing one row at a time. An existing file is replaced.
+     *
+     * @param outputFile path to the csv file.
+     * @return row writer of the csv file.
+     * @throws IOException could not create the file.
+     */
+    @Override
+    public final IonSeriesRowWriter open(final String outputFile) throws IOException {
+        System.out.println("Writing output to " + outputFile);
+        OutputStream output = new FileOutputStream(outputFile);
+        if (compressed) {
+            output = new GZIPOutputStream(output, BUFFER_SIZE);
         } else {
-            writer = new FileWriter(outputFile);
-            System.out.println("Writing output to " + outputFile);
+            output = new BufferedOutputStream(output, BUFFER_SIZE);
         }
-        String delimiter = ",";
-        String lineEnding = "\n";
-        String header = generateCsvHeader(lineEnding, delimiter);
-        writer.append(header);
-        for (MatchedIonSeries ionSeries : matchedIonSeries.getMatchedIonSeriesList()) {
-            String row = generateCsvRow(ionSeries, lineEnding, delimiter);
-            writer.append(row);
+        return new CsvRowWriter(outputFile, new OutputStreamWriter(output, Charset.defaultCharset()));
+    }
+
+    /**
+     * Writes the content of the row buffer to the writer and clears the buffer.
+     *
+     * @param writer writer of the output file.
+     * @param rows buffer with formatted rows.
+     * @param characters reusable character array.
+     * @return character array that was used, which is enlarged if the rows did not fit.
+     * @throws IOException could not write to the file.
+     */
+    private char[] writeBuffer(final Writer writer, final StringBuilder rows, final char[] characters) throws IOException {
+        char[] buffer = characters;
+        if (buffer.length < rows.length()) {
+            buffer = new char[rows.length()];
         }
-        writer.flush();
-        writer.close();
-        System.out.println("Finished writing to " + outputFile);
+        rows.getChars(0, rows.length(), buffer, 0);
+        writer.write(buffer, 0, rows.length());
+        rows.setLength(0);
+        return buffer;
     }
 
     /**
@@ -53,41 +155,121 @@ public class IonSeriesCsvWriter {
      *
      * @param lineEnding line ending for each csv row.
      * @param delimiter delimiter for each csv column.
+     * @param sweep true to add the intensity threshold column.
      * @return header of the csv file as String.
      */
-    private String generateCsvHeader(final String lineEnding, final String delimiter) {
+    private String generateCsvHeader(final String lineEnding, final String delimiter, final boolean sweep) {
         String header = "";
         header += "Peptide Sequence" + delimiter;
         header += "Peptide Score" + delimiter;
         header += "Complete Ion Series" + delimiter;
         header += "Ion Series Flag" + delimiter;
-        header += "Protein Acessions" + lineEnding;
+        header += "Protein Acessions";
+        if (sweep) {
+            header += delimiter + "Intensity Threshold";
+        }
+        header += lineEnding;
         return header;
     }
 
     /**
-     * Generates a data row for the csv file.
+     * Appends a data row for the csv file to the given buffer. Numbers are appended without creating intermediate
+     * Strings.
      *
+     * @param row buffer to append the row to.
      * @param matchedIonSeries MatchedIonSeries object with mzid ion series data.
      * @param lineEnding line ending for each csv row.
      * @param delimiter delimiter for each csv column.
-     * @return ScanID data row as String.
+     * @param sweep true to add the intensity threshold column.
      */
-    private String generateCsvRow(final MatchedIonSeries matchedIonSeries, final String lineEnding, final String delimiter) {
-        String row = "";
-        row += matchedIonSeries.getPeptideSequence() + delimiter;
-        row += matchedIonSeries.getPeptideScore() + delimiter;
+    private void appendCsvRow(final StringBuilder row, final MatchedIonSeries matchedIonSeries, final String lineEnding, final String delimiter,
+            final boolean sweep) {
+        row.append(matchedIonSeries.getPeptideSequence()).append(delimiter);
+        row.append(matchedIonSeries.getPeptideScore().doubleValue()).append(delimiter);
         //Each index of the ion series is added and separated by a :
-        for (int i = 0; i < matchedIonSeries.getFinalIonSeries().size(); i++) {
-            if (i == 0) {
-                row += matchedIonSeries.getFinalIonSeries().get(i);
-            } else {
-                row += ":" + matchedIonSeries.getFinalIonSeries().get(i);
+        int[] finalIonSeries = matchedIonSeries.getFinalIonSeriesIndices();
+        for (int i = 0; i < finalIonSeries.length; i++) {
+            if (i > 0) {
+                row.append(':');
+            }
+            row.append(finalIonSeries[i]);
+        }
+        row.append(delimiter);
+        row.append(matchedIonSeries.getIonSeriesFlag().intValue()).append(delimiter);
+        row.append(matchedIonSeries.getProteinAccessions());
+        if (sweep) {
+            row.append(delimiter).append(matchedIonSeries.getIntensityThreshold().doubleValue());
+        }
+        row.append(lineEnding);
+    }
+
+    /**
+     * Writes the rows of one csv file. The header is written with the first row, because results of an intensity
+     * threshold sweep get an extra column.
+     */
+    private final class CsvRowWriter implements IonSeriesRowWriter {
+
+        /**
+         * Path to the csv file.
+         */
+        private final String outputFile;
+
+        /**
+         * Writer of the csv file.
+         */
+        private final Writer writer;
+
+        /**
+         * Buffer with the formatted rows that are not written yet.
+         */
+        private final StringBuilder rows;
+
+        /**
+         * Reusable character array to write the buffer with.
+         */
+        private char[] characters;
+
+        /**
+         * True if the rows have an intensity threshold column or null if the header is not written yet.
+         */
+        private Boolean sweep;
+
+        /**
+         * Creates a row writer.
+         *
+         * @param outputFile path to the csv file.
+         * @param writer writer of the csv file.
+         */
+        private CsvRowWriter(final String outputFile, final Writer writer) {
+            this.outputFile = outputFile;
+            this.writer = writer;
+            //Rows are formatted into one reusable buffer which is written to the file in large blocks.
+            this.rows = new StringBuilder(BUFFER_SIZE + 1024);
+            this.characters = new char[BUFFER_SIZE + 1024];
+        }
+
+        @Override
+        public void writeRow(final MatchedIonSeries matchedIonSeries) throws IOException {
+            if (sweep == null) {
+                //Results of an intensity threshold sweep get an extra column with the threshold of each row.
+                sweep = matchedIonSeries.getIntensityThreshold() != null;
+                rows.append(generateCsvHeader(LINE_ENDING, DELIMITER, sweep));
+            }
+            appendCsvRow(rows, matchedIonSeries, LINE_ENDING, DELIMITER, sweep);
+            if (rows.length() >= BUFFER_SIZE) {
+                characters = writeBuffer(writer, rows, characters);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (Writer output = writer) {
+                if (sweep == null) {
+                    rows.append(generateCsvHeader(LINE_ENDING, DELIMITER, false));
+                }
+                writeBuffer(output, rows, characters);
             }
+            System.out.println("Finished writing to " + outputFile);
         }
-        row += delimiter;
-        row += matchedIonSeries.getIonSeriesFlag() + delimiter;
-        row += matchedIonSeries.getProteinAccessions() + lineEnding;
-        return row;
     }
 }
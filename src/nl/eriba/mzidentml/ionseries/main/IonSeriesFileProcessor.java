@@ -0,0 +1,600 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import javax.xml.stream.XMLStreamException;
+import nl.eriba.mzidentml.collections.ExternalSortSettings;
+import nl.eriba.mzidentml.collections.ExternalSorter;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.ionseries.identifiication.IonSeriesGenerator;
+import nl.eriba.mzidentml.ionseries.identifiication.IonSeriesSink;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+import nl.eriba.mzidentml.ionseries.tools.PipelineMetrics;
+import nl.eriba.mzidentml.ionseries.tools.PipelineMetrics.RunningStage;
+
+/**
+ * Determines the ion series of a single mzid file and writes them to the output directory of that file.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesFileProcessor {
+
+    /**
+     * Name of the directory within the output directory that receives the output files while they are written.
+     */
+    private static final String STAGING_DIRECTORY = ".partial";
+
+    /**
+     * Directory to write the output files to.
+     */
+    private final String outputDirectory;
+
+    /**
+     * Folder separator of the platform.
+     */
+    private final String separator;
+
+    /**
+     * User specified or standard minimum intensity threshold.
+     */
+    private final Double intensityThreshold;
+
+    /**
+     * Intensity thresholds that are determined in one pass over each file.
+     */
+    private List<Double> intensityThresholds;
+
+    /**
+     * True to write the results of each intensity threshold to separate files.
+     */
+    private boolean separateThresholdFiles;
+
+    /**
+     * Amount of threads used per file.
+     */
+    private final Integer threads;
+
+    /**
+     * True to stream the SpectrumIdentificationResult elements of each file.
+     */
+    private final Boolean streaming;
+
+    /**
+     * Writers of the output files.
+     */
+    private final List<IonSeriesWriter> writers;
+
+    /**
+     * Cache of the output files of processed mzid files or null if no cache is used.
+     */
+    private IonSeriesResultCache resultCache;
+
+    /**
+     * Thread pool that is shared by all files or null to create a thread pool per file.
+     */
+    private ExecutorService workerPool;
+
+    /**
+     * Type of store of the ion series of each file: heap, offheap or mapped.
+     */
+    private String storeType = MatchedIonSeriesCollection.HEAP_STORE;
+
+    /**
+     * Maximum amount of rows that wait for the writer thread or null to collect all rows before they are written.
+     */
+    private Integer writeQueue;
+
+    /**
+     * Settings of the external sort of the output on peptide sequence or null to write the rows in identification
+     * order.
+     */
+    private ExternalSortSettings sortSettings;
+
+    /**
+     * Creates a processor with the given settings that writes the ion series to a csv file.
+     *
+     * @param outputDirectory directory to write the output files to.
+     * @param separator folder separator of the platform.
+     * @param intensityThreshold user specified or standard minimum intensity threshold.
+     * @param threads amount of threads used per file.
+     * @param streaming true to stream the SpectrumIdentificationResult elements of each file.
+     */
+    public IonSeriesFileProcessor(final String outputDirectory, final String separator, final Double intensityThreshold, final Integer threads,
+            final Boolean streaming) {
+        this(outputDirectory, separator, intensityThreshold, threads, streaming, Collections.<IonSeriesWriter>singletonList(new IonSeriesCsvWriter()));
+    }
+
+    /**
+     * Creates a processor with the given settings and output writers.
+     *
+     * @param outputDirectory directory to write the output files to.
+     * @param separator folder separator of the platform.
+     * @param intensityThreshold user specified or standard minimum intensity threshold.
+     * @param threads amount of threads used per file.
+     * @param streaming true to stream the SpectrumIdentificationResult elements of each file.
+     * @param writers writers of the output files.
+     */
+    public IonSeriesFileProcessor(final String outputDirectory, final String separator, final Double intensityThreshold, final Integer threads,
+            final Boolean streaming, final List<IonSeriesWriter> writers) {
+        this.outputDirectory = outputDirectory;
+        this.separator = separator;
+        this.intensityThreshold = intensityThreshold;
+        this.intensityThresholds = Collections.singletonList(intensityThreshold);
+        this.separateThresholdFiles = false;
+        this.threads = threads;
+        this.streaming = streaming;
+        this.writers = new ArrayList<>(writers);
+    }
+
+    /**
+     * Determines the ion series of the given mzid file and writes them with each writer. The measurements of each stage
+     * are written to a metrics file in the same directory. If a result cache is set and it contains the output of this
+     * file and settings, the output is restored from the cache instead.
+     *
+     * All output is first written to a staging directory and then moved into the output directory, replacing the
+     * output of earlier runs. An interrupted run therefore never leaves partial output files behind.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return output directory of the mzid file.
+     * @throws InterruptedException process was interrupted by another task.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException could not read the mzid file or write the output file.
+     * @throws XMLStreamException the mzid file does not contain valid xml.
+     */
+    public final String process(final String mzidFile) throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        String directory = generateOutputDirectory(mzidFile);
+        Path stagingPath = createStagingDirectory(directory);
+        String stagingDirectory = stagingPath.toString() + File.separator;
+        try {
+            PipelineMetrics metrics = new PipelineMetrics();
+            List<String> fileNames = getFileNames();
+            String cacheKey = null;
+            boolean restored = false;
+            if (resultCache != null) {
+                RunningStage cacheStage = metrics.startStage("cache lookup");
+                cacheKey = resultCache.createKey(mzidFile, intensityThresholds, streaming, fileNames, sortSettings != null);
+                try {
+                    restored = resultCache.restore(cacheKey, stagingDirectory, fileNames);
+                } catch (IOException e) {
+                    System.out.println("WARNING: could not restore the output of file " + mzidFile + " from the cache. Error: " + e);
+                    clearDirectory(stagingPath);
+                }
+                metrics.finishStage(cacheStage, restored ? fileNames.size() : 0);
+            }
+            if (restored) {
+                System.out.println("Restored the output of file " + mzidFile + " from the cache.");
+            } else {
+                System.out.println("Processing file " + mzidFile);
+                IonSeriesGenerator generator = new IonSeriesGenerator(null, null, intensityThreshold);
+                generator.setWorkerPool(workerPool);
+                generator.setStoreType(storeType);
+                //Sorted output is collected by the external sort instead of in memory.
+                if (writeQueue != null || sortSettings != null) {
+                    writeWhileMatching(generator, mzidFile, stagingPath, metrics);
+                } else {
+                    MatchedIonSeriesCollection generateIonSeries = generator.generateIonSeries(mzidFile, intensityThresholds, threads, streaming,
+                            metrics);
+                    writeCollection(stagingPath, generateIonSeries, metrics);
+                }
+            }
+            //The measurements of each stage are written next to the ion series output files.
+            metrics.writeCsv(stagingDirectory);
+            commitOutput(stagingPath, Paths.get(directory));
+            if (resultCache != null && !restored) {
+                try {
+                    resultCache.store(cacheKey, directory, fileNames);
+                } catch (IOException e) {
+                    System.out.println("WARNING: could not store the output of file " + mzidFile + " in the cache. Error: " + e);
+                }
+            }
+        } finally {
+            clearDirectory(stagingPath);
+            Files.deleteIfExists(stagingPath);
+        }
+        return directory;
+    }
+
+    /**
+     * Writes the collected ion series with each writer.
+     *
+     * @param stagingPath staging directory.
+     * @param matchedIonSeries results of the mzid file.
+     * @param metrics recorder for the measurements of each stage.
+     * @throws IOException could not write a file.
+     */
+    private void writeCollection(final Path stagingPath, final MatchedIonSeriesCollection matchedIonSeries, final PipelineMetrics metrics)
+            throws IOException {
+        if (separateThresholdFiles) {
+            writeThresholdFiles(stagingPath, matchedIonSeries, metrics);
+        } else {
+            String stagingDirectory = stagingPath.toString() + File.separator;
+            for (IonSeriesWriter writer : writers) {
+                RunningStage writeStage = metrics.startStage("write " + writer.getFileName());
+                writer.write(stagingDirectory, matchedIonSeries);
+                metrics.finishStage(writeStage, matchedIonSeries.size());
+            }
+        }
+    }
+
+    /**
+     * Determines the ion series and writes them at the same time. The results pass through a bounded queue to a writer
+     * thread, so they are never all kept in memory. If the output is sorted, the results are first collected by an
+     * external sort, which spills sorted runs to disk, and the merged runs are then passed to the writer thread. Without
+     * a write queue size, the queue has the default capacity.
+     *
+     * @param generator generator of the ion series.
+     * @param mzidFile path to the mzid file.
+     * @param stagingPath staging directory.
+     * @param metrics recorder for the measurements of each stage.
+     * @throws InterruptedException process was interrupted by another task.
+     * @throws ExecutionException an ion series task failed.
+     * @throws IOException could not read the mzid file or write the output files.
+     * @throws XMLStreamException the mzid file does not contain valid xml.
+     */
+    private void writeWhileMatching(final IonSeriesGenerator generator, final String mzidFile, final Path stagingPath, final PipelineMetrics metrics)
+            throws InterruptedException, ExecutionException, IOException, XMLStreamException {
+        Integer capacity = writeQueue;
+        if (capacity == null) {
+            capacity = QueuedIonSeriesSink.DEFAULT_CAPACITY;
+        }
+        QueuedIonSeriesSink sink = new QueuedIonSeriesSink(openRowWriters(stagingPath), capacity);
+        boolean finished = false;
+        ExternalSorter<MatchedIonSeries> sorter = null;
+        try {
+            if (sortSettings == null) {
+                generator.generateIonSeries(mzidFile, intensityThresholds, threads, streaming, metrics, sink);
+            } else {
+                sorter = MatchedIonSeriesCollection.createPeptideSequenceSorter(sortSettings);
+                final ExternalSorter<MatchedIonSeries> runSorter = sorter;
+                generator.generateIonSeries(mzidFile, intensityThresholds, threads, streaming, metrics, new IonSeriesSink() {
+                    @Override
+                    public void accept(final MatchedIonSeries matchedIonSeries) throws IOException, InterruptedException {
+                        runSorter.add(matchedIonSeries);
+                    }
+                });
+                RunningStage sortStage = metrics.startStage("sort");
+                sorter.sort();
+                long rows = 0;
+                MatchedIonSeries matchedIonSeries;
+                while ((matchedIonSeries = sorter.next()) != null) {
+                    sink.accept(matchedIonSeries);
+                    rows++;
+                }
+                metrics.finishStage(sortStage, rows);
+            }
+            //Only the time the writer thread needs after the matching is finished is measured.
+            RunningStage writeStage = metrics.startStage("write queue");
+            long rows = sink.finish();
+            metrics.finishStage(writeStage, rows);
+            finished = true;
+        } finally {
+            if (!finished) {
+                sink.abort();
+            }
+            if (sorter != null) {
+                sorter.close();
+            }
+        }
+    }
+
+    /**
+     * Opens a row writer per output file in the staging directory. The writers of a threshold sweep with separate
+     * files only write the rows of their own threshold, without the threshold unless the writer keeps it.
+     *
+     * @param stagingPath staging directory.
+     * @return list of row writers.
+     * @throws IOException could not create an output file.
+     */
+    private List<IonSeriesRowWriter> openRowWriters(final Path stagingPath) throws IOException {
+        ArrayList<IonSeriesRowWriter> rowWriters = new ArrayList<>();
+        try {
+            if (separateThresholdFiles) {
+                for (final Double threshold : intensityThresholds) {
+                    for (IonSeriesWriter writer : writers) {
+                        String fileName = getThresholdFileName(writer.getFileName(), threshold);
+                        final IonSeriesRowWriter rowWriter = writer.open(stagingPath.resolve(fileName).toString());
+                        final boolean keepThreshold = writer.keepsIntensityThreshold();
+                        rowWriters.add(new IonSeriesRowWriter() {
+                            @Override
+                            public void writeRow(final MatchedIonSeries matchedIonSeries) throws IOException {
+                                if (threshold.equals(matchedIonSeries.getIntensityThreshold())) {
+                                    rowWriter.writeRow(keepThreshold ? matchedIonSeries : matchedIonSeries.withoutIntensityThreshold());
+                                }
+                            }
+
+                            @Override
+                            public void close() throws IOException {
+                                rowWriter.close();
+                            }
+                        });
+                    }
+                }
+            } else {
+                for (IonSeriesWriter writer : writers) {
+                    rowWriters.add(writer.open(stagingPath.resolve(writer.getFileName()).toString()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (IonSeriesRowWriter rowWriter : rowWriters) {
+                try {
+                    rowWriter.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+        return rowWriters;
+    }
+
+    /**
+     * Writes the results of each intensity threshold of a sweep to files of their own. Each writer writes to its own
+     * file name, after which the file is renamed to the file name of the threshold. The results are written without
+     * their threshold, unless the writer keeps it.
+     *
+     * @param stagingPath staging directory.
+     * @param matchedIonSeries results of all intensity thresholds.
+     * @param metrics recorder for the measurements of each stage.
+     * @throws IOException could not write or rename a file.
+     */
+    private void writeThresholdFiles(final Path stagingPath, final MatchedIonSeriesCollection matchedIonSeries, final PipelineMetrics metrics)
+            throws IOException {
+        String stagingDirectory = stagingPath.toString() + File.separator;
+        for (Double threshold : intensityThresholds) {
+            MatchedIonSeriesCollection thresholdIonSeries = null;
+            MatchedIonSeriesCollection strippedIonSeries = null;
+            for (IonSeriesWriter writer : writers) {
+                MatchedIonSeriesCollection writerIonSeries;
+                if (writer.keepsIntensityThreshold()) {
+                    if (thresholdIonSeries == null) {
+                        thresholdIonSeries = selectThreshold(matchedIonSeries, threshold, true);
+                    }
+                    writerIonSeries = thresholdIonSeries;
+                } else {
+                    if (strippedIonSeries == null) {
+                        strippedIonSeries = selectThreshold(matchedIonSeries, threshold, false);
+                    }
+                    writerIonSeries = strippedIonSeries;
+                }
+                String fileName = getThresholdFileName(writer.getFileName(), threshold);
+                RunningStage writeStage = metrics.startStage("write " + fileName);
+                writer.write(stagingDirectory, writerIonSeries);
+                Files.move(stagingPath.resolve(writer.getFileName()), stagingPath.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+                metrics.finishStage(writeStage, writerIonSeries.size());
+            }
+        }
+    }
+
+    /**
+     * Selects the results of one intensity threshold of a sweep.
+     *
+     * @param matchedIonSeries results of all intensity thresholds.
+     * @param threshold intensity threshold to select.
+     * @param keepThreshold true to keep the threshold of the results, false to remove it.
+     * @return collection with the results of the threshold.
+     */
+    private MatchedIonSeriesCollection selectThreshold(final MatchedIonSeriesCollection matchedIonSeries, final Double threshold,
+            final boolean keepThreshold) {
+        MatchedIonSeriesCollection thresholdIonSeries = new MatchedIonSeriesCollection(matchedIonSeries.getStoreType());
+        for (MatchedIonSeries ionSeries : matchedIonSeries) {
+            if (threshold.equals(ionSeries.getIntensityThreshold())) {
+                thresholdIonSeries.addMatchedIonSeries(keepThreshold ? ionSeries : ionSeries.withoutIntensityThreshold());
+            }
+        }
+        return thresholdIonSeries;
+    }
+
+    /**
+     * Returns the file name of the output of a single intensity threshold.
+     *
+     * @param fileName file name of the writer.
+     * @param threshold intensity threshold.
+     * @return file name with the threshold before the extension, for example ion-series-0.1.csv.
+     */
+    private String getThresholdFileName(final String fileName, final Double threshold) {
+        int extension = fileName.indexOf('.');
+        if (extension < 0) {
+            return fileName + "-" + threshold;
+        }
+        return fileName.substring(0, extension) + "-" + threshold + fileName.substring(extension);
+    }
+
+    /**
+     * Creates an empty staging directory within the output directory. Files left behind by an interrupted run are
+     * removed.
+     *
+     * @param directory output directory of the mzid file.
+     * @return path to the staging directory.
+     * @throws IOException could not create the staging directory.
+     */
+    private Path createStagingDirectory(final String directory) throws IOException {
+        Path stagingPath = Paths.get(directory, STAGING_DIRECTORY);
+        if (Files.isDirectory(stagingPath)) {
+            clearDirectory(stagingPath);
+        } else {
+            Files.createDirectories(stagingPath);
+        }
+        return stagingPath;
+    }
+
+    /**
+     * Moves the files of the staging directory to the output directory. Each file replaces the file of an earlier run
+     * in a single rename.
+     *
+     * @param stagingPath staging directory.
+     * @param outputPath output directory.
+     * @throws IOException could not move a file.
+     */
+    private void commitOutput(final Path stagingPath, final Path outputPath) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingPath)) {
+            for (Path file : files) {
+                Files.move(file, outputPath.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files in a directory.
+     *
+     * @param directory directory to clear.
+     * @throws IOException could not delete a file.
+     */
+    private void clearDirectory(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the output files of the writers.
+     *
+     * @return list of file names.
+     */
+    public final List<String> getFileNames() {
+        ArrayList<String> fileNames = new ArrayList<>(writers.size());
+        if (separateThresholdFiles) {
+            for (Double threshold : intensityThresholds) {
+                for (IonSeriesWriter writer : writers) {
+                    fileNames.add(getThresholdFileName(writer.getFileName(), threshold));
+                }
+            }
+        } else {
+            for (IonSeriesWriter writer : writers) {
+                fileNames.add(writer.getFileName());
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * Returns the settings that change the output files: the intensity thresholds, the output files, streaming and
+     * sorting. Output of earlier runs is only reused if it was created with the same settings.
+     *
+     * @return settings as String.
+     */
+    public final String getSettings() {
+        return IonSeriesResultCache.createSettings(intensityThresholds, streaming, getFileNames(), sortSettings != null);
+    }
+
+    /**
+     * Sets the intensity thresholds of a sweep. Each file is read once and its ion series are determined for every
+     * threshold. The results are written either to one set of files with an intensity threshold column or to a set
+     * of files per threshold.
+     *
+     * @param intensityThresholds intensity thresholds of the sweep.
+     * @param separateFiles true to write the results of each threshold to separate files, false to add a column.
+     */
+    public final void setIntensitySweep(final List<Double> intensityThresholds, final Boolean separateFiles) {
+        if (intensityThresholds == null || intensityThresholds.isEmpty()) {
+            this.intensityThresholds = Collections.singletonList(intensityThreshold);
+            this.separateThresholdFiles = false;
+        } else {
+            this.intensityThresholds = new ArrayList<>(intensityThresholds);
+            this.separateThresholdFiles = separateFiles && intensityThresholds.size() > 1;
+        }
+    }
+
+    /**
+     * Sets the cache that is used to skip mzid files that were processed before with the same settings.
+     *
+     * @param resultCache cache of the output files or null to process every file.
+     */
+    public final void setResultCache(final IonSeriesResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets a thread pool that is shared by all files, so files that are processed at the same time do not each start
+     * a thread pool of their own.
+     *
+     * @param workerPool shared thread pool or null to create a thread pool per file.
+     */
+    public final void setWorkerPool(final ExecutorService workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Sets the type of store of the ion series of each file. The offheap and mapped stores keep the results in
+     * columns outside of the heap until they are written.
+     *
+     * @param storeType heap, offheap or mapped.
+     */
+    public final void setStoreType(final String storeType) {
+        this.storeType = storeType;
+    }
+
+    /**
+     * Sets the size of the queue between the matching and the writing of the ion series. With a queue, the output
+     * files are written while the file is still being matched and the results are not collected in memory.
+     *
+     * @param writeQueue maximum amount of rows that wait for the writer thread or null to collect all rows first.
+     */
+    public final void setWriteQueue(final Integer writeQueue) {
+        this.writeQueue = writeQueue;
+    }
+
+    /**
+     * Sets the external sort of the output. The ion series of each file are then written in order of their peptide
+     * sequence instead of in identification order. The ion series are passed to the external sort while the file is
+     * matched, so runs that do not fit in memory are spilled to disk and merged, and then written through the write
+     * queue.
+     *
+     * @param sortSettings run size, directory of the run files and amount of sort threads, or null to not sort.
+     */
+    public final void setSortSettings(final ExternalSortSettings sortSettings) {
+        this.sortSettings = sortSettings;
+    }
+
+    /**
+     * Returns true if the SpectrumIdentificationResult elements are streamed.
+     *
+     * @return true if streaming is used, else false.
+     */
+    public final Boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Generates an output directory to write files to.
+     *
+     * @param file file name.
+     * @return output directory as String.
+     * @throws IOException could not create the output directory.
+     */
+    private String generateOutputDirectory(final String file) throws IOException {
+        String[] split = file.split(separator);
+        String fileName = split[split.length - 1];
+        fileName = fileName.substring(0, fileName.indexOf(".mzid"));
+        String folder = split[split.length - 2];
+        //Generate directory if it does not exist.
+        String directory = outputDirectory + folder + separator + fileName + separator;
+        Path path = Paths.get(directory);
+        if (!Files.exists(path)) {
+            try {
+                Files.createDirectories(path);
+            } catch (IOException e) {
+                throw new IOException("Could not create a directory for the given mzid file: " + file + " at path: " + path, e);
+            }
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import nl.eriba.mzidentml.ionseries.tools.InputTools;
+
+/**
+ * Processes multiple mzid files at the same time within a global memory budget.
+ *
+ * Files are started largest first. Each file reserves an estimate of the memory it needs from the budget before it
+ * starts and releases it when it is finished. A file that fails is reported and does not stop the other files. Files
+ * that finish are recorded in the batch journal and their peptide counts are added to the aggregator, if these are
+ * set.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesFileScheduler {
+
+    /**
+     * Estimated heap usage per byte of mzid file when the SpectrumIdentificationList is unmarshalled.
+     */
+    private static final int UNMARSHAL_MEMORY_FACTOR = 4;
+
+    /**
+     * Estimated heap usage per byte of mzid file when the SpectrumIdentificationResult elements are streamed.
+     */
+    private static final int STREAMING_MEMORY_FACTOR = 1;
+
+    /**
+     * Estimated compression ratio of gzip and zstd compressed mzid files.
+     */
+    private static final int COMPRESSION_RATIO = 8;
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * Processor that handles a single mzid file.
+     */
+    private final IonSeriesFileProcessor processor;
+
+    /**
+     * Maximum amount of files that are processed at the same time.
+     */
+    private final int parallelFiles;
+
+    /**
+     * Memory budget in megabytes.
+     */
+    private final int memoryBudget;
+
+    /**
+     * Journal that records the completed files or null if no journal is kept.
+     */
+    private IonSeriesBatchJournal journal;
+
+    /**
+     * Aggregator that receives the peptide counts of each finished file or null if the counts are not aggregated.
+     */
+    private IonSeriesAggregator aggregator;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param processor processor that handles a single mzid file.
+     * @param parallelFiles maximum amount of files that are processed at the same time.
+     * @param memoryBudget memory budget in megabytes for all files that are processed at the same time.
+     */
+    public IonSeriesFileScheduler(final IonSeriesFileProcessor processor, final Integer parallelFiles, final Integer memoryBudget) {
+        this.processor = processor;
+        this.parallelFiles = Math.max(1, parallelFiles);
+        this.memoryBudget = Math.max(1, memoryBudget);
+    }
+
+    /**
+     * Sets the journal that records each file that was processed completely.
+     *
+     * @param journal batch journal or null to keep no journal.
+     */
+    public final void setJournal(final IonSeriesBatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the aggregator that receives the peptide counts of each file as soon as the file is finished.
+     *
+     * @param aggregator peptide aggregator or null to not aggregate the counts.
+     */
+    public final void setAggregator(final IonSeriesAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * Returns the default memory budget: three quarters of the maximum heap size.
+     *
+     * @return memory budget in megabytes.
+     */
+    public static Integer getDefaultMemoryBudget() {
+        return (int) (Runtime.getRuntime().maxMemory() / MEGABYTE * 3 / 4);
+    }
+
+    /**
+     * Processes the given mzid files.
+     *
+     * @param mzidFiles paths to the mzid files.
+     * @return amount of files that failed.
+     * @throws InterruptedException process was interrupted while waiting for the files to finish.
+     */
+    public final int processFiles(final List<String> mzidFiles) throws InterruptedException {
+        ArrayList<String> orderedFiles = new ArrayList<>(mzidFiles);
+        HashMap<String, Long> fileSizes = new HashMap<>();
+        for (String mzidFile : orderedFiles) {
+            fileSizes.put(mzidFile, getFileSize(mzidFile));
+        }
+        Collections.sort(orderedFiles, largestFirstComparator(fileSizes));
+        final Semaphore memory = new Semaphore(memoryBudget, true);
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final int total = orderedFiles.size();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelFiles);
+        try {
+            for (final String mzidFile : orderedFiles) {
+                final int reservation = getMemoryReservation(fileSizes.get(mzidFile), processor.isStreaming(), memoryBudget);
+                memory.acquire(reservation);
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            long start = System.nanoTime();
+                            //The journal records the state the file had when it was read.
+                            File file = new File(mzidFile);
+                            long fileSize = file.length();
+                            long lastModified = file.lastModified();
+                            try {
+                                String outputDirectory = processor.process(mzidFile);
+                                if (journal != null) {
+                                    journal.recordCompleted(mzidFile, fileSize, lastModified, outputDirectory, processor.getFileNames());
+                                }
+                                if (aggregator != null) {
+                                    aggregator.addFile(outputDirectory, processor.getFileNames());
+                                }
+                                System.out.println("Finished file " + mzidFile + " (" + finished.incrementAndGet() + " of " + total + ") in "
+                                        + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " seconds.");
+                            } catch (Exception | OutOfMemoryError e) {
+                                failed.incrementAndGet();
+                                System.out.println("WARNING: processing of file " + mzidFile + " failed (" + finished.incrementAndGet() + " of " + total
+                                        + ").\nError: " + e);
+                            } finally {
+                                memory.release(reservation);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    memory.release(reservation);
+                    throw e;
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for " + (total - finished.get()) + " mzid file(s) to finish...");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    /**
+     * Returns the size of an mzid file in bytes. Memory usage depends on the decompressed size, which is estimated for
+     * compressed files.
+     *
+     * @param mzidFile path to the mzid file.
+     * @return (estimated) decompressed size in bytes.
+     */
+    public static long getFileSize(final String mzidFile) {
+        long fileSize = new File(mzidFile).length();
+        if (new InputTools().isCompressed(mzidFile)) {
+            fileSize *= COMPRESSION_RATIO;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Estimates the memory a file needs in megabytes. The estimate is limited to the memory budget, so a file that is
+     * larger than the budget is processed on its own.
+     *
+     * @param fileSize (estimated) decompressed size of the mzid file in bytes.
+     * @param streaming true if the SpectrumIdentificationResult elements are streamed.
+     * @param memoryBudget memory budget in megabytes.
+     * @return memory reservation in megabytes.
+     */
+    public static int getMemoryReservation(final long fileSize, final Boolean streaming, final int memoryBudget) {
+        int factor = UNMARSHAL_MEMORY_FACTOR;
+        if (streaming) {
+            factor = STREAMING_MEMORY_FACTOR;
+        }
+        long estimate = fileSize * factor / MEGABYTE + 1;
+        return (int) Math.min(estimate, memoryBudget);
+    }
+
+    /**
+     * Compares files on size, largest first.
+     *
+     * @param fileSizes size of each file in bytes.
+     * @return comparator for file paths.
+     */
+    static Comparator<String> largestFirstComparator(final Map<String, Long> fileSizes) {
+        return new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Long.compare(fileSizes.get(o2), fileSizes.get(o1));
+            }
+        };
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import nl.eriba.mzidentml.ionseries.tools.InputTools;
+
+/**
+ * Watches directories for new mzid files and processes them as they arrive.
+ *
+ * The watched directories and their sample folders are registered with a WatchService. A new or changed mzid file is
+ * queued once its size and modification time have not changed for a few seconds, so files that are still being copied
+ * are not read. Files are processed by a fixed amount of threads and each file reserves an estimate of the memory it
+ * needs from the memory budget before it starts, like in the IonSeriesFileScheduler. Processed files are recorded in the batch journal of the output
+ * directory. Files that the journal lists as completed and that did not change since are not processed again, also
+ * not after a restart of the watcher. A file that changes while it is being processed is processed again once it is
+ * finished and has settled.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesFolderWatcher {
+
+    /**
+     * Time a file must stay unchanged before it is processed.
+     */
+    private static final long SETTLE_TIME = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Maximum time to wait for new events before the pending files are checked.
+     */
+    private static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Directories that receive the mzid files, either directly or in a sample folder.
+     */
+    private final List<Path> watchDirectories;
+
+    /**
+     * Processor that handles a single mzid file.
+     */
+    private final IonSeriesFileProcessor processor;
+
+    /**
+     * Journal that records the completed files.
+     */
+    private final IonSeriesBatchJournal journal;
+
+    /**
+     * Maximum amount of files that are processed at the same time.
+     */
+    private final int parallelFiles;
+
+    /**
+     * Memory budget in megabytes for the files that are processed at the same time.
+     */
+    private final int memoryBudget;
+
+    /**
+     * Files that were seen but have not been submitted yet, with their last known state. A file that changes while it
+     * is being processed stays here and is submitted again when it is finished.
+     */
+    private final HashMap<Path, PendingFile> pendingFiles;
+
+    /**
+     * Files that are queued or being processed.
+     */
+    private final Set<Path> activeFiles;
+
+    /**
+     * Files that changed while they were processed and must be added to the pending files again.
+     */
+    private final Queue<Path> changedFiles;
+
+    /**
+     * Checks the file extensions.
+     */
+    private final InputTools inputTools;
+
+    /**
+     * Creates a watcher for the given directories.
+     *
+     * @param watchDirectories directories that receive the mzid files, either directly or in a sample folder.
+     * @param processor processor that handles a single mzid file.
+     * @param journal journal that records the completed files.
+     * @param parallelFiles maximum amount of files that are processed at the same time.
+     * @param memoryBudget memory budget in megabytes for the files that are processed at the same time.
+     */
+    public IonSeriesFolderWatcher(final List<String> watchDirectories, final IonSeriesFileProcessor processor, final IonSeriesBatchJournal journal,
+            final Integer parallelFiles, final Integer memoryBudget) {
+        this.watchDirectories = new ArrayList<>();
+        for (String directory : watchDirectories) {
+            this.watchDirectories.add(Paths.get(directory).toAbsolutePath());
+        }
+        this.processor = processor;
+        this.journal = journal;
+        this.parallelFiles = Math.max(1, parallelFiles);
+        this.memoryBudget = Math.max(1, memoryBudget);
+        this.pendingFiles = new HashMap<>();
+        this.activeFiles = Collections.synchronizedSet(new HashSet<Path>());
+        this.changedFiles = new ConcurrentLinkedQueue<>();
+        this.inputTools = new InputTools();
+    }
+
+    /**
+     * Watches the directories until the thread is interrupted. Files that are being processed at that moment are
+     * finished first.
+     *
+     * @throws IOException could not watch a directory.
+     */
+    public final void run() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelFiles);
+        Semaphore memory = new Semaphore(memoryBudget, true);
+        final AtomicInteger finished = new AtomicInteger();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (Path directory : watchDirectories) {
+                registerDirectory(watchService, directory);
+            }
+            System.out.println("Watching " + watchDirectories + " for new mzid files...");
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                try {
+                    key = watchService.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (key != null) {
+                    handleEvents(watchService, key);
+                }
+                submitSettledFiles(executor, memory, finished);
+            }
+        } finally {
+            executor.shutdown();
+            System.out.println("Stopped watching. Waiting for " + activeFiles.size() + " mzid file(s) to finish...");
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    System.out.println("Waiting for " + activeFiles.size() + " mzid file(s) to finish...");
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Handles the events of a watched directory.
+     *
+     * @param watchService watch service of the directories.
+     * @param key key of the directory with pending events.
+     * @throws IOException could not register a new sample folder.
+     */
+    private void handleEvents(final WatchService watchService, final WatchKey key) throws IOException {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //Events were lost, so the files of the directory are checked once.
+                scanDirectory(directory);
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context());
+            if (Files.isDirectory(file)) {
+                if (watchDirectories.contains(directory)) {
+                    registerDirectory(watchService, file);
+                }
+            } else if (inputTools.isMzID(file.toString())) {
+                addPendingFile(file);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Registers a directory and its sample folders and adds the mzid files that are already present.
+     *
+     * @param watchService watch service of the directories.
+     * @param directory directory to register.
+     * @throws IOException could not register the directory.
+     */
+    private void registerDirectory(final WatchService watchService, final Path directory) throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        if (watchDirectories.contains(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    if (Files.isDirectory(file)) {
+                        file.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        scanDirectory(file);
+                    }
+                }
+            }
+        }
+        scanDirectory(directory);
+    }
+
+    /**
+     * Adds the mzid files of a directory to the pending files. Files that are completed are skipped when they settle.
+     *
+     * @param directory directory to scan.
+     * @throws IOException could not read the directory.
+     */
+    private void scanDirectory(final Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && inputTools.isMzID(file.toString())) {
+                    addPendingFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a file to the pending files or restarts its settle time if it changed. Files that are being processed are
+     * added as well, so changes that land during processing are not lost.
+     *
+     * @param file mzid file.
+     */
+    private void addPendingFile(final Path file) {
+        PendingFile state = new PendingFile(file);
+        PendingFile previous = pendingFiles.get(file);
+        if (previous == null || !previous.hasSameState(state)) {
+            pendingFiles.put(file, state);
+        }
+    }
+
+    /**
+     * Submits the pending files that did not change during the settle time. Files that are still being processed stay
+     * pending until they are finished.
+     *
+     * @param executor thread pool that processes the files.
+     * @param memory memory budget in megabytes that is left.
+     * @param finished counter of the processed files.
+     */
+    private void submitSettledFiles(final ExecutorService executor, final Semaphore memory, final AtomicInteger finished) {
+        Path changedFile;
+        while ((changedFile = changedFiles.poll()) != null) {
+            addPendingFile(changedFile);
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            final Path file = entry.getKey();
+            PendingFile current = new PendingFile(file);
+            if (!Files.isRegularFile(file)) {
+                iterator.remove();
+            } else if (!current.hasSameState(entry.getValue())) {
+                entry.setValue(current);
+            } else if (now - entry.getValue().seen >= SETTLE_TIME && !activeFiles.contains(file)) {
+                iterator.remove();
+                if (journal.isCompleted(file.toString())) {
+                    continue;
+                }
+                //The journal records the state the file had when it was read.
+                final PendingFile state = current;
+                final int reservation = IonSeriesFileScheduler.getMemoryReservation(IonSeriesFileScheduler.getFileSize(file.toString()),
+                        processor.isStreaming(), memoryBudget);
+                activeFiles.add(file);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //The memory is reserved by the worker, so the watch loop keeps handling events while a file waits.
+                        try {
+                            memory.acquire(reservation);
+                        } catch (InterruptedException e) {
+                            activeFiles.remove(file);
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        try {
+                            String outputDirectory = processor.process(file.toString());
+                            journal.recordCompleted(file.toString(), state.size, state.modified, outputDirectory, processor.getFileNames());
+                            System.out.println("Finished file " + file + " (" + finished.incrementAndGet() + " processed).");
+                        } catch (Exception | OutOfMemoryError e) {
+                            System.out.println("WARNING: processing of file " + file + " failed.\nError: " + e);
+                        } finally {
+                            memory.release(reservation);
+                            if (!new PendingFile(file).hasSameState(state)) {
+                                changedFiles.add(file);
+                            }
+                            activeFiles.remove(file);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Size and modification time of a file when it was last seen.
+     */
+    private static final class PendingFile {
+
+        /**
+         * Size of the file in bytes.
+         */
+        private final long size;
+
+        /**
+         * Modification time of the file in milliseconds.
+         */
+        private final long modified;
+
+        /**
+         * Time the file was seen in this state.
+         */
+        private final long seen;
+
+        /**
+         * Reads the current state of a file.
+         *
+         * @param file path to the file.
+         */
+        private PendingFile(final Path file) {
+            this.size = file.toFile().length();
+            this.modified = file.toFile().lastModified();
+            this.seen = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns true if the size and modification time are equal.
+         *
+         * @param other other state of the file.
+         * @return true if the file did not change, else false.
+         */
+        private boolean hasSameState(final PendingFile other) {
+            return size == other.size && modified == other.modified;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of the output files of processed mzid files.
+ *
+ * Each entry is a directory named after the SHA-256 hash of the mzid file content and the settings that change the
+ * output: tool version, output version, intensity thresholds, streaming and the output files. A cache hit copies the stored output files
+ * to the output directory, so the mzid file does not have to be parsed again. Entries are written to a temporary
+ * directory that is renamed when complete, so other processes never see a partial entry.
+ *
+ * Entries that were not used within the maximum age are removed, after which the least recently used entries are
+ * removed until the cache fits within the maximum size.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesResultCache {
+
+    /**
+     * Version of the tool as given in the jar manifest. Results of another version are not reused.
+     */
+    private static final String TOOL_VERSION = getToolVersion();
+
+    /**
+     * Version of the matching and output logic. The manifest version is not bumped by the build, so this version must
+     * be increased whenever a change alters the content of the output files. Results of another version are not
+     * reused.
+     */
+    static final int OUTPUT_VERSION = 3;
+
+    /**
+     * Marks the name of entries that are still being written.
+     */
+    private static final String TEMPORARY_MARKER = ".tmp";
+
+    /**
+     * Size of the buffer used to hash the mzid files.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * Directory that contains the cache entries.
+     */
+    private final Path cacheDirectory;
+
+    /**
+     * Maximum total size of the entries in bytes.
+     */
+    private final long maximumSize;
+
+    /**
+     * Maximum time in milliseconds since an entry was last used.
+     */
+    private final long maximumAge;
+
+    /**
+     * Creates a cache in the given directory. The directory is created if it does not exist.
+     *
+     * @param cacheDirectory directory that contains the cache entries.
+     * @param maximumSize maximum total size of the entries in megabytes.
+     * @param maximumAge maximum amount of days since an entry was last used.
+     * @throws IOException could not create the cache directory.
+     */
+    public IonSeriesResultCache(final String cacheDirectory, final Integer maximumSize, final Integer maximumAge) throws IOException {
+        this.cacheDirectory = Paths.get(cacheDirectory);
+        this.maximumSize = Math.max(0, maximumSize) * MEGABYTE;
+        this.maximumAge = TimeUnit.DAYS.toMillis(Math.max(0, maximumAge));
+        try {
+            Files.createDirectories(this.cacheDirectory);
+        } catch (IOException e) {
+            throw new IOException("Could not create the cache directory: " + cacheDirectory, e);
+        }
+    }
+
+    /**
+     * Creates the cache key of an mzid file and the settings it is processed with.
+     *
+     * @param mzidFile path to the mzid file.
+     * @param intensityThresholds intensity thresholds the file is processed with.
+     * @param streaming true if the SpectrumIdentificationResult elements are streamed, which changes the row order.
+     * @param fileNames names of the output files.
+     * @param sorted true if the output is sorted on peptide sequence.
+     * @return hexadecimal SHA-256 hash as String.
+     * @throws IOException could not read the mzid file.
+     */
+    public final String createKey(final String mzidFile, final List<Double> intensityThresholds, final Boolean streaming,
+            final List<String> fileNames, final Boolean sorted) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this Java runtime.", e);
+        }
+        try (InputStream input = new FileInputStream(mzidFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        digest.update(createSettings(intensityThresholds, streaming, fileNames, sorted).getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (byte value : digest.digest()) {
+            key.append(Character.forDigit((value >> 4) & 0xf, 16)).append(Character.forDigit(value & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Creates the description of the settings that change the output of an mzid file. The description is part of the
+     * cache key and of the batch journal records.
+     *
+     * @param intensityThresholds intensity thresholds the file is processed with.
+     * @param streaming true if the SpectrumIdentificationResult elements are streamed, which changes the row order.
+     * @param fileNames names of the output files.
+     * @param sorted true if the output is sorted on peptide sequence.
+     * @return settings as String.
+     */
+    static String createSettings(final List<Double> intensityThresholds, final Boolean streaming, final List<String> fileNames, final Boolean sorted) {
+        String intensity = intensityThresholds.toString();
+        if (intensityThresholds.size() == 1) {
+            //Entries of a single threshold keep the key they had before threshold sweeps were supported.
+            intensity = intensityThresholds.get(0).toString();
+        }
+        String settings = "version=" + TOOL_VERSION + ";output=" + OUTPUT_VERSION + ";intensity=" + intensity + ";streaming=" + streaming + ";files=" + fileNames;
+        if (sorted) {
+            //Unsorted entries keep the key they had before sorted output was supported.
+            settings += ";sorted=true";
+        }
+        return settings;
+    }
+
+    /**
+     * Copies the output files of a cache entry to the output directory. Existing output files are replaced.
+     *
+     * @param key cache key of the mzid file.
+     * @param outputDirectory directory to copy the output files to.
+     * @param fileNames names of the output files.
+     * @return true if the entry exists and its files were copied, else false.
+     * @throws IOException could not copy the output files.
+     */
+    public final boolean restore(final String key, final String outputDirectory, final List<String> fileNames) throws IOException {
+        Path entry = cacheDirectory.resolve(key);
+        if (!Files.isDirectory(entry)) {
+            return false;
+        }
+        for (String fileName : fileNames) {
+            if (!Files.isRegularFile(entry.resolve(fileName))) {
+                return false;
+            }
+        }
+        for (String fileName : fileNames) {
+            Files.copy(entry.resolve(fileName), Paths.get(outputDirectory, fileName), StandardCopyOption.REPLACE_EXISTING);
+        }
+        //The modification time of an entry is its last use.
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * Stores the output files of an mzid file and removes the entries that exceed the maximum age or size.
+     *
+     * @param key cache key of the mzid file.
+     * @param outputDirectory directory that contains the output files.
+     * @param fileNames names of the output files.
+     * @throws IOException could not copy the output files to the cache.
+     */
+    public final void store(final String key, final String outputDirectory, final List<String> fileNames) throws IOException {
+        Path entry = cacheDirectory.resolve(key);
+        if (Files.isDirectory(entry)) {
+            return;
+        }
+        Path temporaryEntry = Files.createTempDirectory(cacheDirectory, key + TEMPORARY_MARKER);
+        try {
+            for (String fileName : fileNames) {
+                Files.copy(Paths.get(outputDirectory, fileName), temporaryEntry.resolve(fileName));
+            }
+            Files.move(temporaryEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            //Another process stored the same entry first.
+        } catch (IOException e) {
+            if (!Files.isDirectory(entry)) {
+                throw e;
+            }
+        } finally {
+            if (Files.exists(temporaryEntry)) {
+                deleteEntry(temporaryEntry);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Removes the entries that were not used within the maximum age and then the least recently used entries until
+     * the total size is within the maximum size.
+     *
+     * @throws IOException could not read the cache directory.
+     */
+    public final synchronized void evict() throws IOException {
+        long now = System.currentTimeMillis();
+        final ArrayList<Path> entries = new ArrayList<>();
+        final ArrayList<Long> lastUsed = new ArrayList<>();
+        ArrayList<Long> sizes = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory)) {
+            for (Path entry : stream) {
+                if (!Files.isDirectory(entry)) {
+                    continue;
+                }
+                long modified = Files.getLastModifiedTime(entry).toMillis();
+                if (now - modified > maximumAge) {
+                    deleteEntry(entry);
+                } else if (!entry.getFileName().toString().contains(TEMPORARY_MARKER)) {
+                    long size = getEntrySize(entry);
+                    entries.add(entry);
+                    lastUsed.add(modified);
+                    sizes.add(size);
+                    totalSize += size;
+                }
+            }
+        }
+        ArrayList<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+            }
+        });
+        for (int i = 0; i < order.size() && totalSize > maximumSize; i++) {
+            deleteEntry(entries.get(order.get(i)));
+            totalSize -= sizes.get(order.get(i));
+        }
+    }
+
+    /**
+     * Returns the total size of the files of an entry.
+     *
+     * @param entry entry directory.
+     * @return size in bytes.
+     * @throws IOException could not read the entry.
+     */
+    private long getEntrySize(final Path entry) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes an entry directory and its files. An entry that is removed by another process at the same time is
+     * ignored.
+     *
+     * @param entry entry directory.
+     * @throws IOException could not delete the entry.
+     */
+    private void deleteEntry(final Path entry) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        Files.deleteIfExists(entry);
+    }
+
+    /**
+     * Returns the version of the tool from the jar manifest.
+     *
+     * @return implementation version or "development" when the classes are not run from the jar.
+     */
+    private static String getToolVersion() {
+        String version = IonSeriesResultCache.class.getPackage().getImplementationVersion();
+        if (version == null) {
+            version = "development";
+        }
+        return version;
+    }
+}
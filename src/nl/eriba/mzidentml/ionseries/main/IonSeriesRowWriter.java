@@ -0,0 +1,25 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+
+/**
+ * Writes the ion series of an mzid file one row at a time. The output file is complete once the writer is closed.
+ *
+ * @author vnijenhuis
+ */
+public interface IonSeriesRowWriter extends Closeable {
+
+    /**
+     * Writes the next row.
+     *
+     * @param matchedIonSeries MatchedIonSeries object.
+     * @throws IOException could not write the row.
+     */
+    void writeRow(MatchedIonSeries matchedIonSeries) throws IOException;
+}
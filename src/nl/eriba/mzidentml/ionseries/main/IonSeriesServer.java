@@ -0,0 +1,447 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import nl.eriba.mzidentml.collections.ExternalSortSettings;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.ionseries.tools.GeneralTools;
+import uk.ac.ebi.jmzidml.MzIdentMLElement;
+
+/**
+ * Long running server that processes jobs from a spool directory, so the JVM and the jmzIdentML configuration are
+ * loaded once for many batches.
+ *
+ * A job is a properties file with the .job extension that is placed in the spool directory. It contains the entry
+ * file (mzid), the output directory (output) and optionally the intensity threshold (intensity) and resume=true to
+ * continue an earlier run of the same job. Jobs without an intensity threshold use the threshold of the server. The sweep, store, write queue and sort settings of the server apply to all
+ * jobs. Jobs should be written under another name and then renamed to .job, so the
+ * server never reads a partial job.
+ *
+ * The server claims a job by renaming it to .running and writes the state of the job to a .status file. When the job
+ * is finished the job file is renamed to .done or .failed. Several jobs run at the same time and the ion series tasks
+ * of all jobs share one thread pool. The server stops after the running jobs when a file named stop is placed in the
+ * spool directory.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesServer {
+
+    /**
+     * Extension of submitted jobs.
+     */
+    public static final String JOB_EXTENSION = ".job";
+
+    /**
+     * Extension of jobs that are claimed by the server.
+     */
+    public static final String RUNNING_EXTENSION = ".running";
+
+    /**
+     * Extension of jobs that finished without failed files.
+     */
+    public static final String DONE_EXTENSION = ".done";
+
+    /**
+     * Extension of jobs that failed or had failed files.
+     */
+    public static final String FAILED_EXTENSION = ".failed";
+
+    /**
+     * Extension of the status file of a job.
+     */
+    public static final String STATUS_EXTENSION = ".status";
+
+    /**
+     * Name of the file that stops the server.
+     */
+    public static final String STOP_FILE = "stop";
+
+    /**
+     * Time between two scans of the spool directory.
+     */
+    private static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Directory that receives the jobs.
+     */
+    private final Path spoolDirectory;
+
+    /**
+     * Folder separator of the platform.
+     */
+    private final String separator;
+
+    /**
+     * Amount of threads of the shared thread pool.
+     */
+    private final Integer threads;
+
+    /**
+     * Intensity threshold of the jobs that do not set their own threshold.
+     */
+    private final Double intensityThreshold;
+
+    /**
+     * Maximum amount of jobs that run at the same time.
+     */
+    private final Integer parallelJobs;
+
+    /**
+     * Maximum amount of files per job that are processed at the same time.
+     */
+    private final Integer parallelFiles;
+
+    /**
+     * Memory budget in megabytes for all jobs.
+     */
+    private final Integer memoryBudget;
+
+    /**
+     * True to stream the SpectrumIdentificationResult elements of each file.
+     */
+    private final Boolean streaming;
+
+    /**
+     * Writers of the output files.
+     */
+    private final List<IonSeriesWriter> writers;
+
+    /**
+     * Cache of the output of processed mzid files or null if no cache is used.
+     */
+    private final IonSeriesResultCache resultCache;
+
+    /**
+     * Intensity thresholds of a sweep or null to use the intensity threshold of each job.
+     */
+    private List<Double> intensitySweep;
+
+    /**
+     * True to write the results of each intensity threshold of a sweep to separate files.
+     */
+    private Boolean separateSweepFiles = false;
+
+    /**
+     * Type of store of the ion series of each file: heap, offheap or mapped.
+     */
+    private String storeType = MatchedIonSeriesCollection.HEAP_STORE;
+
+    /**
+     * Maximum amount of rows that wait for the writer thread or null to collect all rows before they are written.
+     */
+    private Integer writeQueue;
+
+    /**
+     * Settings of the external sort of the output or null to write the rows in identification order.
+     */
+    private ExternalSortSettings sortSettings;
+
+    /**
+     * Creates a server for the given spool directory. The directory is created if it does not exist.
+     *
+     * @param spoolDirectory directory that receives the jobs.
+     * @param separator folder separator of the platform.
+     * @param intensityThreshold intensity threshold of the jobs that do not set their own threshold.
+     * @param threads amount of threads of the thread pool that is shared by all jobs.
+     * @param parallelJobs maximum amount of jobs that run at the same time.
+     * @param parallelFiles maximum amount of files per job that are processed at the same time.
+     * @param memoryBudget memory budget in megabytes for all jobs.
+     * @param streaming true to stream the SpectrumIdentificationResult elements of each file.
+     * @param writers writers of the output files.
+     * @param resultCache cache of the output of processed mzid files or null to process every file.
+     * @throws IOException could not create the spool directory.
+     */
+    public IonSeriesServer(final String spoolDirectory, final String separator, final Double intensityThreshold, final Integer threads,
+            final Integer parallelJobs,
+            final Integer parallelFiles, final Integer memoryBudget, final Boolean streaming, final List<IonSeriesWriter> writers,
+            final IonSeriesResultCache resultCache) throws IOException {
+        this.spoolDirectory = Paths.get(spoolDirectory);
+        this.separator = separator;
+        this.intensityThreshold = intensityThreshold;
+        this.threads = Math.max(1, threads);
+        this.parallelJobs = Math.max(1, parallelJobs);
+        this.parallelFiles = parallelFiles;
+        this.memoryBudget = memoryBudget;
+        this.streaming = streaming;
+        this.writers = new ArrayList<>(writers);
+        this.resultCache = resultCache;
+        Files.createDirectories(this.spoolDirectory);
+    }
+
+    /**
+     * Sets the intensity thresholds of a sweep, which are used for all jobs instead of their intensity threshold.
+     *
+     * @param intensitySweep intensity thresholds of the sweep or null to use the intensity threshold of each job.
+     * @param separateFiles true to write the results of each threshold to separate files, false to add a column.
+     */
+    public final void setIntensitySweep(final List<Double> intensitySweep, final Boolean separateFiles) {
+        this.intensitySweep = intensitySweep;
+        this.separateSweepFiles = separateFiles;
+    }
+
+    /**
+     * Sets the type of store of the ion series of each file.
+     *
+     * @param storeType heap, offheap or mapped.
+     */
+    public final void setStoreType(final String storeType) {
+        this.storeType = storeType;
+    }
+
+    /**
+     * Sets the size of the queue between the matching and the writing of the ion series.
+     *
+     * @param writeQueue maximum amount of rows that wait for the writer thread or null to collect all rows first.
+     */
+    public final void setWriteQueue(final Integer writeQueue) {
+        this.writeQueue = writeQueue;
+    }
+
+    /**
+     * Sets the external sort of the output on peptide sequence.
+     *
+     * @param sortSettings run size, directory of the run files and amount of sort threads, or null to not sort.
+     */
+    public final void setSortSettings(final ExternalSortSettings sortSettings) {
+        this.sortSettings = sortSettings;
+    }
+
+    /**
+     * Processes the jobs of the spool directory until the stop file is found. Jobs that are running at that moment are
+     * finished first.
+     *
+     * @throws IOException could not read the spool directory.
+     * @throws InterruptedException server was interrupted.
+     */
+    public final void run() throws IOException, InterruptedException {
+        //Loads the jmzIdentML configuration once, before the first job arrives.
+        MzIdentMLElement.values();
+        final ExecutorService workerPool = Executors.newFixedThreadPool(threads);
+        ExecutorService jobExecutor = Executors.newFixedThreadPool(parallelJobs);
+        System.out.println("Waiting for jobs in " + spoolDirectory.toAbsolutePath() + "...");
+        try {
+            Path stopFile = spoolDirectory.resolve(STOP_FILE);
+            while (!Files.exists(stopFile)) {
+                for (Path job : getSubmittedJobs()) {
+                    final Path runningJob = claimJob(job);
+                    if (runningJob != null) {
+                        updateStatus(runningJob, "queued", null);
+                        jobExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                runJob(runningJob, workerPool);
+                            }
+                        });
+                    }
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+            Files.deleteIfExists(stopFile);
+            System.out.println("Stopping server after the running jobs...");
+            jobExecutor.shutdown();
+            while (!jobExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for the running jobs to finish...");
+            }
+        } finally {
+            jobExecutor.shutdownNow();
+            workerPool.shutdownNow();
+        }
+        System.out.println("Server stopped.");
+    }
+
+    /**
+     * Returns the submitted jobs in order of name.
+     *
+     * @return list of job files.
+     * @throws IOException could not read the spool directory.
+     */
+    private List<Path> getSubmittedJobs() throws IOException {
+        ArrayList<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory, "*" + JOB_EXTENSION)) {
+            for (Path file : files) {
+                jobs.add(file);
+            }
+        }
+        Collections.sort(jobs);
+        return jobs;
+    }
+
+    /**
+     * Claims a job by renaming it to the running extension.
+     *
+     * @param job job file.
+     * @return running job file or null if the job was removed or claimed by another server.
+     */
+    private Path claimJob(final Path job) {
+        Path runningJob = getJobFile(job, RUNNING_EXTENSION);
+        try {
+            return Files.move(job, runningJob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a claimed job and renames it to the done or failed extension when it is finished.
+     *
+     * @param runningJob running job file.
+     * @param workerPool thread pool that is shared by all jobs.
+     */
+    private void runJob(final Path runningJob, final ExecutorService workerPool) {
+        boolean succeeded = false;
+        String message;
+        try {
+            Properties job = new Properties();
+            try (InputStream input = new FileInputStream(runningJob.toFile())) {
+                job.load(input);
+            }
+            String entryFile = job.getProperty("mzid");
+            String outputDirectory = job.getProperty("output");
+            if (entryFile == null || outputDirectory == null) {
+                throw new IllegalArgumentException("A job requires the mzid and output properties.");
+            }
+            if (!outputDirectory.endsWith(File.separator)) {
+                outputDirectory += File.separator;
+            }
+            Double jobThreshold = intensityThreshold;
+            if (job.getProperty("intensity") != null) {
+                jobThreshold = new GeneralTools().getIntensityThreshold(job.getProperty("intensity"));
+            }
+            Files.createDirectories(Paths.get(outputDirectory));
+            List<String> mzidFiles = readEntryFile(entryFile);
+            IonSeriesFileProcessor processor = new IonSeriesFileProcessor(outputDirectory, separator, jobThreshold, threads, streaming, writers);
+            processor.setResultCache(resultCache);
+            processor.setWorkerPool(workerPool);
+            processor.setIntensitySweep(intensitySweep, separateSweepFiles);
+            processor.setStoreType(storeType);
+            processor.setWriteQueue(writeQueue);
+            processor.setSortSettings(sortSettings);
+            IonSeriesBatchJournal journal = new IonSeriesBatchJournal(outputDirectory, Boolean.parseBoolean(job.getProperty("resume")), processor.getSettings());
+            mzidFiles = journal.getRemainingFiles(mzidFiles);
+            updateStatus(runningJob, "running", mzidFiles.size() + " mzid file(s) to process.");
+            //Each running job gets an equal part of the memory budget.
+            IonSeriesFileScheduler scheduler = new IonSeriesFileScheduler(processor, parallelFiles, memoryBudget / parallelJobs);
+            scheduler.setJournal(journal);
+            int failedFiles = scheduler.processFiles(mzidFiles);
+            succeeded = failedFiles == 0;
+            message = (mzidFiles.size() - failedFiles) + " of " + mzidFiles.size() + " mzid file(s) processed.";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message = "Job was interrupted.";
+        } catch (Exception | OutOfMemoryError e) {
+            message = e.toString();
+        }
+        System.out.println("Job " + getJobName(runningJob) + (succeeded ? " finished: " : " failed: ") + message);
+        updateStatus(runningJob, succeeded ? "finished" : "failed", message);
+        try {
+            Files.move(runningJob, getJobFile(runningJob, succeeded ? DONE_EXTENSION : FAILED_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("WARNING: could not update the status of job " + runningJob + ". Error: " + e);
+        }
+    }
+
+    /**
+     * Reads the mzid files of an entry file.
+     *
+     * @param entryFile main entry file with the paths to the sample entry files.
+     * @return list of mzid files.
+     * @throws IOException could not read an entry file.
+     */
+    private List<String> readEntryFile(final String entryFile) throws IOException {
+        EntryFileReader reader = new EntryFileReader();
+        LinkedHashMap<String, ArrayList<String>> mzidEntryMap = reader.createMzIdHashMap(reader.readMainTextFile(entryFile), separator);
+        ArrayList<String> mzidFiles = new ArrayList<>();
+        for (Map.Entry<String, ArrayList<String>> mzidList : mzidEntryMap.entrySet()) {
+            mzidFiles.addAll(mzidList.getValue());
+        }
+        return mzidFiles;
+    }
+
+    /**
+     * Writes the status file of a job and logs a failure instead of throwing it, so a status that cannot be written
+     * does not stop the server or the job.
+     *
+     * @param job job file.
+     * @param state state of the job: queued, running, finished or failed.
+     * @param message description of the state or null.
+     */
+    private void updateStatus(final Path job, final String state, final String message) {
+        try {
+            writeStatus(job, state, message);
+        } catch (IOException e) {
+            System.out.println("WARNING: could not update the status of job " + job + ". Error: " + e);
+        }
+    }
+
+    /**
+     * Writes the status file of a job. The file is replaced in a single rename, so readers never see a partial status.
+     *
+     * @param job job file.
+     * @param state state of the job: queued, running, finished or failed.
+     * @param message description of the state or null.
+     * @throws IOException could not write the status file.
+     */
+    private void writeStatus(final Path job, final String state, final String message) throws IOException {
+        Properties status = new Properties();
+        status.setProperty("state", state);
+        status.setProperty("updated", new Date().toString());
+        if (message != null) {
+            status.setProperty("message", message);
+        }
+        Path statusFile = getJobFile(job, STATUS_EXTENSION);
+        Path temporaryFile = Paths.get(statusFile + ".tmp");
+        try (OutputStream output = new FileOutputStream(temporaryFile.toFile())) {
+            status.store(output, "Status of job " + getJobName(job));
+        }
+        Files.move(temporaryFile, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the file of a job with another extension.
+     *
+     * @param job job file.
+     * @param extension new extension.
+     * @return path to the file in the spool directory.
+     */
+    private Path getJobFile(final Path job, final String extension) {
+        return spoolDirectory.resolve(getJobName(job) + extension);
+    }
+
+    /**
+     * Returns the name of a job: the file name without extension.
+     *
+     * @param job job file.
+     * @return job name as String.
+     */
+    private String getJobName(final Path job) {
+        String fileName = job.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        if (extension > 0) {
+            fileName = fileName.substring(0, extension);
+        }
+        return fileName;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.IOException;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+
+/**
+ * Writes the ion series of an mzid file to an output file.
+ *
+ * @author vnijenhuis
+ */
+public interface IonSeriesWriter {
+
+    /**
+     * Returns the name of the output file that is written to the output directory.
+     *
+     * @return file name as String.
+     */
+    String getFileName();
+
+    /**
+     * Returns true if the intensity threshold is written even when a file only contains the results of a single
+     * threshold of a sweep. Other writers get the results of separate threshold files without their threshold, so
+     * these files have the same layout as the output of a single threshold.
+     *
+     * @return true to keep the intensity threshold in separate threshold files, else false.
+     */
+    boolean keepsIntensityThreshold();
+
+    /**
+     * Writes the ion series to the output file in the given directory.
+     *
+     * @param outputDirectory directory to write the file to, ending with a folder separator.
+     * @param matchedIonSeries collection of MatchedIonSeries objects.
+     * @throws IOException could not write the output file.
+     */
+    void write(String outputDirectory, MatchedIonSeriesCollection matchedIonSeries) throws IOException;
+
+    /**
+     * Opens the given output file for writing the ion series one row at a time.
+     *
+     * @param outputFile path to the output file.
+     * @return row writer of the output file.
+     * @throws IOException could not create the output file.
+     */
+    IonSeriesRowWriter open(String outputFile) throws IOException;
+}
@@ -0,0 +1,75 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the IonSeriesWriter objects for the output formats given on the commandline.
+ *
+ * @author vnijenhuis
+ */
+public class IonSeriesWriterFactory {
+
+    /**
+     * Output format of the plain csv file.
+     */
+    public static final String CSV = "csv";
+
+    /**
+     * Output format of the gzip compressed csv file.
+     */
+    public static final String CSV_GZIP = "csv.gz";
+
+    /**
+     * Output format of the binary columnar file.
+     */
+    public static final String BINARY = "binary";
+
+    /**
+     * Creates a writer for each of the given output formats.
+     *
+     * @param formats comma separated output formats: csv, csv.gz and/or binary.
+     * @return list of IonSeriesWriter objects in the given order.
+     * @throws IllegalArgumentException a format is not supported or no format was given.
+     */
+    public final List<IonSeriesWriter> createWriters(final String formats) {
+        ArrayList<String> createdFormats = new ArrayList<>();
+        ArrayList<IonSeriesWriter> writers = new ArrayList<>();
+        for (String format : formats.split(",")) {
+            format = format.trim().toLowerCase();
+            if (format.isEmpty() || createdFormats.contains(format)) {
+                continue;
+            }
+            writers.add(createWriter(format));
+            createdFormats.add(format);
+        }
+        if (writers.isEmpty()) {
+            throw new IllegalArgumentException("No output format was given.");
+        }
+        return writers;
+    }
+
+    /**
+     * Creates the writer of a single output format.
+     *
+     * @param format output format.
+     * @return IonSeriesWriter object.
+     * @throws IllegalArgumentException the format is not supported.
+     */
+    private IonSeriesWriter createWriter(final String format) {
+        switch (format) {
+            case CSV:
+                return new IonSeriesCsvWriter(false);
+            case CSV_GZIP:
+                return new IonSeriesCsvWriter(true);
+            case BINARY:
+                return new IonSeriesBinaryWriter();
+            default:
+                throw new IllegalArgumentException("Unsupported output format: " + format + ". Use " + CSV + ", " + CSV_GZIP + " or " + BINARY + ".");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import nl.eriba.mzidentml.collections.MatchedIonSeriesCollection;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+import nl.eriba.mzidentml.ionseries.objects.PeptideCount;
+
+/**
+ * Writes the peptide counts of an mzid file: the amount of peptide spectrum matches and the best peptide score per
+ * peptide sequence, ion series flag and intensity threshold.
+ *
+ * The counts of each file are read by the IonSeriesAggregator when the file is finished. Because the counts are an
+ * output file like the ion series, they are also restored from the result cache and kept for resumed batches.
+ *
+ * @author vnijenhuis
+ */
+public class PeptideCountWriter implements IonSeriesWriter {
+
+    /**
+     * Name of the peptide count file.
+     */
+    public static final String FILE_NAME = "peptide-counts.csv";
+
+    /**
+     * Header of the peptide count file.
+     */
+    static final String HEADER = "Peptide Sequence,Ion Series Flag,Intensity Threshold,PSM Count,Best Peptide Score";
+
+    /**
+     * Delimiter of the csv columns.
+     */
+    static final String DELIMITER = ",";
+
+    /**
+     * Returns the name of the peptide count file.
+     *
+     * @return peptide-counts.csv.
+     */
+    @Override
+    public final String getFileName() {
+        return FILE_NAME;
+    }
+
+    /**
+     * Returns true, because the peptide counts always have an intensity threshold column, which the aggregator uses to
+     * keep the counts of each threshold apart.
+     *
+     * @return true.
+     */
+    @Override
+    public final boolean keepsIntensityThreshold() {
+        return true;
+    }
+
+    /**
+     * Writes the peptide counts of the ion series.
+     *
+     * @param outputDirectory directory to write the file to, ending with a folder separator.
+     * @param matchedIonSeries collection of MatchedIonSeries objects.
+     * @throws IOException could not write the file.
+     */
+    @Override
+    public final void write(final String outputDirectory, final MatchedIonSeriesCollection matchedIonSeries) throws IOException {
+        try (IonSeriesRowWriter rowWriter = open(outputDirectory + getFileName())) {
+            for (MatchedIonSeries ionSeries : matchedIonSeries) {
+                rowWriter.writeRow(ionSeries);
+            }
+        }
+    }
+
+    /**
+     * Opens a peptide count file. The rows are counted in memory and the file is written when the writer is closed.
+     *
+     * @param outputFile path to the peptide count file.
+     * @return row writer that counts the rows.
+     * @throws IOException could not create the file.
+     */
+    @Override
+    public final IonSeriesRowWriter open(final String outputFile) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
+        return new IonSeriesRowWriter() {
+            private final HashMap<String, PeptideCount> peptideCounts = new HashMap<>();
+
+            @Override
+            public void writeRow(final MatchedIonSeries matchedIonSeries) throws IOException {
+                String key = matchedIonSeries.getPeptideSequence() + DELIMITER + matchedIonSeries.getIonSeriesFlag() + DELIMITER
+                        + matchedIonSeries.getIntensityThreshold();
+                PeptideCount peptideCount = peptideCounts.get(key);
+                if (peptideCount == null) {
+                    peptideCount = new PeptideCount(null, matchedIonSeries.getPeptideSequence(), matchedIonSeries.getIonSeriesFlag(),
+                            matchedIonSeries.getIntensityThreshold(), 0, 1, null);
+                    peptideCounts.put(key, peptideCount);
+                }
+                peptideCount.addMatch(matchedIonSeries.getPeptideScore());
+            }
+
+            @Override
+            public void close() throws IOException {
+                try (Writer output = writer) {
+                    ArrayList<PeptideCount> sortedCounts = new ArrayList<>(peptideCounts.values());
+                    Collections.sort(sortedCounts, IonSeriesAggregator.getPeptideCountComparator());
+                    output.write(HEADER + "\n");
+                    for (PeptideCount peptideCount : sortedCounts) {
+                        output.write(peptideCount.getPeptideSequence() + DELIMITER + peptideCount.getIonSeriesFlag() + DELIMITER
+                                + formatNullable(peptideCount.getIntensityThreshold()) + DELIMITER + peptideCount.getMatchCount() + DELIMITER
+                                + formatNullable(peptideCount.getBestScore()) + "\n");
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Formats a value that may be null as an empty column.
+     *
+     * @param value Double or null.
+     * @return value as String.
+     */
+    static String formatNullable(final Double value) {
+        if (value == null) {
+            return "";
+        }
+        return value.toString();
+    }
+}
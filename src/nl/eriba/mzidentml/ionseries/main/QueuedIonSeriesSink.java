@@ -0,0 +1,201 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import nl.eriba.mzidentml.ionseries.identifiication.IonSeriesSink;
+import nl.eriba.mzidentml.ionseries.objects.MatchedIonSeries;
+
+/**
+ * Passes the MatchedIonSeries objects through a bounded queue to a writer thread, so the output files are written
+ * while the ion series are still being determined.
+ *
+ * Results are handed over in small batches to limit the synchronization per row. When the queue is full, the
+ * matching thread waits until the writer thread has caught up, so at most the queue capacity of rows is kept in
+ * memory. An error of the writer thread is thrown by the next call to accept or by finish. The writers are closed by
+ * the writer thread after the last row.
+ *
+ * @author vnijenhuis
+ */
+public class QueuedIonSeriesSink implements IonSeriesSink {
+
+    /**
+     * Capacity of the queue if no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /**
+     * Amount of rows that are handed over to the writer thread at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Marks the end of the results.
+     */
+    private static final List<MatchedIonSeries> END_OF_RESULTS = new ArrayList<>(0);
+
+    /**
+     * Batches of rows that are waiting to be written.
+     */
+    private final BlockingQueue<List<MatchedIonSeries>> queue;
+
+    /**
+     * Writers of the output files.
+     */
+    private final List<IonSeriesRowWriter> rowWriters;
+
+    /**
+     * Thread that writes the rows.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Rows that are not handed over yet.
+     */
+    private ArrayList<MatchedIonSeries> batch;
+
+    /**
+     * Amount of rows that were accepted.
+     */
+    private long rowCount;
+
+    /**
+     * First error of the writer thread or null.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Creates the sink and starts the writer thread.
+     *
+     * @param rowWriters writers of the output files, which are closed by the writer thread.
+     * @param capacity maximum amount of rows that are waiting to be written.
+     */
+    public QueuedIonSeriesSink(final List<IonSeriesRowWriter> rowWriters, final Integer capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity / BATCH_SIZE));
+        this.rowWriters = new ArrayList<>(rowWriters);
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        this.rowCount = 0;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRows();
+            }
+        }, "ion-series-writer");
+        this.writerThread.start();
+    }
+
+    /**
+     * Adds a row to the current batch and hands the batch over to the writer thread once it is full.
+     *
+     * @param matchedIonSeries MatchedIonSeries object.
+     * @throws IOException the writer thread could not write an earlier row.
+     * @throws InterruptedException process was interrupted while waiting for room in the queue.
+     */
+    @Override
+    public final void accept(final MatchedIonSeries matchedIonSeries) throws IOException, InterruptedException {
+        checkError();
+        batch.add(matchedIonSeries);
+        rowCount++;
+        if (batch.size() >= BATCH_SIZE) {
+            queue.put(batch);
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Hands over the last rows and waits until the writer thread has written and closed all output files.
+     *
+     * @return amount of rows that were written.
+     * @throws IOException the writer thread could not write a row or close a file.
+     * @throws InterruptedException process was interrupted while waiting for the writer thread.
+     */
+    public final long finish() throws IOException, InterruptedException {
+        if (!batch.isEmpty()) {
+            queue.put(batch);
+            batch = new ArrayList<>(0);
+        }
+        queue.put(END_OF_RESULTS);
+        writerThread.join();
+        checkError();
+        return rowCount;
+    }
+
+    /**
+     * Stops the writer thread after a failure of the matching thread. Rows that are still queued are discarded and the
+     * output files are closed.
+     */
+    public final void abort() {
+        if (!writerThread.isAlive()) {
+            return;
+        }
+        //The matching thread is the only producer, so the end marker fits once the queue is cleared.
+        queue.clear();
+        while (!queue.offer(END_OF_RESULTS)) {
+            queue.clear();
+        }
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued batches until the end marker is taken, then closes the writers. After an error the remaining
+     * batches are taken and discarded, so the matching thread never waits on a full queue.
+     */
+    private void writeRows() {
+        try {
+            List<MatchedIonSeries> rows;
+            while ((rows = queue.take()) != END_OF_RESULTS) {
+                if (error != null) {
+                    continue;
+                }
+                try {
+                    for (MatchedIonSeries matchedIonSeries : rows) {
+                        for (IonSeriesRowWriter rowWriter : rowWriters) {
+                            rowWriter.writeRow(matchedIonSeries);
+                        }
+                    }
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    error = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            error = e;
+        } finally {
+            for (IonSeriesRowWriter rowWriter : rowWriters) {
+                try {
+                    rowWriter.close();
+                } catch (IOException | RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws the error of the writer thread, if any.
+     *
+     * @throws IOException the writer thread failed.
+     */
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Could not write the ion series: " + error, error);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.objects;
+
+/**
+ * Categories of the IonType cvParams that are used to determine an ion series.
+ *
+ * @author vnijenhuis
+ */
+public enum IonCategory {
+
+    /**
+     * Y ion without neutral loss.
+     */
+    Y_ION,
+    /**
+     * Y ion with a neutral loss.
+     */
+    Y_ION_NEUTRAL_LOSS,
+    /**
+     * B ion without neutral loss.
+     */
+    B_ION,
+    /**
+     * B ion with a neutral loss.
+     */
+    B_ION_NEUTRAL_LOSS,
+    /**
+     * Immonium ion.
+     */
+    IMMONIUM_ION,
+    /**
+     * Ion that is not used for the ion series.
+     */
+    OTHER
+}
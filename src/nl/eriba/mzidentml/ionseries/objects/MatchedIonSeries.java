@@ -5,6 +5,7 @@
 package nl.eriba.mzidentml.ionseries.objects;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * Defines the data of a given ion series.
@@ -14,9 +15,9 @@ import java.util.ArrayList;
 public class MatchedIonSeries {
 
     /**
-     * List of ion indices of an ion series.
+     * Sorted ion indices of the final ion series.
      */
-    private final ArrayList<Integer> indexList;
+    private final int[] indexList;
 
     /**
      * Flag for the ion series.
@@ -41,22 +42,27 @@ public class MatchedIonSeries {
     /**
      * List of indices covered by B-ions.
      */
-    private final ArrayList<Integer> bIonIndexList;
+    private final BitSet bIonIndexList;
 
     /**
      * List of indices covered by Y-ions.
      */
-    private final ArrayList<Integer> yIonIndexList;
+    private final BitSet yIonIndexList;
 
     /**
      * List of indices covered by immonium-ions and non y and b ions.
      */
-    private final ArrayList<Integer> combinedIonIndices;
+    private final BitSet combinedIonIndices;
 
     /**
      * List of indices covered by immonium-ions and non y and b ions.
      */
-    private final ArrayList<Integer> combinedAllIonIndices;
+    private final BitSet combinedAllIonIndices;
+
+    /**
+     * Intensity threshold of a threshold sweep or null for a single threshold.
+     */
+    private final Double intensityThreshold;
 
     /**
      * Defines the MatchedIonSeries object.
@@ -64,15 +70,35 @@ public class MatchedIonSeries {
      * @param peptideSequence peptide amino acid sequence.
      * @param peptideScore peptide score.
      * @param accessions protein accessions.
-     * @param combinedIonIndices list of combined non y and b ions.
-     * @param bIonIndexList list of B-ion indices.
-     * @param yIonIndexList list of Y-ion indices.
-     * @param combinedAllIonIndices list of all combined ion indices.
-     * @param indexList list of ion indices.
+     * @param combinedIonIndices set of combined non y and b ion indices.
+     * @param bIonIndexList set of B-ion indices.
+     * @param yIonIndexList set of Y-ion indices.
+     * @param combinedAllIonIndices set of all combined ion indices.
+     * @param indexList sorted array of the final ion series indices.
      * @param ionSeriesFlag contains the ion series flag.
      */
-    public MatchedIonSeries(final String peptideSequence, final Double peptideScore, final String accessions, final ArrayList<Integer> combinedIonIndices, final ArrayList<Integer> bIonIndexList, final ArrayList<Integer> yIonIndexList,
-            final ArrayList<Integer> combinedAllIonIndices, final ArrayList<Integer> indexList, final Integer ionSeriesFlag) {
+    public MatchedIonSeries(final String peptideSequence, final Double peptideScore, final String accessions, final BitSet combinedIonIndices, final BitSet bIonIndexList, final BitSet yIonIndexList,
+            final BitSet combinedAllIonIndices, final int[] indexList, final Integer ionSeriesFlag) {
+        this(peptideSequence, peptideScore, accessions, combinedIonIndices, bIonIndexList, yIonIndexList, combinedAllIonIndices, indexList, ionSeriesFlag, null);
+    }
+
+    /**
+     * Defines the MatchedIonSeries object for one of the intensity thresholds of a threshold sweep.
+     *
+     * @param peptideSequence peptide amino acid sequence.
+     * @param peptideScore peptide score.
+     * @param accessions protein accessions.
+     * @param combinedIonIndices set of combined non y and b ion indices.
+     * @param bIonIndexList set of B-ion indices.
+     * @param yIonIndexList set of Y-ion indices.
+     * @param combinedAllIonIndices set of all combined ion indices.
+     * @param indexList sorted array of the final ion series indices.
+     * @param ionSeriesFlag contains the ion series flag.
+     * @param intensityThreshold intensity threshold of the sweep or null for a single threshold.
+     */
+    public MatchedIonSeries(final String peptideSequence, final Double peptideScore, final String accessions, final BitSet combinedIonIndices, final BitSet bIonIndexList, final BitSet yIonIndexList,
+            final BitSet combinedAllIonIndices, final int[] indexList, final Integer ionSeriesFlag, final Double intensityThreshold) {
+        this.intensityThreshold = intensityThreshold;
         this.peptideSequence = peptideSequence;
         this.peptideScore = peptideScore;
         this.accessions = accessions;
@@ -84,49 +110,121 @@ public class MatchedIonSeries {
         this.ionSeriesFlag = ionSeriesFlag;
     }
 
+    /**
+     * Returns the intensity threshold of a threshold sweep.
+     *
+     * @return intensity threshold or null if a single threshold was used.
+     */
+    public Double getIntensityThreshold() {
+        return this.intensityThreshold;
+    }
+
+    /**
+     * Returns these ion series without the intensity threshold of the sweep, as determined for a single threshold. The
+     * ion series data is shared with this object.
+     *
+     * @return MatchedIonSeries object without intensity threshold.
+     */
+    public MatchedIonSeries withoutIntensityThreshold() {
+        if (this.intensityThreshold == null) {
+            return this;
+        }
+        return new MatchedIonSeries(peptideSequence, peptideScore, accessions, combinedIonIndices, bIonIndexList, yIonIndexList, combinedAllIonIndices,
+                indexList, ionSeriesFlag);
+    }
+
     /**
      * Returns a list of ion series indices.
      *
      * @return ArrayList of the best completeion series indices as Integers.
      */
     public ArrayList<Integer> getFinalIonSeries() {
+        ArrayList<Integer> indices = new ArrayList<>(this.indexList.length);
+        for (int index : this.indexList) {
+            indices.add(index);
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the sorted indices of the final ion series. The returned array should not be modified.
+     *
+     * @return array of the best complete ion series indices.
+     */
+    public int[] getFinalIonSeriesIndices() {
         return this.indexList;
     }
 
+    /**
+     * Returns the set of non y and b ion series indices. The returned set should not be modified.
+     *
+     * @return set of non y and b ion series indices.
+     */
+    public BitSet getCombinedIonIndices() {
+        return this.combinedIonIndices;
+    }
+
+    /**
+     * Returns the set of all combined ion series indices. The returned set should not be modified.
+     *
+     * @return set of all ion series indices.
+     */
+    public BitSet getCombinedAllIonIndices() {
+        return this.combinedAllIonIndices;
+    }
+
+    /**
+     * Returns the set of b ion series indices. The returned set should not be modified.
+     *
+     * @return set of b ion series indices.
+     */
+    public BitSet getBIonIndices() {
+        return this.bIonIndexList;
+    }
+
+    /**
+     * Returns the set of y ion series indices. The returned set should not be modified.
+     *
+     * @return set of y ion series indices.
+     */
+    public BitSet getYIonIndices() {
+        return this.yIonIndexList;
+    }
+
     /**
      * Returns a list of non y and b ion series indices.
      *
-     * @return ArrayList of non y and b ion series indices as Integers.
+     * @return sorted ArrayList of non y and b ion series indices as Integers.
      */
     public ArrayList<Integer> getCombinedIonSeries() {
-        return this.combinedIonIndices;
+        return toIndexList(this.combinedIonIndices);
     }
  
     /**
      * Returns a list of all combined ion series indices.
      *
-     * @return ArrayList of all ion series indices as Integers.
+     * @return sorted ArrayList of all ion series indices as Integers.
      */
     public ArrayList<Integer> getAllCombinedIonSeries() {
-        return this.combinedAllIonIndices;
+        return toIndexList(this.combinedAllIonIndices);
     }
 
     /**
      * Returns a list of b ion series indices.
      *
-     * @return ArrayList of b ion series indices as Integers.
+     * @return sorted ArrayList of b ion series indices as Integers.
      */
     public ArrayList<Integer> getIonSeriesBIon() {
-        return this.bIonIndexList;
+        return toIndexList(this.bIonIndexList);
     }
 
     /*
      * Returns a list of y ion series indices.
      *
-     * @return ArrayList of y ion series indices as Integers.
+     * @return sorted ArrayList of y ion series indices as Integers.
      */
     public ArrayList<Integer> getIonSeriesYIon() {
-        return this.yIonIndexList;
+        return toIndexList(this.yIonIndexList);
     }
 
     /**
@@ -165,6 +263,20 @@ public class MatchedIonSeries {
         return this.accessions;
     }
 
+    /**
+     * Converts a set of indices to a sorted list.
+     *
+     * @param indices set of indices.
+     * @return sorted ArrayList of indices as Integers.
+     */
+    private ArrayList<Integer> toIndexList(final BitSet indices) {
+        ArrayList<Integer> indexList = new ArrayList<>(indices.cardinality());
+        for (int index = indices.nextSetBit(0); index >= 0; index = indices.nextSetBit(index + 1)) {
+            indexList.add(index);
+        }
+        return indexList;
+    }
+
     /**
      * ToString function that displays the data present in this object.
      *
@@ -5,6 +5,7 @@
 package nl.eriba.mzidentml.ionseries.objects;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -24,36 +25,73 @@ public class MzIdIonFragment {
      */
     private final String name;
 
+    /**
+     * Category of the ion fragment.
+     */
+    private final IonCategory category;
+
     /**
      * List of indexes.
      */
     private final List<Integer> indices;
 
     /**
-     * List of fragments.
+     * Measured m/z values as stored in the fragment array. Only copied when requested.
+     */
+    private final List<Float> measureValues;
+
+    /**
+     * Bitmasks with the intensity threshold results, one per intensity threshold. May be shared by multiple fragments.
      */
-    private final ArrayList<Double> measureValues;
+    private final BitSet[] passIntensityThresholds;
 
     /**
-     * List of fragments.
+     * Position of the first intensity value of this fragment in the bitmask.
      */
-    private final ArrayList<Boolean> passIntensityThreshold;
+    private final int intensityOffset;
+
+    /**
+     * Amount of intensity values of this fragment.
+     */
+    private final int intensityCount;
 
     /**
      * Creates an MzIdIonType object with corresponding data.
      *
      * @param name
+     * @param category category of the ion fragment.
      * @param indexList list of indices.
-     * @param measureValues
-     * @param passedIntensityThreshold
+     * @param measureValues measured m/z values of the fragment array.
+     * @param passedIntensityThreshold bitmask with a set bit for each intensity that passed the threshold.
+     * @param intensityOffset position of the first intensity value of this fragment in the bitmask.
+     * @param intensityCount amount of intensity values of this fragment.
      */
-    public MzIdIonFragment(final String name, final List<Integer> indexList,
-            final ArrayList<Double> measureValues, final ArrayList<Boolean> passedIntensityThreshold) {
+    public MzIdIonFragment(final String name, final IonCategory category, final List<Integer> indexList, final List<Float> measureValues,
+            final BitSet passedIntensityThreshold, final int intensityOffset, final int intensityCount) {
+        this(name, category, indexList, measureValues, new BitSet[]{passedIntensityThreshold}, intensityOffset, intensityCount);
+    }
+
+    /**
+     * Creates an MzIdIonType object with the results of multiple intensity thresholds.
+     *
+     * @param name
+     * @param category category of the ion fragment.
+     * @param indexList list of indices.
+     * @param measureValues measured m/z values of the fragment array.
+     * @param passedIntensityThresholds bitmask per intensity threshold with a set bit for each intensity that passed.
+     * @param intensityOffset position of the first intensity value of this fragment in the bitmasks.
+     * @param intensityCount amount of intensity values of this fragment.
+     */
+    public MzIdIonFragment(final String name, final IonCategory category, final List<Integer> indexList, final List<Float> measureValues,
+            final BitSet[] passedIntensityThresholds, final int intensityOffset, final int intensityCount) {
         this.objectName = "MzIdIonFragment";
         this.name = name;
+        this.category = category;
         this.indices = indexList;
         this.measureValues = measureValues;
-        this.passIntensityThreshold = passedIntensityThreshold;
+        this.passIntensityThresholds = passedIntensityThresholds;
+        this.intensityOffset = intensityOffset;
+        this.intensityCount = intensityCount;
     }
 
     /**
@@ -65,6 +103,15 @@ public class MzIdIonFragment {
         return this.name;
     }
 
+    /**
+     * Returns the category of this ion.
+     *
+     * @return IonCategory of the ion.
+     */
+    public final IonCategory getCategory() {
+        return this.category;
+    }
+
     /**
      * Returns the indices of each fragment of this ion.
      *
@@ -75,21 +122,70 @@ public class MzIdIonFragment {
     }
 
     /**
-     * Returns a list of ion series intensity values.
+     * Returns a list of ion series m/z values. The values are copied on each call.
      *
      * @return an ArrayList with Double values.
      */
     public final ArrayList<Double> getMeasureValues() {
-        return this.measureValues;
+        ArrayList<Double> values = new ArrayList<>(this.measureValues.size());
+        for (float value : this.measureValues) {
+            double measuredMassToCharge = value;
+            values.add(measuredMassToCharge);
+        }
+        return values;
     }
 
     /**
-     * Returns a list of booleans to determine if a ion intensity passed the threshold.
+     * Returns a list of booleans to determine if a ion intensity passed the threshold. The list is created on each
+     * call.
      *
      * @return an ArrayList with Boolean values.
      */
     public final ArrayList<Boolean> getItensityValues() {
-        return this.passIntensityThreshold;
+        ArrayList<Boolean> values = new ArrayList<>(this.intensityCount);
+        for (int i = 0; i < this.intensityCount; i++) {
+            values.add(passesIntensityThreshold(i));
+        }
+        return values;
+    }
+
+    /**
+     * Returns the amount of intensity values of this ion.
+     *
+     * @return amount of intensity values.
+     */
+    public final int getIntensityCount() {
+        return this.intensityCount;
+    }
+
+    /**
+     * Returns if the intensity at the given position passed the threshold.
+     *
+     * @param position position of the intensity value.
+     * @return true if the intensity passed the threshold, else false.
+     */
+    public final boolean passesIntensityThreshold(final int position) {
+        return this.passIntensityThresholds[0].get(this.intensityOffset + position);
+    }
+
+    /**
+     * Returns if the intensity at the given position passed the given threshold.
+     *
+     * @param threshold position of the intensity threshold.
+     * @param position position of the intensity value.
+     * @return true if the intensity passed the threshold, else false.
+     */
+    public final boolean passesIntensityThreshold(final int threshold, final int position) {
+        return this.passIntensityThresholds[threshold].get(this.intensityOffset + position);
+    }
+
+    /**
+     * Returns the amount of intensity thresholds.
+     *
+     * @return amount of thresholds.
+     */
+    public final int getThresholdCount() {
+        return this.passIntensityThresholds.length;
     }
 
     /**
@@ -99,7 +195,7 @@ public class MzIdIonFragment {
      */
     @Override
     public String toString() {
-        return this.objectName + "{Name: " + this.getName() + ", index: " + this.getIndexList() + ", Measured m/z: "
+        return this.objectName + "{Name: " + this.getName() + ", Category: " + this.getCategory() + ", index: " + this.getIndexList() + ", Measured m/z: "
                 + this.getMeasureValues() + ", Intensities: " + this.getItensityValues() + "}";
     }
 }
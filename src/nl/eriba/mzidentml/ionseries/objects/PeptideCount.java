@@ -0,0 +1,182 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.objects;
+
+/**
+ * Counts the peptide spectrum matches of a peptide sequence with the same ion series flag.
+ *
+ * @author vnijenhuis
+ */
+public class PeptideCount {
+
+    /**
+     * Name of the sample or null if the count belongs to a single file.
+     */
+    private final String sample;
+
+    /**
+     * Peptide amino acid sequence.
+     */
+    private final String peptideSequence;
+
+    /**
+     * Ion series flag of the matches.
+     */
+    private final Integer ionSeriesFlag;
+
+    /**
+     * Intensity threshold of a sweep or null.
+     */
+    private final Double intensityThreshold;
+
+    /**
+     * Amount of peptide spectrum matches.
+     */
+    private long matchCount;
+
+    /**
+     * Amount of mzid files with at least one match.
+     */
+    private int fileCount;
+
+    /**
+     * Highest peptide score of the matches or null if no match had a score.
+     */
+    private Double bestScore;
+
+    /**
+     * Defines a peptide count.
+     *
+     * @param sample name of the sample or null if the count belongs to a single file.
+     * @param peptideSequence peptide amino acid sequence.
+     * @param ionSeriesFlag ion series flag of the matches.
+     * @param intensityThreshold intensity threshold of a sweep or null.
+     * @param matchCount amount of peptide spectrum matches.
+     * @param fileCount amount of mzid files with at least one match.
+     * @param bestScore highest peptide score or null.
+     */
+    public PeptideCount(final String sample, final String peptideSequence, final Integer ionSeriesFlag, final Double intensityThreshold,
+            final long matchCount, final int fileCount, final Double bestScore) {
+        this.sample = sample;
+        this.peptideSequence = peptideSequence;
+        this.ionSeriesFlag = ionSeriesFlag;
+        this.intensityThreshold = intensityThreshold;
+        this.matchCount = matchCount;
+        this.fileCount = fileCount;
+        this.bestScore = bestScore;
+    }
+
+    /**
+     * Adds a peptide spectrum match.
+     *
+     * @param peptideScore peptide score of the match or null.
+     */
+    public final void addMatch(final Double peptideScore) {
+        this.matchCount++;
+        this.bestScore = getBestScore(this.bestScore, peptideScore);
+    }
+
+    /**
+     * Adds the matches and files of another count of the same peptide.
+     *
+     * @param peptideCount PeptideCount object.
+     */
+    public final void addPeptideCount(final PeptideCount peptideCount) {
+        this.matchCount += peptideCount.getMatchCount();
+        this.fileCount += peptideCount.getFileCount();
+        this.bestScore = getBestScore(this.bestScore, peptideCount.getBestScore());
+    }
+
+    /**
+     * Returns the name of the sample.
+     *
+     * @return sample name or null if the count belongs to a single file.
+     */
+    public final String getSample() {
+        return this.sample;
+    }
+
+    /**
+     * Returns the peptide amino acid sequence.
+     *
+     * @return peptide sequence as String.
+     */
+    public final String getPeptideSequence() {
+        return this.peptideSequence;
+    }
+
+    /**
+     * Returns the ion series flag of the matches.
+     *
+     * @return ion series flag as Integer.
+     */
+    public final Integer getIonSeriesFlag() {
+        return this.ionSeriesFlag;
+    }
+
+    /**
+     * Returns the intensity threshold of a sweep.
+     *
+     * @return intensity threshold or null.
+     */
+    public final Double getIntensityThreshold() {
+        return this.intensityThreshold;
+    }
+
+    /**
+     * Returns the amount of peptide spectrum matches.
+     *
+     * @return match count.
+     */
+    public final long getMatchCount() {
+        return this.matchCount;
+    }
+
+    /**
+     * Returns the amount of mzid files with at least one match.
+     *
+     * @return file count.
+     */
+    public final int getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * Returns the highest peptide score of the matches.
+     *
+     * @return best peptide score or null.
+     */
+    public final Double getBestScore() {
+        return this.bestScore;
+    }
+
+    /**
+     * Returns the highest of two scores that may be null.
+     *
+     * @param score first score or null.
+     * @param otherScore second score or null.
+     * @return highest score or null if both are null.
+     */
+    private static Double getBestScore(final Double score, final Double otherScore) {
+        if (score == null) {
+            return otherScore;
+        }
+        if (otherScore == null || score >= otherScore) {
+            return score;
+        }
+        return otherScore;
+    }
+
+    /**
+     * ToString function that displays the data present in this object.
+     *
+     * @return object data as String.
+     */
+    @Override
+    public String toString() {
+        return "PeptideCount{Sample: " + this.sample + ", Sequence: " + this.peptideSequence + ", Flag: " + this.ionSeriesFlag + ", Threshold: "
+                + this.intensityThreshold + ", Matches: " + this.matchCount + ", Files: " + this.fileCount + ", Best score: " + this.bestScore + "}";
+    }
+}
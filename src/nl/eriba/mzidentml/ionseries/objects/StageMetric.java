@@ -0,0 +1,123 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.objects;
+
+/**
+ * Defines the measurements of one stage of the ion series pipeline.
+ *
+ * @author vnijenhuis
+ */
+public class StageMetric {
+
+    /**
+     * Name of the stage.
+     */
+    private final String stageName;
+
+    /**
+     * Wall time of the stage in nanoseconds.
+     */
+    private final long wallTime;
+
+    /**
+     * Amount of items that were processed by the stage.
+     */
+    private final long itemCount;
+
+    /**
+     * Bytes allocated by the threads of the stage or -1 if not supported by the JVM.
+     */
+    private final long allocatedBytes;
+
+    /**
+     * Highest heap usage of the JVM during the stage in bytes.
+     */
+    private final long peakHeap;
+
+    /**
+     * Defines the measurements of a stage.
+     *
+     * @param stageName name of the stage.
+     * @param wallTime wall time in nanoseconds.
+     * @param itemCount amount of processed items.
+     * @param allocatedBytes allocated bytes or -1 if not supported.
+     * @param peakHeap highest heap usage in bytes.
+     */
+    public StageMetric(final String stageName, final long wallTime, final long itemCount, final long allocatedBytes, final long peakHeap) {
+        this.stageName = stageName;
+        this.wallTime = wallTime;
+        this.itemCount = itemCount;
+        this.allocatedBytes = allocatedBytes;
+        this.peakHeap = peakHeap;
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return stage name as String.
+     */
+    public final String getStageName() {
+        return this.stageName;
+    }
+
+    /**
+     * Returns the wall time of the stage.
+     *
+     * @return wall time in nanoseconds.
+     */
+    public final long getWallTime() {
+        return this.wallTime;
+    }
+
+    /**
+     * Returns the amount of items that were processed by the stage.
+     *
+     * @return item count.
+     */
+    public final long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Returns the amount of items processed per second.
+     *
+     * @return items per second or 0 if no time was measured.
+     */
+    public final double getItemsPerSecond() {
+        if (wallTime <= 0) {
+            return 0;
+        }
+        return itemCount * 1e9 / wallTime;
+    }
+
+    /**
+     * Returns the bytes allocated by the threads of the stage.
+     *
+     * @return allocated bytes or -1 if not supported by the JVM.
+     */
+    public final long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * Returns the highest heap usage of the JVM during the stage.
+     *
+     * @return peak heap usage in bytes.
+     */
+    public final long getPeakHeap() {
+        return this.peakHeap;
+    }
+
+    /**
+     * ToString function that displays the data present in this object.
+     *
+     * @return object data as String.
+     */
+    @Override
+    public String toString() {
+        return "StageMetric{Stage: " + this.stageName + ", Wall time (ms): " + this.wallTime / 1000000 + ", Items: " + this.itemCount
+                + ", Allocated bytes: " + this.allocatedBytes + ", Peak heap: " + this.peakHeap + "}";
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.tools;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input stream of a gzip or zstd compressed file that is decompressed on its own thread.
+ *
+ * The decompression thread writes blocks of decompressed data to a bounded queue, so inflating the file overlaps with
+ * parsing it and memory usage is limited to a few blocks. Gzip is decompressed with the JDK. Zstd is decompressed by
+ * the zstd command line tool, which has to be available on the PATH.
+ *
+ * @author vnijenhuis
+ */
+public class DecompressingInputStream extends InputStream {
+
+    /**
+     * Size of the blocks of decompressed data.
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Maximum amount of blocks that are waiting to be read.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * Marks the end of the decompressed data.
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    /**
+     * Magic bytes of a gzip file.
+     */
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+
+    /**
+     * Magic bytes of a zstd frame.
+     */
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+    /**
+     * Blocks of decompressed data.
+     */
+    private final BlockingQueue<byte[]> blocks;
+
+    /**
+     * Thread that decompresses the file.
+     */
+    private final Thread decompressor;
+
+    /**
+     * Stream of decompressed data that is read by the decompression thread.
+     */
+    private final InputStream source;
+
+    /**
+     * Process of the zstd tool or null for gzip.
+     */
+    private final Process process;
+
+    /**
+     * Error of the decompression thread or null.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Block that is currently read.
+     */
+    private byte[] block;
+
+    /**
+     * Read position in the current block.
+     */
+    private int position;
+
+    /**
+     * Opens the given mzid file. Compressed files are decompressed on a separate thread, other files are read
+     * directly.
+     *
+     * @param file mzid file, optionally gzip or zstd compressed.
+     * @return input stream of the decompressed file.
+     * @throws IOException could not open the file or start the decompression.
+     */
+    public static InputStream open(final File file) throws IOException {
+        byte[] magic = readMagic(file);
+        if (startsWith(magic, GZIP_MAGIC)) {
+            return new DecompressingInputStream(file.getPath(), new GZIPInputStream(new FileInputStream(file), BLOCK_SIZE), null);
+        }
+        if (startsWith(magic, ZSTD_MAGIC)) {
+            Process zstd;
+            try {
+                zstd = new ProcessBuilder("zstd", "-d", "-c", "-q", file.getPath()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            } catch (IOException e) {
+                throw new IOException("Could not start zstd to decompress " + file + ". Is zstd installed?", e);
+            }
+            zstd.getOutputStream().close();
+            return new DecompressingInputStream(file.getPath(), zstd.getInputStream(), zstd);
+        }
+        return new BufferedInputStream(new FileInputStream(file), BLOCK_SIZE);
+    }
+
+    /**
+     * Checks if the given file is gzip or zstd compressed.
+     *
+     * @param file file to check.
+     * @return true if the file starts with the gzip or zstd magic bytes, else false.
+     * @throws IOException could not read the file.
+     */
+    public static boolean isCompressed(final File file) throws IOException {
+        byte[] magic = readMagic(file);
+        return startsWith(magic, GZIP_MAGIC) || startsWith(magic, ZSTD_MAGIC);
+    }
+
+    /**
+     * Starts decompressing the given source on a new thread.
+     *
+     * @param name name of the file, used for the thread name.
+     * @param source stream of decompressed data.
+     * @param process process of the zstd tool or null.
+     */
+    private DecompressingInputStream(final String name, final InputStream source, final Process process) {
+        this.blocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.source = source;
+        this.process = process;
+        this.decompressor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decompress();
+            }
+        }, "decompress-" + new File(name).getName());
+        this.decompressor.setDaemon(true);
+        this.decompressor.start();
+    }
+
+    /**
+     * Decompresses the source and marks the end of the data. The source is closed by this thread, so it is never
+     * closed while a block is being read.
+     */
+    private void decompress() {
+        try {
+            readBlocks();
+            blocks.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+            //The stream was closed by the reader.
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                System.out.println("WARNING: could not close the compressed file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the source in blocks and adds them to the queue until the end of the source is reached. Read errors are
+     * stored and thrown to the reader at the end of the data.
+     *
+     * @throws InterruptedException the stream was closed by the reader.
+     */
+    private void readBlocks() throws InterruptedException {
+        try {
+            while (true) {
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int length = 0;
+                int read;
+                while (length < BLOCK_SIZE && (read = source.read(buffer, length, BLOCK_SIZE - length)) != -1) {
+                    length += read;
+                }
+                if (length == 0) {
+                    break;
+                }
+                if (length < BLOCK_SIZE) {
+                    byte[] lastBlock = new byte[length];
+                    System.arraycopy(buffer, 0, lastBlock, 0, length);
+                    buffer = lastBlock;
+                }
+                blocks.put(buffer);
+            }
+            if (process != null && process.waitFor() != 0) {
+                failure = new IOException("zstd exited with code " + process.exitValue() + ".");
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Takes the next block from the queue if the current block is read.
+     *
+     * @return true if data is available, false at the end of the stream.
+     * @throws IOException the decompression failed or the reader was interrupted.
+     */
+    private boolean nextBlock() throws IOException {
+        if (block == END_OF_STREAM) {
+            return false;
+        }
+        if (block != null && position < block.length) {
+            return true;
+        }
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for decompressed data.", e);
+        }
+        position = 0;
+        if (block == END_OF_STREAM) {
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Stops the decompression thread, which then closes the source.
+     */
+    @Override
+    public void close() {
+        decompressor.interrupt();
+        blocks.clear();
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Reads the first bytes of a file.
+     *
+     * @param file file to read.
+     * @return up to four bytes.
+     * @throws IOException could not read the file.
+     */
+    private static byte[] readMagic(final File file) throws IOException {
+        byte[] magic = new byte[ZSTD_MAGIC.length];
+        int length = 0;
+        try (InputStream input = new FileInputStream(file)) {
+            int read;
+            while (length < magic.length && (read = input.read(magic, length, magic.length - length)) != -1) {
+                length += read;
+            }
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(magic, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Checks if the data starts with the given prefix.
+     *
+     * @param data data to check.
+     * @param prefix expected prefix.
+     * @return true if the data starts with the prefix, else false.
+     */
+    private static boolean startsWith(final byte[] data, final byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
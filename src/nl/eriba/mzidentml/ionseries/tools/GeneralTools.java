@@ -20,22 +20,31 @@ public class GeneralTools {
      * @return amount of threads as Integer.
      */
     public final Double getIntensityThreshold(CommandLine cmd) {
+        if (cmd.hasOption("intensity")) {
+            return getIntensityThreshold(cmd.getOptionValue("intensity"));
+        }
+        System.out.println("Threshold for intensity set to base value of 5% (0.05)");
+        return 0.05;
+    }
+
+    /**
+     * Returns the intensity threshold of the given value.
+     *
+     * @param value intensity threshold as fraction or percentage. Examples: 95.0, 95%, 0.95
+     * @return intensity threshold as Double.
+     */
+    public final Double getIntensityThreshold(final String value) {
         double threshold = 0.05;
         double divide = 100.0;
-        if (cmd.hasOption("intensity")) {
-            String thresholdValue = cmd.getOptionValue("intensity").replace("\\W", "");
-            if (thresholdValue.isEmpty()) {
-                throw new IllegalArgumentException("Please enter a number as input instead of providing no input.\nExamples: 95.0, 95%, 0.95");
-            } else if (thresholdValue.matches(".*([a-zA-Z]).*")) {
-                throw new IllegalArgumentException("Please enter a number as input instead of " + thresholdValue + "\nExamples: 95.0, 95%, 0.95");
-            } else if (thresholdValue.matches("0\\.?(\\d?)+")) {
-                threshold = Double.parseDouble(thresholdValue);
-            } else if (thresholdValue.matches("([1-9]+)\\.?(\\d?)+")) {
-                threshold = (Double.parseDouble(thresholdValue) / divide);
-            }
-        } else {
-            System.out.println("Threshold for intensity set to base value of 5% (0.05)");
-            return threshold;
+        String thresholdValue = value.replace("\\W", "");
+        if (thresholdValue.isEmpty()) {
+            throw new IllegalArgumentException("Please enter a number as input instead of providing no input.\nExamples: 95.0, 95%, 0.95");
+        } else if (thresholdValue.matches(".*([a-zA-Z]).*")) {
+            throw new IllegalArgumentException("Please enter a number as input instead of " + thresholdValue + "\nExamples: 95.0, 95%, 0.95");
+        } else if (thresholdValue.matches("0\\.?(\\d?)+")) {
+            threshold = Double.parseDouble(thresholdValue);
+        } else if (thresholdValue.matches("([1-9]+)\\.?(\\d?)+")) {
+            threshold = (Double.parseDouble(thresholdValue) / divide);
         }
         System.out.println("Threshold for intensity set to " + threshold + "!");
         return threshold;
@@ -52,18 +52,28 @@ public class InputTools {
     }
 
     /**
-     * Check if the input is a .mzid file.
+     * Check if the input is a .mzid file. Gzip (.mzid.gz) and zstd (.mzid.zst) compressed files are accepted.
      *
      * @param file file name as string.
      * @return true if string matches to the pattern, else false.
      */
     public final Boolean isMzID(final String file) {
         if (isFile(file)) {
-            return file.matches(".*\\.mzid(\\.gz)?");
+            return file.matches(".*\\.mzid(\\.gz|\\.zst)?");
         }
         return false;
     }
 
+    /**
+     * Check if the file name has a gzip or zstd extension.
+     *
+     * @param file file name as string.
+     * @return true if string matches to the pattern, else false.
+     */
+    public final Boolean isCompressed(final String file) {
+        return file.matches(".*\\.(gz|zst)");
+    }
+
     /**
      * Tests if a file is a text file.
      *
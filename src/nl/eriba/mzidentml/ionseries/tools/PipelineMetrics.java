@@ -0,0 +1,236 @@
+/*
+ * @author Vikthor Nijenhuis
+ * @project FindIonSeries toolkit.
+ */
+package nl.eriba.mzidentml.ionseries.tools;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import nl.eriba.mzidentml.ionseries.objects.StageMetric;
+
+/**
+ * Records the wall time, throughput, allocated bytes and peak heap usage of the stages of the ion series pipeline for
+ * one mzid file.
+ *
+ * Stages may run at the same time on different threads. Allocated bytes are counted for the thread that started the
+ * stage and for the worker threads that are passed to finishStage, using the HotSpot thread allocation counters. Peak
+ * heap usage is measured for the whole JVM. The peak is only reset when no other stage of any file is running, so the
+ * peak of a stage includes the stages and files that are processed at the same time and is never under-reported.
+ *
+ * @author vnijenhuis
+ */
+public class PipelineMetrics {
+
+    /**
+     * Name of the metrics file that is written next to the ion series csv file.
+     */
+    public static final String METRICS_FILE = "ion-series-metrics.csv";
+
+    /**
+     * Thread bean with allocation counters or null if the JVM does not support them.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = createAllocationBean();
+
+    /**
+     * Stages of all recorders that have been started but not finished. Weak keys, so a stage that is abandoned after a
+     * failure no longer prevents the peak from being reset once it has been collected.
+     */
+    private static final Map<RunningStage, Boolean> RUNNING_STAGES = new WeakHashMap<>();
+
+    /**
+     * Measurements of the finished stages in order of completion.
+     */
+    private final List<StageMetric> stageMetrics;
+
+    /**
+     * Creates an empty metrics recorder.
+     */
+    public PipelineMetrics() {
+        stageMetrics = Collections.synchronizedList(new ArrayList<StageMetric>());
+    }
+
+    /**
+     * Returns the thread bean if it supports allocation counters.
+     *
+     * @return thread bean or null.
+     */
+    private static com.sun.management.ThreadMXBean createAllocationBean() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+                    allocationBean.setThreadAllocatedMemoryEnabled(true);
+                }
+                return allocationBean;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts measuring a stage on the current thread.
+     *
+     * @param name name of the stage.
+     * @return running stage that is passed to finishStage.
+     */
+    public final RunningStage startStage(final String name) {
+        RunningStage stage = new RunningStage(name, Thread.currentThread(), getAllocatedBytes(Thread.currentThread()), System.nanoTime());
+        synchronized (RUNNING_STAGES) {
+            //Resetting the peak while other stages run would wipe the peak they have recorded so far.
+            if (RUNNING_STAGES.isEmpty()) {
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                    if (pool.getType() == MemoryType.HEAP) {
+                        pool.resetPeakUsage();
+                    }
+                }
+            }
+            RUNNING_STAGES.put(stage, Boolean.TRUE);
+        }
+        return stage;
+    }
+
+    /**
+     * Finishes a stage.
+     *
+     * @param stage running stage.
+     * @param itemCount amount of items processed by the stage.
+     */
+    public final void finishStage(final RunningStage stage, final long itemCount) {
+        finishStage(stage, itemCount, new ArrayList<Thread>());
+    }
+
+    /**
+     * Finishes a stage and adds the allocations of the given worker threads. The worker threads should still be
+     * alive and should only have been used for this stage.
+     *
+     * @param stage running stage.
+     * @param itemCount amount of items processed by the stage.
+     * @param workerThreads threads that did part of the work of the stage.
+     */
+    public final void finishStage(final RunningStage stage, final long itemCount, final Collection<Thread> workerThreads) {
+        long wallTime = System.nanoTime() - stage.startTime;
+        long allocatedBytes = -1;
+        if (ALLOCATION_BEAN != null) {
+            allocatedBytes = getAllocatedBytes(stage.thread) - stage.allocationStart;
+            for (Thread thread : workerThreads) {
+                allocatedBytes += Math.max(0, getAllocatedBytes(thread));
+            }
+        }
+        long peakHeap = 0;
+        synchronized (RUNNING_STAGES) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            RUNNING_STAGES.remove(stage);
+        }
+        stageMetrics.add(new StageMetric(stage.name, wallTime, itemCount, allocatedBytes, peakHeap));
+    }
+
+    /**
+     * Returns the measurements of the finished stages.
+     *
+     * @return list of StageMetric objects in order of completion.
+     */
+    public final List<StageMetric> getStageMetrics() {
+        synchronized (stageMetrics) {
+            return new ArrayList<>(stageMetrics);
+        }
+    }
+
+    /**
+     * Writes the measurements to a csv file in the given directory. An existing file is replaced.
+     *
+     * @param outputDirectory directory to write the file to.
+     * @throws IOException could not write the file.
+     */
+    public final void writeCsv(final String outputDirectory) throws IOException {
+        String outputFile = outputDirectory + METRICS_FILE;
+        String delimiter = ",";
+        String lineEnding = "\n";
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+            writer.write("stage" + delimiter + "wall_time_ms" + delimiter + "items" + delimiter + "items_per_second" + delimiter
+                    + "allocated_bytes" + delimiter + "peak_heap_bytes" + lineEnding);
+            for (StageMetric metric : getStageMetrics()) {
+                writer.write(metric.getStageName() + delimiter
+                        + String.format(Locale.US, "%.3f", metric.getWallTime() / 1e6) + delimiter
+                        + metric.getItemCount() + delimiter
+                        + String.format(Locale.US, "%.1f", metric.getItemsPerSecond()) + delimiter
+                        + metric.getAllocatedBytes() + delimiter
+                        + metric.getPeakHeap() + lineEnding);
+            }
+        }
+        System.out.println("Finished writing metrics to " + outputFile);
+    }
+
+    /**
+     * Returns the bytes allocated by the given thread since it started.
+     *
+     * @param thread thread to measure.
+     * @return allocated bytes or -1 if not supported or the thread is no longer alive.
+     */
+    private long getAllocatedBytes(final Thread thread) {
+        if (ALLOCATION_BEAN == null) {
+            return -1;
+        }
+        return ALLOCATION_BEAN.getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * Start state of a stage that is being measured.
+     */
+    public static final class RunningStage {
+
+        /**
+         * Name of the stage.
+         */
+        private final String name;
+
+        /**
+         * Thread that started the stage.
+         */
+        private final Thread thread;
+
+        /**
+         * Allocated bytes of the thread at the start of the stage.
+         */
+        private final long allocationStart;
+
+        /**
+         * Start time of the stage in nanoseconds.
+         */
+        private final long startTime;
+
+        /**
+         * Creates the start state of a stage.
+         *
+         * @param name name of the stage.
+         * @param thread thread that started the stage.
+         * @param allocationStart allocated bytes of the thread.
+         * @param startTime start time in nanoseconds.
+         */
+        private RunningStage(final String name, final Thread thread, final long allocationStart, final long startTime) {
+            this.name = name;
+            this.thread = thread;
+            this.allocationStart = allocationStart;
+            this.startTime = startTime;
+        }
+    }
+}